@@ -0,0 +1,99 @@
+package com.dotcms.userproxy.interceptor;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dotcms.userproxy.model.BenchmarkRules;
+import com.dotcms.userproxy.model.UserProxyConfig;
+import com.dotcms.userproxy.model.UserProxyEntry;
+
+/**
+ * Measures per-host config lookups in the interceptor's {@link UserProxyConfigStore} under contention: eight readers
+ * alone, and seven readers while one thread keeps rebuilding hosts as an App secret save would.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigStoreContentionBenchmark {
+
+    @Param({ "1", "100", "1000" })
+    public int hostCount;
+
+    @Param({ "100" })
+    public int ruleCount;
+
+    private UserProxyConfigStore store;
+    private String[] hosts;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final List<UserProxyEntry> entries = BenchmarkRules.entries(ruleCount);
+        store = new UserProxyConfigStore(host -> new UserProxyConfig(entries, host), config -> {
+        }, 2, 60_000);
+        hosts = new String[hostCount];
+        for (int i = 0; i < hostCount; i++) {
+            hosts[i] = "host-" + i;
+            store.get(hosts[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        store.shutdown();
+    }
+
+    /**
+     * Walks the hosts from a random start, so threads do not hit the same host in lock step.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int next = ThreadLocalRandom.current().nextInt(1 << 16);
+
+        int next(final int bound) {
+            return (next++ & Integer.MAX_VALUE) % bound;
+        }
+    }
+
+    @Benchmark
+    @Group("read")
+    @GroupThreads(8)
+    public UserProxyConfig readOnly(final Cursor cursor) {
+        return store.get(hosts[cursor.next(hostCount)]);
+    }
+
+    @Benchmark
+    @Group("readWhileReloading")
+    @GroupThreads(7)
+    public UserProxyConfig reader(final Cursor cursor) {
+        return store.get(hosts[cursor.next(hostCount)]);
+    }
+
+    @Benchmark
+    @Group("readWhileReloading")
+    @GroupThreads(1)
+    public UserProxyConfigStore.Snapshot reloader(final Cursor cursor) {
+        return store.reload(hosts[cursor.next(hostCount)]).join();
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.dotcms.userproxy.interceptor;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.mockito.MockedStatic;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dotcms.auth.providers.jwt.beans.JWToken;
+import com.dotcms.auth.providers.jwt.services.ApiTokenAPI;
+import com.dotcms.filters.interceptor.Result;
+import com.dotcms.userproxy.model.BenchmarkRules;
+import com.dotcms.userproxy.model.UserProxyConfig;
+import com.dotmarketing.beans.Host;
+import com.dotmarketing.business.APILocator;
+import com.dotmarketing.business.web.HostWebAPI;
+import com.dotmarketing.business.web.WebAPILocator;
+import com.dotmarketing.util.Config;
+import com.liferay.portal.model.User;
+import com.liferay.portal.util.PortalUtil;
+
+/**
+ * Measures {@link UserProxyInterceptor#intercept} end to end, on a request that matches the last rule and on one that
+ * matches none, plus {@link UserProxyInterceptor#hasExistingAuth}. The host lookup, the portal user and the token API
+ * are static Mockito stubs, so results are comparable between plugin versions but include the stubs' own overhead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InterceptorBenchmark {
+
+    @Param({ "1", "10", "100", "1000", "10000" })
+    public int ruleCount;
+
+    @Param({ "index" })
+    public String engine;
+
+    private UserProxyInterceptor interceptor;
+    private HttpServletResponse response;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Config.setProperty("USER_PROXY_MATCH_ENGINE", engine);
+        interceptor = new UserProxyInterceptor();
+        UserProxyInterceptor.configStore().put(BenchmarkRules.HOST_ID,
+                new UserProxyConfig(BenchmarkRules.entries(ruleCount), BenchmarkRules.HOST_ID));
+        response = mock(HttpServletResponse.class, withSettings().stubOnly());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        UserProxyInterceptor.resetLazyUserProxyMap();
+    }
+
+    /**
+     * Requests and dotCMS locator stubs of one benchmark thread. Static mocks are only visible to the thread that
+     * registers them, so every thread sets up its own.
+     */
+    @State(Scope.Thread)
+    public static class Requests {
+
+        HttpServletRequest matching;
+        HttpServletRequest missing;
+        HttpServletRequest authenticated;
+
+        private final List<MockedStatic<?>> statics = new ArrayList<>();
+
+        @Setup(Level.Trial)
+        public void setUp(final InterceptorBenchmark benchmark) {
+            final Host host = mock(Host.class, withSettings().stubOnly());
+            when(host.getIdentifier()).thenReturn(BenchmarkRules.HOST_ID);
+            final HostWebAPI hostWebAPI = mock(HostWebAPI.class, withSettings().stubOnly());
+            when(hostWebAPI.getCurrentHostNoThrow(any())).thenReturn(host);
+
+            final User user = mock(User.class, withSettings().stubOnly());
+            when(user.isActive()).thenReturn(true);
+            when(user.getUserId()).thenReturn("benchmark-user");
+            final JWToken token = mock(JWToken.class, withSettings().stubOnly());
+            doReturn(Optional.of(user)).when(token).getActiveUser();
+            final ApiTokenAPI apiTokenAPI = mock(ApiTokenAPI.class, withSettings().stubOnly());
+            when(apiTokenAPI.fromJwt(anyString(), any())).thenReturn(Optional.of(token));
+
+            final MockedStatic<WebAPILocator> webAPILocator = mockStatic(WebAPILocator.class);
+            webAPILocator.when(WebAPILocator::getHostWebAPI).thenReturn(hostWebAPI);
+            statics.add(webAPILocator);
+            final MockedStatic<APILocator> apiLocator = mockStatic(APILocator.class);
+            apiLocator.when(APILocator::getApiTokenAPI).thenReturn(apiTokenAPI);
+            statics.add(apiLocator);
+            // no logged in portal user
+            statics.add(mockStatic(PortalUtil.class));
+
+            matching = request(BenchmarkRules.matchingUri(benchmark.ruleCount), null);
+            missing = request(BenchmarkRules.MISSING_URI, null);
+            authenticated = request(BenchmarkRules.matchingUri(benchmark.ruleCount), "Bearer benchmark");
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            statics.forEach(MockedStatic::close);
+            statics.clear();
+        }
+
+        private static HttpServletRequest request(final String uri, final String authorization) {
+            final HttpServletRequest request = mock(HttpServletRequest.class, withSettings().stubOnly());
+            when(request.getMethod()).thenReturn("GET");
+            when(request.getRequestURI()).thenReturn(uri);
+            when(request.getRemoteAddr()).thenReturn("10.0.0.1");
+            when(request.getHeader("Authorization")).thenReturn(authorization);
+            return request;
+        }
+    }
+
+    @Benchmark
+    public Result interceptMatch(final Requests requests) {
+        return interceptor.intercept(requests.matching, response);
+    }
+
+    @Benchmark
+    public Result interceptMiss(final Requests requests) {
+        return interceptor.intercept(requests.missing, response);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Result interceptMatchContended(final Requests requests) {
+        return interceptor.intercept(requests.matching, response);
+    }
+
+    @Benchmark
+    public boolean hasExistingAuthAnonymous(final Requests requests) {
+        return interceptor.hasExistingAuth(requests.missing);
+    }
+
+    @Benchmark
+    public boolean hasExistingAuthHeader(final Requests requests) {
+        return interceptor.hasExistingAuth(requests.authenticated);
+    }
+
+}
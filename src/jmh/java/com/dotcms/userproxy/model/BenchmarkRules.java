@@ -0,0 +1,134 @@
+package com.dotcms.userproxy.model;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Synthetic rule sets shared by the benchmarks. Rules cycle through the URL styles found in real configs (anchored
+ * prefixes, character classes, UUID paths and unanchored suffixes) and only the last rule matches
+ * {@link #matchingUri(int)}, which is the worst case for first-match evaluation.
+ */
+public final class BenchmarkRules {
+
+    public static final String HOST_ID = "benchmark-host";
+
+    public static final String MISSING_URI = "/nothing/to/see/here";
+
+    private BenchmarkRules() {
+    }
+
+    public static String url(final int index) {
+        switch (index % 4) {
+            case 0:
+                return "/api/v1/svc" + index + "/.*";
+            case 1:
+                return "^/content/site" + index + "/[a-z]+/page\\.html";
+            case 2:
+                return "/dA/" + index + "/[0-9a-f-]{36}/.*";
+            default:
+                return ".*\\.svc" + index + "\\.json";
+        }
+    }
+
+    /**
+     * @return the glob equivalent of {@link #url(int)}, matching the same URIs used by the benchmarks
+     */
+    public static String glob(final int index) {
+        switch (index % 4) {
+            case 0:
+                return "/api/v1/svc" + index + "/*";
+            case 1:
+                return "/content/site" + index + "/*/page.html";
+            case 2:
+                return "/dA/" + index + "/*";
+            default:
+                return "*.svc" + index + ".json";
+        }
+    }
+
+    public static String methods(final int index) {
+        return index % 2 == 0 ? "GET, POST" : "GET";
+    }
+
+    public static List<UserProxyEntry> entries(final int count) {
+        final List<UserProxyEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(new UserProxyEntry("token-" + i, methods(i), new String[] { url(i) }));
+        }
+        return entries;
+    }
+
+    public static List<UserProxyEntry> globEntries(final int count) {
+        final List<UserProxyEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(UserProxyEntry.builder("token-" + i, methods(i), new String[] { glob(i) })
+                    .urlType(UrlType.GLOB)
+                    .build());
+        }
+        return entries;
+    }
+
+    /**
+     * @return a GET URI matched by the last of {@code count} rules and by no other
+     */
+    public static String matchingUri(final int count) {
+        final int index = count - 1;
+        switch (index % 4) {
+            case 0:
+                return "/api/v1/svc" + index + "/items/42";
+            case 1:
+                return "/content/site" + index + "/news/page.html";
+            case 2:
+                return "/dA/" + index + "/0f8e3c1a-5b7d-4e2f-9a6c-1d2b3c4d5e6f/image.png";
+            default:
+                return "/assets/file.svc" + index + ".json";
+        }
+    }
+
+    /**
+     * @return the userproxy.json document of {@code count} rules, as saved in the App secrets
+     */
+    public static String json(final int count) {
+        final StringBuilder json = new StringBuilder("{\"config\":[");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"userToken\":\"token-").append(i)
+                    .append("\",\"methods\":\"").append(methods(i))
+                    .append("\",\"urls\":[\"").append(url(i).replace("\\", "\\\\")).append("\"]}");
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * @return the userproxy.json document of enough rules to be at least {@code bytes} long, each rule taking its token
+     *         from one of {@code tokenCount} {@code {tokenN}} placeholders, as saved in the App secrets
+     */
+    public static String jsonWithPlaceholders(final int bytes, final int tokenCount) {
+        final StringBuilder json = new StringBuilder(bytes + 256).append("{\"config\":[");
+        for (int i = 0; json.length() < bytes; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"userToken\":\"{token").append(i % tokenCount)
+                    .append("}\",\"methods\":\"").append(methods(i))
+                    .append("\",\"urls\":[\"").append(url(i).replace("\\", "\\\\")).append("\"]}");
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * @return the {@code token*} secrets referenced by {@link #jsonWithPlaceholders(int, int)}
+     */
+    public static Map<String, String> tokens(final int tokenCount) {
+        final Map<String, String> tokens = new HashMap<>();
+        for (int i = 0; i < tokenCount; i++) {
+            tokens.put("token" + i, "eyJhbGciOiJIUzI1NiJ9.token-" + i);
+        }
+        return tokens;
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.dotcms.userproxy.model;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dotcms.userproxy.util.JsonReader;
+import com.dotmarketing.util.json.JSONException;
+
+/**
+ * Measures loading large configs whose rules take their tokens from {@code {tokenN}} placeholders: the previous
+ * {@code String.replace} pass per token secret against the {@link JsonReader} resolving placeholders while it reads,
+ * and the whole {@link UserProxyEntryMapper#parseJsonToEntries(String, Map)}, rule compilation included.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConfigParseBenchmark {
+
+    @Param({ "1048576", "4194304", "16777216" })
+    public int configBytes;
+
+    @Param({ "50" })
+    public int tokenCount;
+
+    private String json;
+    private Map<String, String> tokens;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        json = BenchmarkRules.jsonWithPlaceholders(configBytes, tokenCount);
+        tokens = BenchmarkRules.tokens(tokenCount);
+    }
+
+    @Benchmark
+    public String replacePlaceholders() {
+        String config = json;
+        for (Map.Entry<String, String> token : tokens.entrySet()) {
+            config = config.replace("{" + token.getKey() + "}", token.getValue());
+        }
+        return config;
+    }
+
+    @Benchmark
+    public int readResolvingPlaceholders() throws JSONException {
+        final JsonReader reader = new JsonReader(json, tokens);
+        int length = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            reader.nextName();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    reader.nextName();
+                    if (reader.peek() == JsonReader.Kind.ARRAY) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            length += reader.nextString().length();
+                        }
+                        reader.endArray();
+                    } else {
+                        length += reader.nextString().length();
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endArray();
+        }
+        reader.endObject();
+        return length;
+    }
+
+    @Benchmark
+    public List<UserProxyEntry> parseJsonToEntries() {
+        return UserProxyEntryMapper.parseJsonToEntries(json, tokens);
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.dotcms.userproxy.model;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.dotcms.userproxy.util.HttpMethods;
+import com.dotmarketing.util.Config;
+
+/**
+ * Measures rule evaluation and config parsing in isolation from the interceptor: the legacy entry-by-entry
+ * {@link UserProxyEntry#matches(HttpServletRequest)} scan, the compiled {@link UserProxyConfig} lookup and
+ * {@link UserProxyEntryMapper#parseJsonToEntries(String)}, with regex or glob rules.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserProxyEntryBenchmark {
+
+    @Param({ "1", "10", "100", "1000", "10000" })
+    public int ruleCount;
+
+    @Param({ "index" })
+    public String engine;
+
+    @Param({ "regex", "glob" })
+    public String urlType;
+
+    private List<UserProxyEntry> entries;
+    private UserProxyConfig config;
+    private HttpServletRequest matching;
+    private HttpServletRequest missing;
+    private String matchingUri;
+    private String json;
+    private int getBit;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Config.setProperty("USER_PROXY_MATCH_ENGINE", engine);
+        entries = "glob".equals(urlType) ? BenchmarkRules.globEntries(ruleCount) : BenchmarkRules.entries(ruleCount);
+        config = new UserProxyConfig(entries, BenchmarkRules.HOST_ID);
+        matchingUri = BenchmarkRules.matchingUri(ruleCount);
+        matching = request(matchingUri);
+        missing = request(BenchmarkRules.MISSING_URI);
+        json = BenchmarkRules.json(ruleCount);
+        getBit = HttpMethods.bitOf("GET");
+    }
+
+    private static HttpServletRequest request(final String uri) {
+        final HttpServletRequest request = mock(HttpServletRequest.class, withSettings().stubOnly());
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getRequestURI()).thenReturn(uri);
+        return request;
+    }
+
+    private int scan(final HttpServletRequest request) {
+        for (int i = 0; i < entries.size(); i++) {
+            if (entries.get(i).matches(request)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Benchmark
+    public int entryScanMatch() {
+        return scan(matching);
+    }
+
+    @Benchmark
+    public int entryScanMiss() {
+        return scan(missing);
+    }
+
+    @Benchmark
+    public int configMatch() {
+        return config.indexOf(getBit, matchingUri, 0);
+    }
+
+    @Benchmark
+    public int configMiss() {
+        return config.indexOf(getBit, BenchmarkRules.MISSING_URI, 0);
+    }
+
+    @Benchmark
+    public List<UserProxyEntry> parseJsonToEntries() {
+        return UserProxyEntryMapper.parseJsonToEntries(json);
+    }
+
+}
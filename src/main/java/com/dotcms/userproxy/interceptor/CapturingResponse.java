@@ -0,0 +1,331 @@
+package com.dotcms.userproxy.interceptor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response wrapper that writes through to the client while keeping a copy of the body, so that a proxied response can
+ * be stored in the {@link ResponseCache} once it is complete.
+ *
+ * <p>
+ * Only plain {@code 200} responses can be kept. A response that sets a cookie, is encoded (for example compressed),
+ * is marked {@code Cache-Control: no-store} or {@code private}, is an error or a redirect, or grows past the maximum
+ * size stops being copied and is never cached.
+ *
+ * <p>
+ * The headers of a kept response are copied with it, except for hop-by-hop headers, which only apply to the connection
+ * they were sent on, and the headers the cache writes itself ({@code Content-Type}, {@code Content-Length},
+ * {@code Date}).
+ */
+final class CapturingResponse extends HttpServletResponseWrapper {
+
+    private static final Set<String> NOT_REPLAYED = Set.of("connection", "keep-alive", "proxy-authenticate",
+            "proxy-authorization", "proxy-connection", "te", "trailer", "transfer-encoding", "upgrade",
+            "content-type", "content-length", "date", "set-cookie");
+
+    private final int maxBytes;
+    private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private StringBuilder chars;
+    private int status = SC_OK;
+    private boolean cacheable = true;
+    private ServletOutputStream outputStream;
+    private PrintWriter writer;
+
+    CapturingResponse(final HttpServletResponse response, final int maxBytes) {
+        super(response);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Whether the response completed in a way that can be cached.
+     */
+    boolean isCacheable() {
+        return cacheable && status == SC_OK;
+    }
+
+    /**
+     * Gets the copy of the body, encoded with the response character encoding if it was written as characters.
+     *
+     * @return the body, or null if the response is not cacheable
+     */
+    byte[] getBody() {
+        if (!isCacheable()) {
+            return null;
+        }
+        if (chars != null) {
+            final String encoding = getCharacterEncoding();
+            final Charset charset = encoding != null ? Charset.forName(encoding) : StandardCharsets.ISO_8859_1;
+            return chars.toString().getBytes(charset);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Gets the headers to replay with the cached body, by name in the order they were set.
+     *
+     * @return the headers, or null if the response is not cacheable
+     */
+    Map<String, List<String>> getReplayedHeaders() {
+        if (!isCacheable()) {
+            return null;
+        }
+        final Map<String, List<String>> headers = new LinkedHashMap<>();
+        final Collection<String> names = getHeaderNames();
+        if (names == null) {
+            return headers;
+        }
+        for (final String name : names) {
+            if (NOT_REPLAYED.contains(name.toLowerCase(Locale.ROOT))) {
+                continue;
+            }
+            final Collection<String> values = getHeaders(name);
+            if (values == null || values.isEmpty()) {
+                continue;
+            }
+            for (final String value : values) {
+                // also set before this wrapper saw the response
+                if (forbidsSharing(name, value)) {
+                    uncacheable();
+                    return null;
+                }
+            }
+            headers.put(name, List.copyOf(values));
+        }
+        return headers;
+    }
+
+    /**
+     * Whether a header keeps a response out of shared caches.
+     */
+    static boolean forbidsSharing(final String name, final String value) {
+        if (!"Cache-Control".equalsIgnoreCase(name) || value == null) {
+            return false;
+        }
+        for (final String directive : value.split(",")) {
+            final int equals = directive.indexOf('=');
+            final String directiveName = (equals >= 0 ? directive.substring(0, equals) : directive).trim();
+            if ("no-store".equalsIgnoreCase(directiveName) || "private".equalsIgnoreCase(directiveName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void uncacheable() {
+        cacheable = false;
+        bytes = null;
+        chars = null;
+    }
+
+    private void captured(final int length) {
+        // characters are counted as two bytes each
+        final int size = bytes != null ? bytes.size() : chars != null ? chars.length() * 2 : 0;
+        if (size + length > maxBytes) {
+            uncacheable();
+        }
+    }
+
+    @Override
+    public void setStatus(final int sc) {
+        status = sc;
+        super.setStatus(sc);
+    }
+
+    @Override
+    public void sendError(final int sc) throws IOException {
+        status = sc;
+        uncacheable();
+        super.sendError(sc);
+    }
+
+    @Override
+    public void sendError(final int sc, final String msg) throws IOException {
+        status = sc;
+        uncacheable();
+        super.sendError(sc, msg);
+    }
+
+    @Override
+    public void sendRedirect(final String location) throws IOException {
+        uncacheable();
+        super.sendRedirect(location);
+    }
+
+    @Override
+    public void addCookie(final Cookie cookie) {
+        uncacheable();
+        super.addCookie(cookie);
+    }
+
+    @Override
+    public void setHeader(final String name, final String value) {
+        checkHeader(name, value);
+        super.setHeader(name, value);
+    }
+
+    @Override
+    public void addHeader(final String name, final String value) {
+        checkHeader(name, value);
+        super.addHeader(name, value);
+    }
+
+    private void checkHeader(final String name, final String value) {
+        if ("Set-Cookie".equalsIgnoreCase(name) || "Content-Encoding".equalsIgnoreCase(name)
+                || forbidsSharing(name, value)) {
+            uncacheable();
+        }
+    }
+
+    @Override
+    public void reset() {
+        super.reset();
+        status = SC_OK;
+        if (bytes != null) {
+            bytes.reset();
+        }
+        if (chars != null) {
+            chars.setLength(0);
+        }
+    }
+
+    @Override
+    public void resetBuffer() {
+        super.resetBuffer();
+        if (bytes != null) {
+            bytes.reset();
+        }
+        if (chars != null) {
+            chars.setLength(0);
+        }
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (outputStream == null) {
+            outputStream = new TeeOutputStream(super.getOutputStream());
+        }
+        return outputStream;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (writer == null) {
+            // not buffered, every write goes straight through to the response writer
+            writer = new PrintWriter(new TeeWriter(super.getWriter()));
+            if (bytes != null) {
+                bytes = null;
+                chars = new StringBuilder();
+            }
+        }
+        return writer;
+    }
+
+    private final class TeeOutputStream extends ServletOutputStream {
+
+        private final ServletOutputStream out;
+
+        TeeOutputStream(final ServletOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            if (bytes != null) {
+                captured(1);
+                if (bytes != null) {
+                    bytes.write(b);
+                }
+            }
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            if (bytes != null) {
+                captured(len);
+                if (bytes != null) {
+                    bytes.write(b, off, len);
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        @Override
+        public boolean isReady() {
+            return out.isReady();
+        }
+
+        @Override
+        public void setWriteListener(final WriteListener listener) {
+            out.setWriteListener(listener);
+        }
+    }
+
+    private final class TeeWriter extends Writer {
+
+        private final PrintWriter out;
+
+        TeeWriter(final PrintWriter out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(final char[] buf, final int off, final int len) {
+            out.write(buf, off, len);
+            if (chars != null) {
+                captured(len * 2);
+                if (chars != null) {
+                    chars.append(buf, off, len);
+                }
+            }
+        }
+
+        @Override
+        public void write(final String s, final int off, final int len) {
+            out.write(s, off, len);
+            if (chars != null) {
+                captured(len * 2);
+                if (chars != null) {
+                    chars.append(s, off, off + len);
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+            out.flush();
+        }
+
+        @Override
+        public void close() {
+            out.close();
+        }
+    }
+
+}
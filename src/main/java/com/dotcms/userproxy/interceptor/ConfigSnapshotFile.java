@@ -0,0 +1,356 @@
+package com.dotcms.userproxy.interceptor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import com.dotcms.userproxy.model.QueryCondition;
+import com.dotcms.userproxy.model.RateLimit;
+import com.dotcms.userproxy.model.RegexEngine;
+import com.dotcms.userproxy.model.ResolvedToken;
+import com.dotcms.userproxy.model.ResponseCachePolicy;
+import com.dotcms.userproxy.model.UrlType;
+import com.dotcms.userproxy.model.UserProxyConfig;
+import com.dotcms.userproxy.model.UserProxyEntry;
+import com.dotcms.userproxy.util.IpNetworks;
+import com.dotmarketing.util.Config;
+import com.dotmarketing.util.ConfigUtils;
+import com.dotmarketing.util.Logger;
+
+import io.vavr.control.Try;
+
+/**
+ * Persists the compiled config of every loaded host to a binary file under the asset path, so that after a restart
+ * hosts are served from it right away instead of each first request waiting for its App secrets to be loaded and its
+ * rules compiled. Turned on with {@code USER_PROXY_SNAPSHOT_ENABLED}.
+ *
+ * <p>
+ * The file holds, for each config, its entries with the URLs that were kept, its query conditions, networks, limits
+ * and the content hash of the secrets it was built from, and which hosts serve it. Tokens are never written: only the
+ * identifier of each API token and the user, expiry and networks found by its last validation. Restored tokens proxy
+ * no user until they are {@link ResolvedToken#confirm confirmed}, since they may have been revoked since. Configs
+ * restored from the file are reloaded from the current App secrets by the first request to each host, and the
+ * reloaded config's hash tells whether the restored one was still current.
+ *
+ * <p>
+ * The file is written every {@code USER_PROXY_SNAPSHOT_WRITE_SECONDS} when configs changed, and once more when the
+ * bundle stops. It is written to a temporary file and moved in place, is only readable by its owner where the file
+ * system supports it, and is named after the server, since clustered servers share the asset path. It is read through
+ * a memory mapping, and ignored if its checksum does not match.
+ */
+final class ConfigSnapshotFile {
+
+    private static final int MAGIC = 0x55505853;
+    private static final int FORMAT_VERSION = 2;
+
+    private final Path path;
+    private ScheduledExecutorService executor;
+    private long writtenVersion = -1;
+
+    ConfigSnapshotFile(final Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Whether persisting configs is turned on with {@code USER_PROXY_SNAPSHOT_ENABLED}.
+     */
+    static boolean isEnabled() {
+        return Config.getBooleanProperty("USER_PROXY_SNAPSHOT_ENABLED", false);
+    }
+
+    /**
+     * @return the snapshot file of this server, under {@code <assets>/server/userproxy}
+     */
+    static Path defaultPath() {
+        final String serverId = Try.of(ConfigUtils::getServerId).getOrElse("local");
+        return Paths.get(ConfigUtils.getAssetPath(), "server", "userproxy",
+                "config-snapshot-" + serverId.replaceAll("[^A-Za-z0-9_-]", "_") + ".bin");
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * Writes the configs of the store every {@code periodMillis}, if they changed since the last write.
+     */
+    synchronized void schedule(final UserProxyConfigStore store, final long periodMillis) {
+        if (executor != null || periodMillis <= 0) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "userproxy-snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.scheduleWithFixedDelay(() -> writeIfChanged(store), periodMillis, periodMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the configs of the store if they changed since the last write.
+     *
+     * @return the number of hosts written, or -1 if nothing changed or the write failed
+     */
+    synchronized int writeIfChanged(final UserProxyConfigStore store) {
+        final long version = store.version();
+        if (version == writtenVersion) {
+            return -1;
+        }
+        try {
+            final int hosts = write(store.hostConfigs());
+            writtenVersion = version;
+            return hosts;
+        } catch (Exception e) {
+            Logger.warn(ConfigSnapshotFile.class, "Unable to write the userproxy config snapshot " + path + ":" + e);
+            return -1;
+        }
+    }
+
+    synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * Replaces the file with the given configs. Entries that never match are left out.
+     *
+     * @param configs the config of each host
+     * @return the number of hosts written
+     */
+    int write(final Map<String, UserProxyConfig> configs) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeLong(System.currentTimeMillis());
+
+        // configs shared between hosts are written once
+        final Map<UserProxyConfig, Integer> indexes = new IdentityHashMap<>();
+        final List<UserProxyConfig> distinct = new ArrayList<>();
+        for (final UserProxyConfig config : configs.values()) {
+            if (indexes.putIfAbsent(config, distinct.size()) == null) {
+                distinct.add(config);
+            }
+        }
+        out.writeInt(distinct.size());
+        for (final UserProxyConfig config : distinct) {
+            writeConfig(out, config);
+        }
+        out.writeInt(configs.size());
+        for (final Map.Entry<String, UserProxyConfig> host : configs.entrySet()) {
+            writeString(out, host.getKey());
+            out.writeInt(indexes.get(host.getValue()));
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray(), 0, bytes.size());
+        out.writeLong(crc.getValue());
+        out.flush();
+
+        Files.createDirectories(path.getParent());
+        final Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(temp);
+        try {
+            Files.createFile(temp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(temp);
+        }
+        Files.write(temp, bytes.toByteArray());
+        try {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return configs.size();
+    }
+
+    private static void writeConfig(final DataOutputStream out, final UserProxyConfig config) throws IOException {
+        writeString(out, config.getSourceHostId());
+        writeString(out, config.getContentHash());
+        final List<UserProxyEntry> entries = new ArrayList<>();
+        for (final UserProxyEntry entry : config.getEntries()) {
+            if (!entry.isDisabled()) {
+                entries.add(entry);
+            }
+        }
+        out.writeInt(entries.size());
+        for (final UserProxyEntry entry : entries) {
+            writeString(out, String.join(",", entry.getMethods()));
+            writeString(out, entry.getUrlType().name());
+            writeString(out, entry.getRegexEngine().name());
+            writeStrings(out, entry.getUrlSources());
+            out.writeInt(entry.getQueryConditions().size());
+            for (final QueryCondition condition : entry.getQueryConditions()) {
+                writeString(out, condition.getName());
+                writeString(out, condition.getKind().name());
+                writeString(out, condition.getValue());
+            }
+            writeStrings(out, entry.getAllowedNetworks().getCidrs());
+            final RateLimit rateLimit = entry.getRateLimit();
+            out.writeDouble(rateLimit.getPerSecond());
+            out.writeInt(rateLimit.getBurst());
+            out.writeDouble(rateLimit.getPerIpPerSecond());
+            out.writeInt(rateLimit.getPerIpBurst());
+            out.writeBoolean(rateLimit.isReject());
+            out.writeLong(entry.getResponseCache().getTtlMillis());
+            writeStrings(out, entry.getResponseCache().getQueryParameters());
+
+            final ResolvedToken token = entry.getResolvedToken();
+            final boolean valid = token.getStatus() == ResolvedToken.Status.VALID;
+            writeString(out, valid ? token.getTokenId() : null);
+            writeString(out, valid ? token.getUserId() : null);
+            out.writeLong(token.getExpiresAtMillis());
+            out.writeLong(token.getResolvedAtMillis());
+            writeStrings(out, valid ? token.getAllowedNetworks().getCidrs() : List.of());
+        }
+    }
+
+    /**
+     * Reads the configs of the file. Hosts that shared a config when it was written share it again.
+     *
+     * @return the config of each host, empty if there is no file
+     * @throws IOException if the file cannot be read or is corrupt
+     */
+    Map<String, UserProxyConfig> read() throws IOException {
+        final ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (NoSuchFileException e) {
+            return Map.of();
+        }
+        if (in.limit() < 24 || in.getInt(0) != MAGIC || in.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Not a userproxy config snapshot, or an unsupported version: " + path);
+        }
+        final CRC32 crc = new CRC32();
+        final ByteBuffer content = in.duplicate();
+        content.limit(in.limit() - 8);
+        crc.update(content);
+        if (crc.getValue() != in.getLong(in.limit() - 8)) {
+            throw new IOException("Corrupt userproxy config snapshot: " + path);
+        }
+        try {
+            in.position(16);
+            final UserProxyConfig[] configs = new UserProxyConfig[in.getInt()];
+            for (int i = 0; i < configs.length; i++) {
+                configs[i] = readConfig(in);
+            }
+            final int hosts = in.getInt();
+            final Map<String, UserProxyConfig> result = new LinkedHashMap<>();
+            for (int i = 0; i < hosts; i++) {
+                result.put(readString(in), configs[in.getInt()]);
+            }
+            return result;
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt userproxy config snapshot: " + path, e);
+        }
+    }
+
+    private static UserProxyConfig readConfig(final ByteBuffer in) {
+        final String sourceHostId = readString(in);
+        final String contentHash = readString(in);
+        final int count = in.getInt();
+        final List<UserProxyEntry> entries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final String methods = readString(in);
+            final UrlType urlType = UrlType.valueOf(readString(in));
+            final RegexEngine regexEngine = RegexEngine.valueOf(readString(in));
+            final List<String> urls = readStrings(in);
+            final int conditionCount = in.getInt();
+            final List<QueryCondition> conditions = new ArrayList<>(conditionCount);
+            for (int c = 0; c < conditionCount; c++) {
+                conditions.add(condition(readString(in), QueryCondition.Kind.valueOf(readString(in)),
+                        readString(in)));
+            }
+            final List<String> networks = readStrings(in);
+            final RateLimit rateLimit = new RateLimit(in.getDouble(), in.getInt(), in.getDouble(), in.getInt(),
+                    in.get() != 0);
+            final ResponseCachePolicy responseCache = new ResponseCachePolicy(in.getLong(), readStrings(in));
+            final String tokenId = readString(in);
+            final String userId = readString(in);
+            final long expiresAtMillis = in.getLong();
+            final long resolvedAtMillis = in.getLong();
+            final List<String> tokenNetworks = readStrings(in);
+            final ResolvedToken token = ResolvedToken.restored(tokenId, userId, expiresAtMillis,
+                    tokenNetworks.isEmpty() ? IpNetworks.ANY : IpNetworks.of(tokenNetworks), resolvedAtMillis);
+            entries.add(UserProxyEntry.builder(null, methods, urls.toArray(new String[0]))
+                    .urlType(urlType)
+                    .queryConditions(conditions)
+                    .allowedNetworks(networks)
+                    .rateLimit(rateLimit.isLimited() ? rateLimit : RateLimit.NONE)
+                    .responseCache(responseCache)
+                    .regexEngine(regexEngine)
+                    .restored(token)
+                    .build());
+        }
+        return new UserProxyConfig(entries, sourceHostId, contentHash);
+    }
+
+    private static QueryCondition condition(final String name, final QueryCondition.Kind kind, final String value) {
+        switch (kind) {
+            case EQUALS:
+                return QueryCondition.equalTo(name, value);
+            case MATCHES:
+                return QueryCondition.matching(name, value);
+            default:
+                return QueryCondition.present(name);
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeStrings(final DataOutputStream out, final List<String> values) throws IOException {
+        out.writeInt(values.size());
+        for (final String value : values) {
+            writeString(out, value);
+        }
+    }
+
+    private static String readString(final ByteBuffer in) {
+        final int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static List<String> readStrings(final ByteBuffer in) {
+        final int count = in.getInt();
+        final List<String> values = new ArrayList<>(Math.min(count, in.remaining() / 4));
+        for (int i = 0; i < count; i++) {
+            values.add(readString(in));
+        }
+        return values;
+    }
+
+}
@@ -0,0 +1,142 @@
+package com.dotcms.userproxy.interceptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.dotcms.userproxy.util.AppKey;
+import com.dotmarketing.business.APILocator;
+import com.dotmarketing.util.Config;
+import com.dotmarketing.util.Logger;
+
+import io.vavr.control.Try;
+
+/**
+ * Loads and compiles the config of every host that has a User Proxy App secret (plus the System Host) right after
+ * the bundle starts, so that the first request to each site does not pay the secret loading cost.
+ *
+ * <p>
+ * The warm-up runs on its own background thread and never delays bundle activation. Hosts are built in parallel,
+ * at most {@code USER_PROXY_WARMUP_PARALLELISM} at a time, on virtual threads when the JVM supports them and on a
+ * fixed pool of platform threads otherwise. Progress and total time are logged.
+ */
+public final class ConfigWarmup {
+
+    private final int parallelism;
+
+    public ConfigWarmup() {
+        this(Config.getIntProperty("USER_PROXY_WARMUP_PARALLELISM", 8));
+    }
+
+    ConfigWarmup(final int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Whether warm-up on bundle start is turned on with {@code USER_PROXY_WARMUP_ON_START}.
+     *
+     * @return true if the warm-up should run
+     */
+    public static boolean isEnabled() {
+        return Config.getBooleanProperty("USER_PROXY_WARMUP_ON_START", false);
+    }
+
+    /**
+     * Starts the warm-up in the background and returns immediately.
+     */
+    public void startAsync() {
+        final Thread thread = new Thread(this::run, "userproxy-config-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void run() {
+        final long start = System.currentTimeMillis();
+        final List<String> hosts = configuredHosts();
+        Logger.info(ConfigWarmup.class, "Warming up UserProxy config for " + hosts.size() + " host(s)");
+
+        final ExecutorService executor = newExecutor();
+        final Semaphore permits = new Semaphore(parallelism);
+        final Executor bounded = task -> {
+            permits.acquireUninterruptibly();
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        };
+
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final int reportEvery = Math.max(1, hosts.size() / 10);
+        final List<CompletableFuture<?>> loads = new ArrayList<>();
+        try {
+            for (final String host : hosts) {
+                loads.add(UserProxyInterceptor.configStore().reload(host, bounded).whenComplete((snapshot, error) -> {
+                    if (error != null) {
+                        failed.incrementAndGet();
+                        Logger.warn(ConfigWarmup.class, "Unable to warm up UserProxy config for " + host + ":" + error);
+                    }
+                    final int count = done.incrementAndGet();
+                    if (count % reportEvery == 0 || count == hosts.size()) {
+                        Logger.info(ConfigWarmup.class, "UserProxy warm-up: " + count + "/" + hosts.size()
+                                + " host(s) in " + (System.currentTimeMillis() - start) + "ms");
+                    }
+                }));
+            }
+            Try.run(() -> CompletableFuture.allOf(loads.toArray(new CompletableFuture<?>[0])).join());
+        } finally {
+            executor.shutdown();
+        }
+        Logger.info(ConfigWarmup.class, "UserProxy warm-up finished: " + (hosts.size() - failed.get()) + " loaded, "
+                + failed.get() + " failed in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Lists the System Host plus every host that has a User Proxy App secret.
+     */
+    static List<String> configuredHosts() {
+        final List<String> hosts = new ArrayList<>();
+        final String systemHostId = APILocator.systemHost().getIdentifier();
+        hosts.add(systemHostId);
+        final Map<String, Set<String>> appKeysByHost = Try.of(() -> APILocator.getAppsAPI().appKeysByHost())
+                .onFailure(e -> Logger.warn(ConfigWarmup.class, "Unable to list hosts with App secrets:" + e))
+                .getOrElse(Map.of());
+        for (final Map.Entry<String, Set<String>> entry : appKeysByHost.entrySet()) {
+            // secret keys are stored lower-cased
+            if (entry.getKey().equalsIgnoreCase(systemHostId)) {
+                continue;
+            }
+            for (final String key : entry.getValue()) {
+                if (AppKey.USER_PROXY_APP_VALUE.appValue.equalsIgnoreCase(key)) {
+                    hosts.add(entry.getKey());
+                    break;
+                }
+            }
+        }
+        return hosts;
+    }
+
+    /**
+     * Creates a virtual thread per task executor when running on a JVM that has them, or a fixed thread pool.
+     */
+    private ExecutorService newExecutor() {
+        return Try.of(() -> (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                .invoke(null))
+                .getOrElse(() -> Executors.newFixedThreadPool(parallelism, r -> {
+                    final Thread thread = new Thread(r, "userproxy-config-warmup-worker");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+    }
+
+}
@@ -0,0 +1,198 @@
+package com.dotcms.userproxy.interceptor;
+
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.dotcms.userproxy.util.AppKey;
+import com.dotmarketing.beans.Host;
+import com.dotmarketing.business.APILocator;
+import com.dotmarketing.util.Config;
+import com.dotmarketing.util.Logger;
+import com.dotmarketing.util.WebKeys;
+
+/**
+ * The set of hosts that have a User Proxy App secret, indexed by hostname and alias, so that requests to any other
+ * site can be passed through without resolving their host.
+ *
+ * <p>
+ * A request can only be skipped when its server name is not a name or alias of a configured host and neither the
+ * System Host (the fallback of every site) nor the default host (where unknown names resolve to) is configured, and
+ * no configured host has a wildcard alias.
+ * Requests that pick their host some other way, with a {@code host_id} parameter or a host already set on the request,
+ * always go through the regular host lookup. Until the index is built, or if building it fails, no request is skipped.
+ *
+ * <p>
+ * The index is built when the bundle starts and rebuilt in the background every time secrets are saved, so the App
+ * listener never waits for the host lookups. Saves that arrive while a rebuild is waiting to run are merged into it.
+ * Until it is done, a save for a host the index does not know turns skipping off, so the newly configured host is never
+ * passed through. It can be turned off with {@code USER_PROXY_SKIP_UNCONFIGURED_HOSTS=false}.
+ */
+final class ConfiguredHosts {
+
+    private final boolean enabled;
+    private final AtomicBoolean queued = new AtomicBoolean();
+    private final AtomicLong changes = new AtomicLong();
+    private volatile Index index;
+
+    ConfiguredHosts() {
+        this(Config.getBooleanProperty("USER_PROXY_SKIP_UNCONFIGURED_HOSTS", true));
+    }
+
+    ConfiguredHosts(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Whether the request is for a site that has no configuration and cannot fall back to one.
+     *
+     * @param request the request
+     * @return true if the request can be passed through without a host lookup
+     */
+    boolean canSkip(final HttpServletRequest request) {
+        final Index current = index;
+        if (current == null || current.matchesAnyName) {
+            return false;
+        }
+        if (request.getAttribute(WebKeys.CURRENT_HOST) != null) {
+            return false;
+        }
+        final String query = request.getQueryString();
+        if (query != null && query.contains("host_id")) {
+            return false;
+        }
+        final String serverName = request.getServerName();
+        // toLowerCase returns the same instance when the name is already lower case
+        return serverName != null && !current.names.contains(serverName.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * @return the number of configured hosts, -1 if the index is not built
+     */
+    int size() {
+        final Index current = index;
+        return current != null ? current.hostIds.size() : -1;
+    }
+
+    /**
+     * Rebuilds the index from the App secrets of every host.
+     */
+    synchronized void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        final long seen = changes.get();
+        try {
+            final Index built = build();
+            if (changes.get() != seen) {
+                // read secrets older than a save that turned skipping off, the rebuild queued by it publishes
+                return;
+            }
+            index = built;
+            Logger.info(ConfiguredHosts.class, "UserProxy configured hosts: " + built.hostIds.size()
+                    + (built.matchesAnyName ? ", every site can fall back to one" : ""));
+        } catch (Exception e) {
+            index = null;
+            Logger.warn(ConfiguredHosts.class, "Unable to index UserProxy configured hosts, resolving every host:" + e);
+        }
+    }
+
+    /**
+     * Rebuilds the index on the given executor after the App secrets of a host were saved. Until then, requests are
+     * only skipped if the host was already configured.
+     *
+     * @param hostId   the host whose secrets were saved, or null if unknown
+     * @param executor the executor to rebuild the index on
+     */
+    void hostChanged(final String hostId, final Executor executor) {
+        if (!enabled) {
+            return;
+        }
+        final Index current = index;
+        if (current != null && (hostId == null || !current.hostIds.contains(hostId.toLowerCase(Locale.ROOT)))) {
+            changes.incrementAndGet();
+            index = null;
+        }
+        if (queued.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> {
+                    queued.set(false);
+                    rebuild();
+                });
+            } catch (Exception e) {
+                queued.set(false);
+                Logger.warn(ConfiguredHosts.class, "Unable to rebuild UserProxy configured hosts:" + e);
+            }
+        }
+    }
+
+    /**
+     * Sets the index directly. Used by tests.
+     */
+    void set(final Set<String> hostIds, final Set<String> names, final boolean matchesAnyName) {
+        index = new Index(hostIds, names, matchesAnyName);
+    }
+
+    private static Index build() throws Exception {
+        final Map<String, Set<String>> appKeysByHost = APILocator.getAppsAPI().appKeysByHost();
+        final Set<String> hostIds = new HashSet<>();
+        for (final Map.Entry<String, Set<String>> entry : appKeysByHost.entrySet()) {
+            for (final String key : entry.getValue()) {
+                if (AppKey.USER_PROXY_APP_VALUE.appValue.equalsIgnoreCase(key)) {
+                    // secret keys are stored lower-cased
+                    hostIds.add(entry.getKey().toLowerCase(Locale.ROOT));
+                    break;
+                }
+            }
+        }
+        final String systemHostId = APILocator.systemHost().getIdentifier().toLowerCase(Locale.ROOT);
+        final Host defaultHost = APILocator.getHostAPI().findDefaultHost(APILocator.systemUser(), false);
+        boolean matchesAnyName = hostIds.contains(systemHostId)
+                || defaultHost != null && hostIds.contains(defaultHost.getIdentifier().toLowerCase(Locale.ROOT));
+
+        final Set<String> names = new HashSet<>();
+        for (final String hostId : hostIds) {
+            if (hostId.equals(systemHostId)) {
+                continue;
+            }
+            final Host host = APILocator.getHostAPI().find(hostId, APILocator.systemUser(), false);
+            if (host == null) {
+                continue;
+            }
+            addName(names, host.getHostname());
+            if (host.getAliases() != null) {
+                for (final String alias : host.getAliases().split("[\\s,]+")) {
+                    matchesAnyName |= alias.contains("*");
+                    addName(names, alias);
+                }
+            }
+        }
+        return new Index(hostIds, names, matchesAnyName);
+    }
+
+    private static void addName(final Set<String> names, final String name) {
+        if (name != null && !name.isBlank()) {
+            names.add(name.trim().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    private static final class Index {
+
+        final Set<String> hostIds;
+        final Set<String> names;
+        final boolean matchesAnyName;
+
+        Index(final Set<String> hostIds, final Set<String> names, final boolean matchesAnyName) {
+            this.hostIds = Set.copyOf(hostIds);
+            this.names = Set.copyOf(names);
+            this.matchesAnyName = matchesAnyName;
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+package com.dotcms.userproxy.interceptor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.dotcms.filters.interceptor.Result;
+import com.dotcms.filters.interceptor.WebInterceptor;
+import com.dotcms.filters.interceptor.WebInterceptorDelegate;
+import com.dotcms.userproxy.matcher.RegexLiterals;
+import com.dotcms.userproxy.model.UserProxyConfig;
+import com.dotcms.userproxy.model.UserProxyEntry;
+import com.dotmarketing.util.Config;
+import com.dotmarketing.util.Logger;
+
+/**
+ * Narrows the paths the {@link UserProxyInterceptor} is registered for, so that requests no rule can match (images,
+ * CSS, JS bundles...) never reach it.
+ *
+ * <p>
+ * Turned on with {@code USER_PROXY_FILTER_MODE=narrow}. The configs of the System Host and of every host with a User
+ * Proxy App secret are taken from the {@link UserProxyConfigStore}, waiting for its pending loads, such as the reloads
+ * started by a secrets change, and loading only the hosts it does not hold yet. The leading literal of every URL
+ * pattern is cut back to its last {@code /} to give a filter path such as {@code /api/v1/*}. Paths covered by a
+ * shorter one are dropped. Any pattern that can match a URI not starting with its literal (an unanchored regex, a glob
+ * starting with {@code *}, a pattern without a literal path), and any host whose config cannot be loaded, keeps the
+ * interceptor on {@code /*}, so narrowing never changes which requests are proxied.
+ *
+ * <p>
+ * Filters are recomputed in the background on start and every time the App secrets change. When they change, the
+ * interceptor is registered again with the {@link WebInterceptorDelegate} under a new name, and only then is the
+ * previous registration removed, so there is no moment when requests are not intercepted.
+ */
+public final class InterceptorFilters {
+
+    static final String[] ALL = { "/*" };
+
+    private final WebInterceptorDelegate delegate;
+    private final UserProxyInterceptor interceptor;
+    private final AtomicBoolean queued = new AtomicBoolean();
+    private final AtomicInteger registrations = new AtomicInteger();
+    private volatile String registeredName;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        final Thread thread = new Thread(r, "userproxy-interceptor-filters");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public InterceptorFilters(final WebInterceptorDelegate delegate, final UserProxyInterceptor interceptor) {
+        this.delegate = delegate;
+        this.interceptor = interceptor;
+        this.registeredName = interceptor.getName();
+    }
+
+    /**
+     * Whether narrow filters are turned on with {@code USER_PROXY_FILTER_MODE}.
+     *
+     * @return true for {@code narrow}, false for {@code all} (the default)
+     */
+    public static boolean isNarrow() {
+        return "narrow".equalsIgnoreCase(Config.getStringProperty("USER_PROXY_FILTER_MODE", "all").trim());
+    }
+
+    /**
+     * Recomputes the filters in the background. Calls made while a refresh is already waiting to run are merged
+     * into it.
+     */
+    public void refreshAsync() {
+        if (queued.compareAndSet(false, true)) {
+            executor.execute(this::refresh);
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Gets the name the interceptor is currently registered under, to remove it with.
+     *
+     * @return the name of the interceptor, or of the registration that replaced it
+     */
+    public String getRegisteredName() {
+        return registeredName;
+    }
+
+    void refresh() {
+        queued.set(false);
+        final long start = System.currentTimeMillis();
+        final List<String> hosts = ConfigWarmup.configuredHosts();
+        final List<CompletableFuture<UserProxyConfigStore.Snapshot>> loads = new ArrayList<>(hosts.size());
+        for (final String host : hosts) {
+            loads.add(UserProxyInterceptor.configStore().current(host));
+        }
+        final List<UserProxyConfig> configs = new ArrayList<>(loads.size());
+        for (int i = 0; i < loads.size(); i++) {
+            try {
+                configs.add(loads.get(i).join().config);
+            } catch (Exception e) {
+                Logger.warn(InterceptorFilters.class, "Unable to load the userproxy config of " + hosts.get(i)
+                        + ", intercepting every path:" + e);
+                apply(ALL);
+                return;
+            }
+        }
+        final String[] filters = narrowest(configs);
+        Logger.info(InterceptorFilters.class, "UserProxy filters computed from " + hosts.size() + " host(s) in "
+                + (System.currentTimeMillis() - start) + "ms: " + Arrays.toString(filters));
+        apply(filters);
+    }
+
+    private synchronized void apply(final String[] filters) {
+        if (Arrays.equals(filters, interceptor.getFilters())) {
+            return;
+        }
+        interceptor.setFilters(filters);
+        // the delegate may only read the filters when an interceptor is added, so a new registration is added before
+        // the previous one is removed; a request seen by both is only proxied once, the second finds it authenticated
+        final Registration registration = new Registration(interceptor,
+                interceptor.getName() + "-" + registrations.incrementAndGet(), filters);
+        final String previous = registeredName;
+        delegate.addFirst(registration);
+        registeredName = registration.getName();
+        delegate.remove(previous, false);
+    }
+
+    /**
+     * Computes the fewest filter paths that cover every URI the given configs can match.
+     *
+     * @param configs the configs of every configured host
+     * @return the filter paths, {@link #ALL} if they cannot be narrowed
+     */
+    static String[] narrowest(final Collection<UserProxyConfig> configs) {
+        final TreeSet<String> prefixes = new TreeSet<>();
+        for (final UserProxyConfig config : configs) {
+            for (final UserProxyEntry entry : config.getEntries()) {
+                for (final Pattern url : entry.getUrls()) {
+                    final String prefix = pathPrefix(url.pattern());
+                    if (prefix == null) {
+                        Logger.debug(InterceptorFilters.class, "Url pattern can match any path:" + url.pattern());
+                        return ALL;
+                    }
+                    prefixes.add(prefix);
+                }
+            }
+        }
+        if (prefixes.isEmpty()) {
+            return ALL;
+        }
+        // sorted, so a prefix comes right before the paths it covers
+        final List<String> filters = new ArrayList<>();
+        String covering = null;
+        for (final String prefix : prefixes) {
+            if (covering == null || !prefix.startsWith(covering)) {
+                covering = prefix;
+                filters.add(prefix + '*');
+            }
+        }
+        return filters.toArray(new String[0]);
+    }
+
+    /**
+     * Registers the interceptor for a fixed set of paths under its own name.
+     */
+    private static final class Registration implements WebInterceptor {
+
+        private final UserProxyInterceptor interceptor;
+        private final String name;
+        private final String[] filters;
+
+        Registration(final UserProxyInterceptor interceptor, final String name, final String[] filters) {
+            this.interceptor = interceptor;
+            this.name = name;
+            this.filters = filters;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String[] getFilters() {
+            return filters;
+        }
+
+        @Override
+        public Result intercept(final HttpServletRequest request, final HttpServletResponse response)
+                throws IOException {
+            return interceptor.intercept(request, response);
+        }
+
+        @Override
+        public boolean afterIntercept(final HttpServletRequest request, final HttpServletResponse response) {
+            return interceptor.afterIntercept(request, response);
+        }
+
+        @Override
+        public boolean isActive() {
+            return interceptor.isActive();
+        }
+
+        @Override
+        public void destroy() {
+            // only the last registration is removed with destroy, when the plugin stops
+            interceptor.destroy();
+        }
+    }
+
+    /**
+     * Returns the directory every URI matched by the regex starts with, or null if it can match URIs in {@code /}.
+     */
+    static String pathPrefix(final String regex) {
+        if (!RegexLiterals.isAnchored(regex)) {
+            return null;
+        }
+        final String literal = RegexLiterals.leadingLiteral(regex);
+        final int slash = literal.lastIndexOf('/');
+        return literal.startsWith("/") && slash > 0 ? literal.substring(0, slash + 1) : null;
+    }
+
+}
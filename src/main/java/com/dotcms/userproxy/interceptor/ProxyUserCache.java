@@ -0,0 +1,144 @@
+package com.dotcms.userproxy.interceptor;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import com.dotcms.auth.providers.jwt.beans.JWToken;
+import com.dotcms.userproxy.model.ResolvedToken;
+import com.dotcms.userproxy.model.UserProxyEntry;
+import com.dotcms.userproxy.util.BoundedCache;
+import com.dotmarketing.business.APILocator;
+import com.dotmarketing.util.Config;
+import com.liferay.portal.model.User;
+
+import io.vavr.control.Try;
+
+/**
+ * Caches the user resolved from a {@link UserProxyEntry} token for a given client IP, so the JWT is only parsed and
+ * validated once per TTL instead of on every matched request. Failed resolutions are cached too, so requests from
+ * addresses outside of the token's network range do not re-run the JWT validation either.
+ *
+ * <p>
+ * Cached users expire at the earlier of the configured TTL and the token's own expiry date. The TTL bounds how long a
+ * revoked token or deactivated user keeps being honored.
+ *
+ * <p>
+ * Entries whose token was already validated when their config was loaded (see
+ * {@link com.dotcms.userproxy.model.ResolvedToken}) bypass the cache: they only need an IP check.
+ */
+final class ProxyUserCache {
+
+    private final BoundedCache<Key, Optional<User>> cache;
+
+    ProxyUserCache() {
+        this(Config.getIntProperty("USER_PROXY_USER_CACHE_MAX_SIZE", 10000),
+                Config.getIntProperty("USER_PROXY_USER_CACHE_TTL_SECONDS", 60));
+    }
+
+    ProxyUserCache(final int maxSize, final int ttlSeconds) {
+        this.cache = new BoundedCache<>(maxSize, ttlSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Resolves the active user for the entry's token as seen from the given client IP.
+     *
+     * @param entry    the matched entry
+     * @param remoteIp the client IP address
+     * @return the active user, or null if the token is not valid for this client
+     */
+    User resolve(final UserProxyEntry entry, final String remoteIp) {
+        ResolvedToken resolved = entry.getResolvedToken();
+        if (resolved.isUnconfirmed()) {
+            // restored from a snapshot and not confirmed in the background yet
+            resolved = entry.refreshToken();
+        }
+        if (resolved.isResolved()) {
+            return resolved.userFor(remoteIp);
+        }
+        final Key key = new Key(entry, remoteIp);
+        final Optional<User> cached = cache.get(key);
+        if (cached != null) {
+            return cached.isPresent() && cached.get().isActive() ? cached.get() : null;
+        }
+
+        final Optional<JWToken> token = Try.of(() -> APILocator.getApiTokenAPI()
+                .fromJwt(new String(entry.getUserToken()), remoteIp)).getOrElse(Optional.empty());
+        final User user = token.isPresent() ? Try.of(() -> token.get().getActiveUser().get()).getOrNull() : null;
+
+        cache.put(key, Optional.ofNullable(user), ttlNanos(token));
+        return user;
+    }
+
+    private static long ttlNanos(final Optional<JWToken> token) {
+        final Date expires = token.isPresent() ? token.get().getExpiresDate() : null;
+        return expires != null
+                ? TimeUnit.MILLISECONDS.toNanos(Math.max(0, expires.getTime() - System.currentTimeMillis()))
+                : Long.MAX_VALUE;
+    }
+
+    /**
+     * Drops the users resolved for any of the given entries.
+     *
+     * @param entries the entries of a config that is being replaced
+     */
+    void invalidate(final Collection<UserProxyEntry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        final Set<UserProxyEntry> stale = Collections.newSetFromMap(new IdentityHashMap<>());
+        stale.addAll(entries);
+        cache.invalidateIf(key -> stale.contains(key.entry));
+    }
+
+    void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    int size() {
+        return cache.size();
+    }
+
+    long hitCount() {
+        return cache.hitCount();
+    }
+
+    long missCount() {
+        return cache.missCount();
+    }
+
+    private static final class Key {
+
+        private final UserProxyEntry entry;
+        private final String remoteIp;
+        private final int hash;
+
+        Key(final UserProxyEntry entry, final String remoteIp) {
+            this.entry = entry;
+            this.remoteIp = remoteIp != null ? remoteIp : "";
+            this.hash = 31 * System.identityHashCode(entry) + this.remoteIp.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return entry == other.entry && remoteIp.equals(other.remoteIp);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
@@ -0,0 +1,289 @@
+package com.dotcms.userproxy.interceptor;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.dotcms.filters.interceptor.Result;
+import com.dotcms.userproxy.model.QueryParameters;
+import com.dotcms.userproxy.model.ResponseCachePolicy;
+import com.dotcms.userproxy.model.UserProxyConfig;
+import com.dotcms.userproxy.util.BoundedCache;
+import com.dotmarketing.util.Config;
+import com.dotmarketing.util.Logger;
+
+/**
+ * Shares the responses to proxied GET requests between callers, for entries that have a {@link ResponseCachePolicy}.
+ * Responses are keyed by the host, the config and entry that proxied them (so by user), the URI and the query
+ * parameters the policy lists, and kept for the policy's TTL. A HEAD request is answered from the cached GET response
+ * but never fills the cache. Cached responses are replayed with their status, content type, body and the headers
+ * {@link CapturingResponse} kept ({@code Cache-Control}, {@code ETag}, {@code Last-Modified}, {@code Vary}...).
+ *
+ * <p>
+ * A miss is single-flighted: the first request goes through to dotCMS with a {@link CapturingResponse} and stores the
+ * copy in {@link #complete(HttpServletRequest)}, called once the response is done. Identical requests arriving in the
+ * meantime wait for it, at most {@code USER_PROXY_RESPONSE_CACHE_WAIT_MILLIS}, and go through themselves if it could
+ * not be cached or takes longer.
+ *
+ * <p>
+ * The cache holds at most {@code USER_PROXY_RESPONSE_CACHE_MAX_BYTES} of responses (0 turns it off) and skips
+ * responses bigger than {@code USER_PROXY_RESPONSE_CACHE_MAX_ENTRY_BYTES}. Responses are held in a {@link BoundedCache}
+ * weighed by body and header size, which evicts expired or least recently used ones when full. Reloading a host's
+ * config drops the responses cached for the previous one.
+ */
+final class ResponseCache {
+
+    static final String PENDING_ATTRIBUTE = ResponseCache.class.getName() + ".pending";
+
+    private final BoundedCache<Key, Cached> responses;
+    private final ConcurrentHashMap<Key, CompletableFuture<Cached>> inflight = new ConcurrentHashMap<>();
+    private final long maxBytes;
+    private final int maxEntryBytes;
+    private final long waitMillis;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    ResponseCache() {
+        this(Config.getLongProperty("USER_PROXY_RESPONSE_CACHE_MAX_BYTES", 64L * 1024 * 1024),
+                Config.getIntProperty("USER_PROXY_RESPONSE_CACHE_MAX_ENTRY_BYTES", 1024 * 1024),
+                Config.getLongProperty("USER_PROXY_RESPONSE_CACHE_WAIT_MILLIS", 5000));
+    }
+
+    ResponseCache(final long maxBytes, final int maxEntryBytes, final long waitMillis) {
+        this.maxBytes = Math.max(0, maxBytes);
+        this.maxEntryBytes = (int) Math.min(maxEntryBytes, this.maxBytes);
+        this.waitMillis = waitMillis;
+        this.responses = new BoundedCache<>(this.maxBytes, Long.MAX_VALUE, TimeUnit.NANOSECONDS,
+                cached -> cached.weight);
+    }
+
+    boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * Serves a proxied request from the cache, or prepares its response to be cached.
+     *
+     * @param hostId   the identifier of the host
+     * @param config   the config of the host
+     * @param index    the index of the entry that proxied the request
+     * @param policy   the cache policy of the entry
+     * @param head     whether the request is a HEAD request
+     * @param uri      the request URI
+     * @param query    the request parameters
+     * @param request  the request
+     * @param response the response
+     * @return {@link Result#SKIP_NO_CHAIN} if the response was written from the cache, a result wrapping the response
+     *         if this request fills the cache, or {@link Result#NEXT}
+     */
+    Result intercept(final String hostId, final UserProxyConfig config, final int index,
+            final ResponseCachePolicy policy, final boolean head, final String uri, final QueryParameters query,
+            final HttpServletRequest request, final HttpServletResponse response) {
+        // hosts sharing a config serve different content for the same URI
+        final Key key = new Key(hostId, config, index, policy.keyOf(uri, query));
+        final Cached cached = responses.get(key);
+        if (cached != null) {
+            hits.increment();
+            return write(cached, head, response);
+        }
+        misses.increment();
+        if (head) {
+            return Result.NEXT;
+        }
+
+        final CompletableFuture<Cached> created = new CompletableFuture<>();
+        final CompletableFuture<Cached> existing = inflight.putIfAbsent(key, created);
+        if (existing == null) {
+            final CapturingResponse capturing = new CapturingResponse(response, maxEntryBytes);
+            request.setAttribute(PENDING_ATTRIBUTE, new Pending(key, created, capturing, policy.getTtlMillis()));
+            return Result.wrap(request, capturing);
+        }
+
+        coalesced.increment();
+        try {
+            final Cached filled = existing.get(waitMillis, TimeUnit.MILLISECONDS);
+            return filled != null ? write(filled, false, response) : Result.NEXT;
+        } catch (TimeoutException e) {
+            // the first request is slow or never completed, let the next miss try again
+            inflight.remove(key, existing);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // never completed exceptionally
+        }
+        return Result.NEXT;
+    }
+
+    /**
+     * Stores the response of a request that went through with a {@link CapturingResponse}, if it can be cached, and
+     * hands it to the requests waiting for it.
+     *
+     * @param request the completed request
+     */
+    void complete(final HttpServletRequest request) {
+        final Object attribute = request.getAttribute(PENDING_ATTRIBUTE);
+        if (!(attribute instanceof Pending)) {
+            return;
+        }
+        request.setAttribute(PENDING_ATTRIBUTE, null);
+        final Pending pending = (Pending) attribute;
+        Cached cached = null;
+        try {
+            final byte[] body = pending.response.getBody();
+            final Map<String, List<String>> headers = body != null ? pending.response.getReplayedHeaders() : null;
+            if (headers != null) {
+                cached = new Cached(body, pending.response.getContentType(), headers);
+                responses.put(pending.key, cached, TimeUnit.MILLISECONDS.toNanos(pending.ttlMillis));
+            }
+        } finally {
+            inflight.remove(pending.key, pending.future);
+            pending.future.complete(cached);
+        }
+    }
+
+    private static Result write(final Cached cached, final boolean head, final HttpServletResponse response) {
+        response.setStatus(HttpServletResponse.SC_OK);
+        if (cached.contentType != null) {
+            response.setContentType(cached.contentType);
+        }
+        for (final Map.Entry<String, List<String>> header : cached.headers.entrySet()) {
+            final List<String> values = header.getValue();
+            response.setHeader(header.getKey(), values.get(0));
+            for (int i = 1; i < values.size(); i++) {
+                response.addHeader(header.getKey(), values.get(i));
+            }
+        }
+        response.setContentLength(cached.body.length);
+        if (!head) {
+            try {
+                response.getOutputStream().write(cached.body);
+            } catch (IOException e) {
+                Logger.debug(ResponseCache.class, "Unable to write cached userproxy response:" + e);
+            }
+        }
+        return Result.SKIP_NO_CHAIN;
+    }
+
+    /**
+     * Drops the responses cached for a config that was replaced.
+     *
+     * @param config the replaced config
+     */
+    void invalidate(final UserProxyConfig config) {
+        responses.invalidateIf(key -> key.config == config);
+    }
+
+    void invalidateAll() {
+        responses.invalidateAll();
+    }
+
+    int size() {
+        return responses.size();
+    }
+
+    long byteSize() {
+        return responses.weight();
+    }
+
+    long hitCount() {
+        return hits.sum();
+    }
+
+    long missCount() {
+        return misses.sum();
+    }
+
+    long coalescedCount() {
+        return coalesced.sum();
+    }
+
+    long evictionCount() {
+        return responses.evictionCount();
+    }
+
+    private static final class Key {
+
+        final String hostId;
+        final UserProxyConfig config;
+        final int index;
+        final String request;
+        final int hash;
+
+        Key(final String hostId, final UserProxyConfig config, final int index, final String request) {
+            this.hostId = hostId;
+            this.config = config;
+            this.index = index;
+            this.request = request;
+            this.hash = ((Objects.hashCode(hostId) * 31 + System.identityHashCode(config)) * 31 + index) * 31
+                    + request.hashCode();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return config == other.config && index == other.index && Objects.equals(hostId, other.hostId)
+                    && Objects.equals(request, other.request);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Cached {
+
+        final byte[] body;
+        final String contentType;
+        final Map<String, List<String>> headers;
+        final int weight;
+
+        Cached(final byte[] body, final String contentType, final Map<String, List<String>> headers) {
+            this.body = body;
+            this.contentType = contentType;
+            this.headers = headers;
+            int headerChars = 0;
+            for (final Map.Entry<String, List<String>> header : headers.entrySet()) {
+                for (final String value : header.getValue()) {
+                    headerChars += header.getKey().length() + value.length();
+                }
+            }
+            // characters are counted as two bytes each
+            this.weight = body.length + 2 * headerChars;
+        }
+    }
+
+    static final class Pending {
+
+        final Key key;
+        final CompletableFuture<Cached> future;
+        final CapturingResponse response;
+        final long ttlMillis;
+
+        Pending(final Key key, final CompletableFuture<Cached> future, final CapturingResponse response,
+                final long ttlMillis) {
+            this.key = key;
+            this.future = future;
+            this.response = response;
+            this.ttlMillis = ttlMillis;
+        }
+    }
+
+}
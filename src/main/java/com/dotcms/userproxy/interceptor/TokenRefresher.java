@@ -0,0 +1,92 @@
+package com.dotcms.userproxy.interceptor;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import com.dotcms.userproxy.model.ResolvedToken;
+import com.dotcms.userproxy.model.UserProxyConfig;
+import com.dotcms.userproxy.model.UserProxyEntry;
+import com.dotmarketing.util.Config;
+import com.dotmarketing.util.Logger;
+
+/**
+ * Validates the tokens of every loaded entry again in the background, so that requests never have to: a token is
+ * refreshed once it was validated more than {@code USER_PROXY_TOKEN_REFRESH_SECONDS} ago or when it is about to
+ * expire. Entries whose token becomes invalid or whose user becomes inactive stop matching until a refresh finds them
+ * valid again. A config whose tokens changed status or networks is told so, to update the networks it checks.
+ *
+ * <p>
+ * The refresh interval bounds how long a revoked token or deactivated user keeps being honored. Setting it to 0 turns
+ * pre-validation off, and tokens are validated on requests through the {@link ProxyUserCache}.
+ */
+final class TokenRefresher {
+
+    private final Supplier<List<UserProxyConfig>> configs;
+    private final long refreshMillis;
+    private final ScheduledExecutorService executor;
+
+    TokenRefresher(final Supplier<List<UserProxyConfig>> configs) {
+        this(configs, TimeUnit.SECONDS.toMillis(Config.getIntProperty("USER_PROXY_TOKEN_REFRESH_SECONDS", 60)));
+    }
+
+    TokenRefresher(final Supplier<List<UserProxyConfig>> configs, final long refreshMillis) {
+        this.configs = configs;
+        this.refreshMillis = refreshMillis;
+        this.executor = refreshMillis > 0 ? Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "userproxy-token-refresher");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        if (executor != null) {
+            // checked several times per interval, so tokens are refreshed before they expire
+            final long period = Math.max(1000, refreshMillis / 4);
+            executor.scheduleWithFixedDelay(this::run, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Refreshes every token that is due.
+     *
+     * @return the number of tokens refreshed
+     */
+    int run() {
+        int refreshed = 0;
+        try {
+            final long now = System.currentTimeMillis();
+            for (final UserProxyConfig config : configs.get()) {
+                boolean changed = false;
+                for (final UserProxyEntry entry : config.getEntries()) {
+                    final ResolvedToken previous = entry.getResolvedToken();
+                    if (!previous.isDue(refreshMillis, now)) {
+                        continue;
+                    }
+                    final ResolvedToken current = entry.refreshToken();
+                    refreshed++;
+                    changed |= current.getStatus() != previous.getStatus() || !current.getAllowedNetworks().getCidrs()
+                            .equals(previous.getAllowedNetworks().getCidrs());
+                    if (current.getStatus() != previous.getStatus()) {
+                        Logger.info(TokenRefresher.class, "UserProxy token of " + entry + " for host "
+                                + config.getSourceHostId() + " is now " + current.getStatus()
+                                + (current.getProblem() != null ? ": " + current.getProblem() : ""));
+                    }
+                }
+                if (changed) {
+                    config.tokensRefreshed();
+                }
+            }
+        } catch (Exception e) {
+            Logger.warn(TokenRefresher.class, "Unable to refresh UserProxy tokens:" + e);
+        }
+        return refreshed;
+    }
+
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+}
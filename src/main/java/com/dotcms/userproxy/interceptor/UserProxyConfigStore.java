@@ -0,0 +1,462 @@
+package com.dotcms.userproxy.interceptor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.dotcms.userproxy.model.UserProxyConfig;
+import com.dotmarketing.util.Config;
+import com.dotmarketing.util.Logger;
+
+/**
+ * Holds the compiled {@link UserProxyConfig} of every host that has been requested, as immutable versioned snapshots.
+ *
+ * <p>
+ * Configs are always built on a background loader thread, never inside a map lock, and swapped in atomically once
+ * they are complete. When a host's App secrets change, its new config is built in the background while requests keep
+ * being served from the previous snapshot. A build only replaces the current snapshot if it was started after it, so a
+ * slow build that read older secrets can never overwrite a newer one.
+ *
+ * <p>
+ * Only the very first requests for a host have nothing to serve from. They start, or join, the (single, shared) load
+ * of that host and wait for it for at most {@code USER_PROXY_COLD_LOAD_WAIT_MILLIS} (5 seconds by default), then are
+ * passed through without a proxy user. Once a host has a snapshot, request threads never block on config loading.
+ *
+ * <p>
+ * There is at most one load per host waiting for a loader thread: reloads requested before it starts join it, since
+ * it reads the App secrets when it starts. A reload requested while a load is running starts another one.
+ *
+ * <p>
+ * When {@code USER_PROXY_REFRESH_AFTER_WRITE_SECONDS} is set, a snapshot older than that interval is rebuilt in the
+ * background by the first request that sees it, while that and every other request keep being served from it. At most
+ * one load per host runs at a time. If a load fails, the last good snapshot is kept and retried after another interval.
+ *
+ * <p>
+ * Configs {@link #restore restored} from a {@link ConfigSnapshotFile} are served right away and reloaded in the
+ * background by the first request to their host. Any load replaces them, and comparing the content hash of the loaded
+ * config with the restored one counts the restored configs that were still current. A failed load drops the restored
+ * config instead of keeping it.
+ */
+final class UserProxyConfigStore {
+
+    private final ConcurrentHashMap<String, Snapshot> lazyUserProxyMap = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Load> pendingLoads = new ConcurrentHashMap<>();
+    private final AtomicLong versions = new AtomicLong();
+    private final AtomicLong changes = new AtomicLong();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder restoredHosts = new LongAdder();
+    private final LongAdder restoredConfirmed = new LongAdder();
+    private final LongAdder restoredStale = new LongAdder();
+    private final Function<String, UserProxyConfig> loader;
+    private final Consumer<UserProxyConfig> onReplaced;
+    private final ExecutorService executor;
+    private final long coldLoadWaitMillis;
+    private final long refreshAfterNanos;
+
+    UserProxyConfigStore(final Function<String, UserProxyConfig> loader, final Consumer<UserProxyConfig> onReplaced) {
+        this(loader, onReplaced, Config.getIntProperty("USER_PROXY_LOADER_THREADS", 2),
+                Config.getLongProperty("USER_PROXY_COLD_LOAD_WAIT_MILLIS", 5000),
+                TimeUnit.SECONDS.toMillis(Config.getLongProperty("USER_PROXY_REFRESH_AFTER_WRITE_SECONDS", 0)));
+    }
+
+    UserProxyConfigStore(final Function<String, UserProxyConfig> loader, final Consumer<UserProxyConfig> onReplaced,
+            final int loaderThreads, final long coldLoadWaitMillis) {
+        this(loader, onReplaced, loaderThreads, coldLoadWaitMillis, 0);
+    }
+
+    UserProxyConfigStore(final Function<String, UserProxyConfig> loader, final Consumer<UserProxyConfig> onReplaced,
+            final int loaderThreads, final long coldLoadWaitMillis, final long refreshAfterMillis) {
+        this.loader = loader;
+        this.onReplaced = onReplaced;
+        this.coldLoadWaitMillis = coldLoadWaitMillis;
+        this.refreshAfterNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, refreshAfterMillis));
+        this.executor = newLoaderExecutor(loaderThreads);
+    }
+
+    private static ExecutorService newLoaderExecutor(final int threads) {
+        final AtomicInteger count = new AtomicInteger();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(Math.max(1, threads), Math.max(1, threads), 60,
+                TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                    final Thread thread = new Thread(r, "userproxy-config-loader-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Gets the current config of a host, loading it if it has never been loaded and refreshing it in the background if
+     * it is stale.
+     *
+     * @param hostIdentifier the host identifier
+     * @return the current config, or {@link UserProxyConfig#EMPTY} if the first load of the host is not done yet
+     */
+    UserProxyConfig get(final String hostIdentifier) {
+        final Snapshot snapshot = lazyUserProxyMap.get(hostIdentifier);
+        if (snapshot != null) {
+            if (snapshot.restored
+                    || refreshAfterNanos > 0 && System.nanoTime() - snapshot.loadedAt >= refreshAfterNanos) {
+                loadOnce(hostIdentifier);
+            }
+            return snapshot.config;
+        }
+        misses.increment();
+        final CompletableFuture<Snapshot> load = loadOnce(hostIdentifier);
+        try {
+            return coldLoadWaitMillis > 0
+                    ? load.get(coldLoadWaitMillis, TimeUnit.MILLISECONDS).config
+                    : UserProxyConfig.EMPTY;
+        } catch (TimeoutException e) {
+            Logger.warn(UserProxyConfigStore.class, "Timed out waiting for the userproxy config of " + hostIdentifier);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // already logged by the loader, the next request retries
+        }
+        return UserProxyConfig.EMPTY;
+    }
+
+    /**
+     * Starts, or joins, the pending load of a host, whether it is running or not.
+     */
+    private CompletableFuture<Snapshot> loadOnce(final String hostIdentifier) {
+        final Load existing = pendingLoads.get(hostIdentifier);
+        if (existing != null) {
+            return existing.result;
+        }
+        final Load created = new Load();
+        final Load raced = pendingLoads.putIfAbsent(hostIdentifier, created);
+        if (raced != null) {
+            return raced.result;
+        }
+        submit(hostIdentifier, created, executor);
+        return created.result;
+    }
+
+    /**
+     * Gets the newest config of a host without reloading it: waits for its pending load if there is one, and loads it
+     * if it was never loaded.
+     *
+     * @param hostIdentifier the host identifier
+     * @return a future completed with the snapshot
+     */
+    CompletableFuture<Snapshot> current(final String hostIdentifier) {
+        final Load pending = pendingLoads.get(hostIdentifier);
+        if (pending != null) {
+            return pending.result;
+        }
+        final Snapshot snapshot = lazyUserProxyMap.get(hostIdentifier);
+        return snapshot != null ? CompletableFuture.completedFuture(snapshot) : loadOnce(hostIdentifier);
+    }
+
+    /**
+     * Builds a new config for the host in the background and swaps it in once it is ready.
+     *
+     * @param hostIdentifier the host identifier
+     * @return a future completed with the new snapshot
+     */
+    CompletableFuture<Snapshot> reload(final String hostIdentifier) {
+        return reload(hostIdentifier, executor);
+    }
+
+    /**
+     * Builds a new config for the host on the given executor and swaps it in once it is ready. Joins the pending load
+     * of the host instead if it has not started yet, since it will read the current App secrets.
+     *
+     * @param hostIdentifier the host identifier
+     * @param executor       the executor to build the config on
+     * @return a future completed with the new snapshot
+     */
+    CompletableFuture<Snapshot> reload(final String hostIdentifier, final Executor executor) {
+        while (true) {
+            final Load existing = pendingLoads.get(hostIdentifier);
+            if (existing != null && !existing.started) {
+                return existing.result;
+            }
+            final Load created = new Load();
+            if (existing == null ? pendingLoads.putIfAbsent(hostIdentifier, created) == null
+                    : pendingLoads.replace(hostIdentifier, existing, created)) {
+                submit(hostIdentifier, created, executor);
+                return created.result;
+            }
+        }
+    }
+
+    private void submit(final String hostIdentifier, final Load load, final Executor executor) {
+        try {
+            executor.execute(() -> {
+                load.started = true;
+                // versioned when the secrets are read, so a load started later always wins
+                final long version = versions.incrementAndGet();
+                // the load is no longer pending before anyone waiting on it wakes up, so a retry starts a new one
+                try {
+                    final Snapshot snapshot = new Snapshot(loader.apply(hostIdentifier), version, System.nanoTime());
+                    swap(hostIdentifier, snapshot);
+                    pendingLoads.remove(hostIdentifier, load);
+                    load.result.complete(snapshot);
+                } catch (Throwable t) {
+                    keepLastGood(hostIdentifier, t);
+                    pendingLoads.remove(hostIdentifier, load);
+                    load.result.completeExceptionally(t);
+                }
+            });
+        } catch (Exception e) {
+            pendingLoads.remove(hostIdentifier, load);
+            load.result.completeExceptionally(e);
+        }
+    }
+
+    private void swap(final String hostIdentifier, final Snapshot snapshot) {
+        final Snapshot[] replaced = new Snapshot[1];
+        lazyUserProxyMap.compute(hostIdentifier, (key, current) -> {
+            if (current != null && current.version > snapshot.version) {
+                return current;
+            }
+            replaced[0] = current;
+            return snapshot;
+        });
+        changes.incrementAndGet();
+        if (replaced[0] != null && replaced[0].restored && !snapshot.restored) {
+            if (Objects.equals(replaced[0].config.getContentHash(), snapshot.config.getContentHash())) {
+                restoredConfirmed.increment();
+            } else {
+                restoredStale.increment();
+                Logger.info(UserProxyConfigStore.class, "The restored userproxy config of " + hostIdentifier
+                        + " was out of date and has been replaced");
+            }
+        }
+        if (replaced[0] != null && replaced[0].config != snapshot.config) {
+            onReplaced.accept(replaced[0].config);
+        }
+    }
+
+    /**
+     * Keeps serving the current snapshot of a host after a failed load, and restarts its refresh interval so the load
+     * is not retried by every request. A restored snapshot is dropped instead, leaving the host cold, since it cannot
+     * be confirmed.
+     */
+    private void keepLastGood(final String hostIdentifier, final Throwable error) {
+        final Snapshot current = lazyUserProxyMap.computeIfPresent(hostIdentifier, (key, snapshot) -> snapshot.restored
+                ? null
+                : new Snapshot(snapshot.config, snapshot.version, System.nanoTime(), false));
+        if (current == null) {
+            changes.incrementAndGet();
+        }
+        Logger.warn(UserProxyConfigStore.class, "Unable to load the userproxy config of " + hostIdentifier
+                + (current != null ? ", keeping the previous config:" : ":") + error);
+    }
+
+    /**
+     * Rebuilds, in the background, every loaded host whose config can be affected by a change to the given host's App
+     * secrets. Requests keep using the current snapshots until the new ones are swapped in.
+     *
+     * @param hostIdentifier the host whose secrets changed, or null for every host
+     * @return the number of hosts being rebuilt
+     */
+    int invalidate(final String hostIdentifier) {
+        int count = 0;
+        for (final Map.Entry<String, Snapshot> entry : lazyUserProxyMap.entrySet()) {
+            if (hostIdentifier == null || entry.getKey().equals(hostIdentifier)
+                    || entry.getValue().config.dependsOn(hostIdentifier)) {
+                reload(entry.getKey());
+                count++;
+            }
+        }
+        // first loads still in flight may have read the old secrets
+        for (final String loadingHost : pendingLoads.keySet()) {
+            if (!lazyUserProxyMap.containsKey(loadingHost)) {
+                reload(loadingHost);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Installs a config for a host as its newest snapshot without going through the loader. Used by tests and
+     * benchmarks.
+     *
+     * @param hostIdentifier the host identifier
+     * @param config         the config to serve for the host
+     */
+    void put(final String hostIdentifier, final UserProxyConfig config) {
+        swap(hostIdentifier, new Snapshot(config, versions.incrementAndGet(), System.nanoTime()));
+    }
+
+    /**
+     * Installs a config restored from a {@link ConfigSnapshotFile} for a host that has not been loaded yet. It is
+     * older than any load, and the first request to the host reloads it in the background. If that load fails, the
+     * host is left without a config and loaded again by its next request.
+     *
+     * @param hostIdentifier the host identifier
+     * @param config         the restored config
+     * @return whether the config was installed
+     */
+    boolean restore(final String hostIdentifier, final UserProxyConfig config) {
+        final Snapshot snapshot = new Snapshot(config, 0, System.nanoTime(), true);
+        if (lazyUserProxyMap.putIfAbsent(hostIdentifier, snapshot) != null) {
+            return false;
+        }
+        restoredHosts.increment();
+        changes.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Drops every snapshot. Hosts are loaded again on their next request.
+     */
+    void clear() {
+        lazyUserProxyMap.clear();
+        changes.incrementAndGet();
+    }
+
+    int size() {
+        return lazyUserProxyMap.size();
+    }
+
+    /**
+     * @return the number of lookups of a host that had no snapshot yet
+     */
+    long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return a number that changes whenever the config of a host changes
+     */
+    long version() {
+        return changes.get();
+    }
+
+    /**
+     * @return the number of hosts served a restored config since startup
+     */
+    long restoredCount() {
+        return restoredHosts.sum();
+    }
+
+    /**
+     * @return the number of restored configs whose reload found the same content
+     */
+    long restoredConfirmedCount() {
+        return restoredConfirmed.sum();
+    }
+
+    /**
+     * @return the number of restored configs whose reload found different content
+     */
+    long restoredStaleCount() {
+        return restoredStale.sum();
+    }
+
+    /**
+     * @return the current non-empty config of every loaded host
+     */
+    Map<String, UserProxyConfig> hostConfigs() {
+        final Map<String, UserProxyConfig> configs = new LinkedHashMap<>();
+        for (final Map.Entry<String, Snapshot> entry : lazyUserProxyMap.entrySet()) {
+            if (!entry.getValue().config.isEmpty()) {
+                configs.put(entry.getKey(), entry.getValue().config);
+            }
+        }
+        return configs;
+    }
+
+    /**
+     * @return the current config of every loaded host, once each when hosts share a config
+     */
+    List<UserProxyConfig> configs() {
+        final Set<UserProxyConfig> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        final List<UserProxyConfig> configs = new ArrayList<>(lazyUserProxyMap.size());
+        for (final Snapshot snapshot : lazyUserProxyMap.values()) {
+            if (seen.add(snapshot.config)) {
+                configs.add(snapshot.config);
+            }
+        }
+        return configs;
+    }
+
+    /**
+     * @return the number of loaded hosts served a non-empty config that another loaded host also serves
+     */
+    int sharedHostCount() {
+        int count = 0;
+        final Set<UserProxyConfig> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (final Snapshot snapshot : lazyUserProxyMap.values()) {
+            if (!seen.add(snapshot.config) && !snapshot.config.isEmpty()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the estimated heap saved by hosts sharing configs instead of each compiling their own, in bytes
+     */
+    long sharedBytes() {
+        long bytes = 0;
+        final Set<UserProxyConfig> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (final Snapshot snapshot : lazyUserProxyMap.values()) {
+            if (!seen.add(snapshot.config) && !snapshot.config.isEmpty()) {
+                bytes += snapshot.config.getEstimatedBytes();
+            }
+        }
+        return bytes;
+    }
+
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * A load of a host's config, waiting for a loader thread or running.
+     */
+    private static final class Load {
+
+        final CompletableFuture<Snapshot> result = new CompletableFuture<>();
+        volatile boolean started;
+    }
+
+    /**
+     * An immutable, versioned config snapshot of one host.
+     */
+    static final class Snapshot {
+
+        final UserProxyConfig config;
+        final long version;
+        final long loadedAt;
+        final boolean restored;
+
+        Snapshot(final UserProxyConfig config, final long version, final long loadedAt) {
+            this(config, version, loadedAt, false);
+        }
+
+        Snapshot(final UserProxyConfig config, final long version, final long loadedAt, final boolean restored) {
+            this.config = config;
+            this.version = version;
+            this.loadedAt = loadedAt;
+            this.restored = restored;
+        }
+    }
+
+}
@@ -2,31 +2,40 @@ package com.dotcms.userproxy.interceptor;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
-import java.util.regex.Pattern;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.dotcms.auth.providers.jwt.beans.JWToken;
-
 import com.dotcms.filters.interceptor.Result;
 import com.dotcms.filters.interceptor.WebInterceptor;
+import com.dotcms.userproxy.matcher.DecisionCache;
+import com.dotcms.userproxy.metrics.UserProxyMetrics;
+import com.dotcms.userproxy.model.QueryParameters;
+import com.dotcms.userproxy.model.RateLimit;
+import com.dotcms.userproxy.model.ResponseCachePolicy;
+import com.dotcms.userproxy.model.UserProxyConfig;
+import com.dotcms.userproxy.model.UserProxyConfigPool;
 import com.dotcms.userproxy.model.UserProxyEntry;
 import com.dotcms.userproxy.model.UserProxyEntryMapper;
+import com.dotcms.userproxy.util.HttpMethods;
 import com.dotmarketing.beans.Host;
-import com.dotmarketing.business.APILocator;
 import com.dotmarketing.business.web.WebAPILocator;
+import com.dotmarketing.util.Config;
+import com.dotmarketing.util.Logger;
 import com.liferay.portal.model.User;
 import com.liferay.portal.util.PortalUtil;
 import com.liferay.portal.util.WebKeys;
 
 import io.vavr.Lazy;
-import io.vavr.control.Try;
 
 /**
  * Web interceptor for user proxy authentication and authorization.
@@ -35,58 +44,344 @@ import io.vavr.control.Try;
  */
 public class UserProxyInterceptor implements WebInterceptor {
 
-    private static final ConcurrentHashMap<String, List<UserProxyEntry>> lazyUserProxyMap = new ConcurrentHashMap<>();
+    private static final ProxyUserCache proxyUserCache = new ProxyUserCache();
+
+    private static final ResponseCache responseCache = new ResponseCache();
+
+    private static final UserProxyConfigStore lazyUserProxyMap = new UserProxyConfigStore(
+            UserProxyEntryMapper::loadConfigForHost, config -> {
+                proxyUserCache.invalidate(config.getEntries());
+                responseCache.invalidate(config);
+            });
+
+    private static final ConfiguredHosts configuredHosts = new ConfiguredHosts();
+
+    private static final TokenRefresher tokenRefresher = new TokenRefresher(lazyUserProxyMap::configs);
 
     public UserProxyInterceptor() {
         resetLazyUserProxyMap();
     }
 
+    private static final LongAdder invalidationEvents = new LongAdder();
+
+    private static final LongAdder invalidatedHosts = new LongAdder();
+
+    private static final UserProxyMetrics metrics = UserProxyMetrics.getInstance();
+
+    private static final UserProxyConfigPool configPool = UserProxyConfigPool.getInstance();
+
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    private static volatile ConfigSnapshotFile snapshotFile;
+
+    private volatile String[] filters = InterceptorFilters.ALL;
+
+    static {
+        metrics.registerGauge("configStore.hosts", lazyUserProxyMap::size);
+        metrics.registerGauge("configStore.misses", lazyUserProxyMap::missCount);
+        metrics.registerGauge("configPool.configs", configPool::size);
+        metrics.registerGauge("configPool.hits", configPool::hitCount);
+        metrics.registerGauge("configPool.sharedHosts", lazyUserProxyMap::sharedHostCount);
+        metrics.registerGauge("configPool.bytesSaved", lazyUserProxyMap::sharedBytes);
+        metrics.registerGauge("snapshot.restored", lazyUserProxyMap::restoredCount);
+        metrics.registerGauge("snapshot.confirmed", lazyUserProxyMap::restoredConfirmedCount);
+        metrics.registerGauge("snapshot.stale", lazyUserProxyMap::restoredStaleCount);
+        metrics.registerGauge("configuredHosts", configuredHosts::size);
+        metrics.registerGauge("userCache.size", proxyUserCache::size);
+        metrics.registerGauge("userCache.hits", proxyUserCache::hitCount);
+        metrics.registerGauge("userCache.misses", proxyUserCache::missCount);
+        metrics.registerGauge("responseCache.size", responseCache::size);
+        metrics.registerGauge("responseCache.bytes", responseCache::byteSize);
+        metrics.registerGauge("responseCache.hits", responseCache::hitCount);
+        metrics.registerGauge("responseCache.misses", responseCache::missCount);
+        metrics.registerGauge("responseCache.coalesced", responseCache::coalescedCount);
+        metrics.registerGauge("responseCache.evictions", responseCache::evictionCount);
+        metrics.registerGauge("decisionCache.hits", () -> sumDecisionCaches(true));
+        metrics.registerGauge("decisionCache.misses", () -> sumDecisionCaches(false));
+        metrics.registerGauge("invalidation.events", invalidationEvents::sum);
+        metrics.registerGauge("invalidation.hosts", invalidatedHosts::sum);
+    }
+
+    private static long sumDecisionCaches(final boolean hits) {
+        long sum = 0;
+        for (final UserProxyConfig config : lazyUserProxyMap.configs()) {
+            final DecisionCache cache = config.getDecisionCache();
+            if (cache != null) {
+                sum += hits ? cache.hitCount() : cache.missCount();
+            }
+        }
+        return sum;
+    }
+
+    static UserProxyConfigStore configStore() {
+        return lazyUserProxyMap;
+    }
+
     public static void resetLazyUserProxyMap() {
         lazyUserProxyMap.clear();
+        configPool.clear();
+        proxyUserCache.invalidateAll();
+        responseCache.invalidateAll();
+    }
+
+    /**
+     * Gets the newest config of a host: the one being rebuilt after a change to its App secrets if there is one, the
+     * current one otherwise. The config is loaded in the background if the host was never loaded.
+     *
+     * @param hostIdentifier the host identifier
+     * @return a future completed with the config
+     */
+    public static CompletableFuture<UserProxyConfig> currentConfig(final String hostIdentifier) {
+        return lazyUserProxyMap.current(hostIdentifier).thenApply(snapshot -> snapshot.config);
+    }
+
+    /**
+     * Rebuilds the configs that can be affected by a change to the given host's App secrets: the host itself or, for
+     * the System Host, every host that fell back to it. New configs are built in the background and swapped in when
+     * ready; until then requests are served from the current ones.
+     *
+     * @param hostIdentifier the host whose secrets changed, or null to rebuild every host
+     * @return the number of hosts being rebuilt
+     */
+    public static int invalidateHost(final String hostIdentifier) {
+        if (hostIdentifier == null) {
+            // rebuilding every host also recompiles configs whose secrets did not change
+            configPool.clear();
+        }
+        int count = lazyUserProxyMap.invalidate(hostIdentifier);
+        invalidationEvents.increment();
+        invalidatedHosts.add(count);
+        return count;
+    }
+
+    /**
+     * Serves every host from the configs persisted by the last run, if {@code USER_PROXY_SNAPSHOT_ENABLED} is on, and
+     * starts persisting them every {@code USER_PROXY_SNAPSHOT_WRITE_SECONDS}. Restored tokens are confirmed in the
+     * background right away, or by the first request that needs one, and restored configs are reloaded from the App
+     * secrets in the background by the first request to each host. Called on start, before the interceptor is
+     * registered.
+     *
+     * @return the number of hosts restored
+     */
+    public static int restoreSnapshot() {
+        if (!ConfigSnapshotFile.isEnabled()) {
+            return 0;
+        }
+        final ConfigSnapshotFile file = new ConfigSnapshotFile(ConfigSnapshotFile.defaultPath());
+        int restored = 0;
+        try {
+            final Set<UserProxyConfig> configs = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (final Map.Entry<String, UserProxyConfig> host : file.read().entrySet()) {
+                if (lazyUserProxyMap.restore(host.getKey(), host.getValue())) {
+                    configs.add(host.getValue());
+                    restored++;
+                }
+            }
+            ForkJoinPool.commonPool().execute(() -> confirmTokens(configs));
+            Logger.info(UserProxyInterceptor.class, "Restored the userproxy configs of " + restored + " hosts from "
+                    + file.getPath());
+        } catch (Exception e) {
+            Logger.warn(UserProxyInterceptor.class, "Unable to restore the userproxy config snapshot "
+                    + file.getPath() + ":" + e);
+        }
+        file.schedule(lazyUserProxyMap,
+                TimeUnit.SECONDS.toMillis(Config.getIntProperty("USER_PROXY_SNAPSHOT_WRITE_SECONDS", 300)));
+        snapshotFile = file;
+        return restored;
+    }
+
+    /**
+     * Persists the current configs, if they changed since they were last persisted, and stops persisting them. Called
+     * on stop.
+     */
+    public static void persistSnapshot() {
+        final ConfigSnapshotFile file = snapshotFile;
+        if (file != null) {
+            file.shutdown();
+            file.writeIfChanged(lazyUserProxyMap);
+            snapshotFile = null;
+        }
+    }
+
+    /**
+     * Confirms the tokens of restored configs, so requests do not have to.
+     */
+    private static void confirmTokens(final Set<UserProxyConfig> configs) {
+        for (final UserProxyConfig config : configs) {
+            for (final UserProxyEntry entry : config.getEntries()) {
+                if (entry.getResolvedToken().isUnconfirmed()) {
+                    entry.refreshToken();
+                }
+            }
+            config.tokensRefreshed();
+        }
+    }
+
+    /**
+     * Rebuilds the index of hosts that have a User Proxy configuration, which lets requests to other sites skip the
+     * host lookup. Called on start.
+     */
+    public static void refreshConfiguredHosts() {
+        configuredHosts.rebuild();
+    }
+
+    /**
+     * Rebuilds the index of configured hosts in the background after the App secrets of a host were saved.
+     *
+     * @param hostIdentifier the host whose secrets were saved
+     */
+    public static void configuredHostChanged(final String hostIdentifier) {
+        configuredHosts.hostChanged(hostIdentifier, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @return the number of invalidation events processed since startup
+     */
+    public static long getInvalidationEventCount() {
+        return invalidationEvents.sum();
+    }
+
+    /**
+     * @return the total number of hosts rebuilt by invalidation events since startup
+     */
+    public static long getInvalidatedHostCount() {
+        return invalidatedHosts.sum();
+    }
+
+    @Override
+    public void destroy() {
+        tokenRefresher.shutdown();
+        lazyUserProxyMap.shutdown();
     }
 
     @Override
     public String[] getFilters() {
-        return new String[] { "/*" };
+        return filters;
+    }
+
+    /**
+     * Sets the paths this interceptor is registered for, see {@link InterceptorFilters}.
+     */
+    void setFilters(final String[] filters) {
+        this.filters = filters;
     }
 
     @Override
     public Result intercept(final HttpServletRequest request, final HttpServletResponse response) {
 
+        final boolean measured = metrics.isEnabled();
+        final long start = measured ? System.nanoTime() : 0;
+
         if (hasExistingAuth(request)) {
+            if (measured) {
+                metrics.recordExistingAuth(start);
+            }
+            return Result.NEXT;
+        }
+
+        if (configuredHosts.canSkip(request)) {
+            if (measured) {
+                metrics.recordHostSkipped(start);
+            }
             return Result.NEXT;
         }
 
         Host host = WebAPILocator.getHostWebAPI().getCurrentHostNoThrow(request);
 
-        List<UserProxyEntry> entries = lazyUserProxyMap.computeIfAbsent(host.getIdentifier(),
-                h -> UserProxyEntryMapper.buildListForHost(h));
+        UserProxyConfig config = lazyUserProxyMap.get(host.getIdentifier());
+        final UserProxyMetrics.HostMetrics hostMetrics = measured ? metrics.host(host.getIdentifier()) : null;
 
-        if (entries.isEmpty()) {
+        if (config.isEmpty()) {
+            if (measured) {
+                metrics.recordRequest(hostMetrics, false, false, start);
+            }
             return Result.NEXT;
         }
 
+        final int methodBit = HttpMethods.bitOf(request.getMethod());
+        final String uri = request.getRequestURI();
+        final String remoteAddr = request.getRemoteAddr();
+        boolean proxied = false;
+        int proxiedIndex = -1;
+        // parsed once, and only if an entry that matches the method and path has query conditions
+        QueryParameters query = null;
+
         // break on first match
-        for (UserProxyEntry entry : entries) {
-            if (entry.matches(request)) {
-                final Optional<JWToken> token = APILocator.getApiTokenAPI()
-                        .fromJwt(new String(entry.getUserToken()),
-                                request.getRemoteAddr());
+        for (int i = config.indexOf(methodBit, uri, 0); i >= 0; i = config.indexOf(methodBit, uri, i + 1)) {
+            if (!config.allowsAddress(i, remoteAddr)) {
+                continue;
+            }
+            final UserProxyEntry entry = config.get(i);
+            if (entry.hasQueryConditions()) {
+                if (query == null) {
+                    query = new QueryParameters(request.getQueryString());
+                }
+                if (!entry.matchesQuery(query)) {
+                    continue;
+                }
+            }
+            final RateLimit rateLimit = entry.getRateLimit();
+            if (rateLimit.isLimited()) {
+                final long waitNanos = rateLimit.tryAcquire(host.getIdentifier(), remoteAddr);
+                if (waitNanos > 0) {
+                    if (measured) {
+                        hostMetrics.recordMatch(config, i);
+                        metrics.recordRateLimited(hostMetrics);
+                    }
+                    if (rateLimit.isReject()) {
+                        response.setStatus(TOO_MANY_REQUESTS);
+                        response.setHeader("Retry-After",
+                                String.valueOf(Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999))));
+                        if (measured) {
+                            metrics.recordRequest(hostMetrics, true, false, start);
+                        }
+                        return Result.SKIP_NO_CHAIN;
+                    }
+                    // over the limit, the request continues as anonymous
+                    break;
+                }
+            }
+            final long resolveStart = measured ? System.nanoTime() : 0;
+            User user = proxyUserCache.resolve(entry, remoteAddr);
+            if (measured) {
+                hostMetrics.recordMatch(config, i);
+                metrics.recordTokenResolution(hostMetrics, user != null, System.nanoTime() - resolveStart);
+            }
 
-                User user = Try.of(() -> token.get().getActiveUser().get()).getOrNull();
+            if (user != null) {
+                request.setAttribute(WebKeys.USER, user);
+                request.setAttribute(WebKeys.USER_ID, user.getUserId());
+                proxied = true;
+                proxiedIndex = i;
+                break;
+            }
+        }
 
-                if (user != null) {
-                    request.setAttribute(WebKeys.USER, user);
-                    request.setAttribute(WebKeys.USER_ID, user.getUserId());
-                    break;
+        Result result = Result.NEXT;
+        if (proxied && (methodBit == HttpMethods.GET || methodBit == HttpMethods.HEAD) && responseCache.isEnabled()) {
+            final ResponseCachePolicy cachePolicy = config.get(proxiedIndex).getResponseCache();
+            if (cachePolicy.isEnabled()) {
+                if (query == null) {
+                    query = new QueryParameters(request.getQueryString());
                 }
+                result = responseCache.intercept(host.getIdentifier(), config, proxiedIndex, cachePolicy,
+                        methodBit == HttpMethods.HEAD, uri, query, request, response);
             }
         }
 
-        return Result.NEXT;
+        if (measured) {
+            metrics.recordRequest(hostMetrics, true, proxied, start);
+        }
+        return result;
 
     }
 
+    @Override
+    public boolean afterIntercept(final HttpServletRequest request, final HttpServletResponse response) {
+        responseCache.complete(request);
+        return true;
+    }
+
     public boolean hasExistingAuth(HttpServletRequest request) {
         User user = PortalUtil.getUser(request);
         if (user != null && !user.isAnonymousUser()) {
@@ -100,31 +395,7 @@ public class UserProxyInterceptor implements WebInterceptor {
     }
 
     public boolean matches(HttpServletRequest request, UserProxyEntry entry) {
-        String url = getFullURL(request);
-        String method = request.getMethod();
-
-        if (!entry.getMethods().contains(method)) {
-            return false;
-        }
-        boolean urlMatch = false;
-        for (Pattern p : entry.getUrls()) {
-            if (p.matcher(url).matches()) {
-                urlMatch = true;
-                break;
-            }
-        }
-        return urlMatch;
-    }
-
-    String getFullURL(HttpServletRequest request) {
-        StringBuilder requestURL = new StringBuilder(request.getRequestURL().toString());
-        String queryString = request.getQueryString();
-
-        if (queryString == null) {
-            return requestURL.toString();
-        } else {
-            return requestURL.append('?').append(queryString).toString();
-        }
+        return entry.matches(request);
     }
 
 }
@@ -9,13 +9,13 @@ import com.dotcms.system.event.local.model.EventSubscriber;
 import com.dotcms.system.event.local.model.KeyFilterable;
 import com.dotcms.userproxy.interceptor.UserProxyInterceptor;
 import com.dotcms.userproxy.model.UserProxyEntry;
-import com.dotcms.userproxy.model.UserProxyEntryMapper;
 import com.dotcms.userproxy.util.AppKey;
 import com.dotmarketing.business.APILocator;
 import com.dotmarketing.util.Logger;
 import com.dotmarketing.util.UtilMethods;
 import com.liferay.portal.model.User;
 import io.vavr.control.Try;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
@@ -23,8 +23,18 @@ import java.util.stream.Collectors;
 public final class UserProxyAppListener implements EventSubscriber<AppSecretSavedEvent>,
         KeyFilterable {
 
+    private final Runnable onInvalidated;
+
     public UserProxyAppListener() {
+        this(() -> {
+        });
+    }
 
+    /**
+     * @param onInvalidated called after the configs affected by a secrets change were invalidated
+     */
+    public UserProxyAppListener(final Runnable onInvalidated) {
+        this.onInvalidated = onInvalidated;
     }
 
     /**
@@ -44,8 +54,11 @@ public final class UserProxyAppListener implements EventSubscriber<AppSecretSave
             Logger.info(this, "Missing event, aborting");
             return;
         }
-        Logger.info(this, "UserProxyAppListener updated, clearing UserProxy map");
-        UserProxyInterceptor.resetLazyUserProxyMap();
+        int invalidated = UserProxyInterceptor.invalidateHost(event.getHostIdentifier());
+        Logger.info(this, "UserProxyAppListener updated for host " + event.getHostIdentifier() + ", invalidated "
+                + invalidated + " UserProxy host config(s)");
+        UserProxyInterceptor.configuredHostChanged(event.getHostIdentifier());
+        onInvalidated.run();
 
         String jsonConfig = event.getAppSecrets().getSecrets().get(AppKey.APP_CONFIG_KEY.appValue).getString();
 
@@ -57,13 +70,25 @@ public final class UserProxyAppListener implements EventSubscriber<AppSecretSave
                 ? List.of(event.getUserId())
                 : adminUsers.stream().map(u -> u.getUserId()).collect(Collectors.toList());
 
-        if (UtilMethods.isEmpty(jsonConfig)) {
-            return;
-        }
-        List<UserProxyEntry> entries = UserProxyEntryMapper.parseJsonToEntries(jsonConfig);
-        if (!entries.isEmpty()) {
+        if (UtilMethods.isEmpty(jsonConfig) || event.getHostIdentifier() == null) {
             return;
         }
+        // reported from the rebuilt config, whose load validated the tokens, instead of on the event thread
+        final String hostIdentifier = event.getHostIdentifier();
+        UserProxyInterceptor.currentConfig(hostIdentifier).thenAccept(config -> {
+            if (hostIdentifier.equals(config.getSourceHostId())) {
+                pushEntryProblems(config.getEntries(), users);
+            } else {
+                // the host's own secrets gave no entry, so it falls back to the System Host
+                pushNoValidConfig(users);
+            }
+        });
+    }
+
+    /**
+     * Tells admins that the saved configuration has no usable entry.
+     */
+    private void pushNoValidConfig(final List<String> users) {
         final SystemMessageBuilder systemMessageBuilder = new SystemMessageBuilder();
         String velocityMessage = "No valid User Proxy  configuration found.";
 
@@ -76,14 +101,41 @@ public final class UserProxyAppListener implements EventSubscriber<AppSecretSave
                 .setSeverity(severity).create();
 
         SystemMessageEventUtil.getInstance().pushMessage(systemMessageBuilder.create(), users);
+    }
 
+    /**
+     * Tells admins which entries have an invalid token or URL patterns that were rejected or look expensive, naming
+     * each entry by its position, methods and patterns (never its token).
+     */
+    private void pushEntryProblems(final List<UserProxyEntry> entries, final List<String> users) {
+        final List<String> descriptions = new ArrayList<>();
+        boolean rejected = false;
+        for (int i = 0; i < entries.size(); i++) {
+            final UserProxyEntry entry = entries.get(i);
+            final List<String> problems = new ArrayList<>(entry.getUrlProblems());
+            final String tokenProblem = entry.getResolvedToken().getProblem();
+            if (tokenProblem != null) {
+                problems.add(0, tokenProblem + ", the entry is skipped");
+            }
+            if (problems.isEmpty()) {
+                continue;
+            }
+            rejected |= tokenProblem != null || !entry.getRejectedUrls().isEmpty();
+            descriptions.add("entry " + (i + 1) + " (" + String.join(",", entry.getMethods()).toUpperCase() + "): "
+                    + String.join("; ", problems));
+        }
+        if (descriptions.isEmpty()) {
+            return;
+        }
+        final String message = "User Proxy found problems in " + String.join(" | ", descriptions);
+        Logger.warn(this, message);
 
+        final SystemMessageBuilder systemMessageBuilder = new SystemMessageBuilder();
+        systemMessageBuilder.setMessage(message)
+                .setLife(15 * 1000)
+                .setSeverity(rejected ? MessageSeverity.ERROR : MessageSeverity.WARNING);
 
-
-
-
-
-
+        SystemMessageEventUtil.getInstance().pushMessage(systemMessageBuilder.create(), users);
     }
 
     @Override
@@ -0,0 +1,215 @@
+package com.dotcms.userproxy.matcher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.dotcms.userproxy.model.RegexEngine;
+import com.dotcms.userproxy.model.UrlType;
+import com.dotcms.userproxy.model.UserProxyEntry;
+import com.dotmarketing.util.Logger;
+
+/**
+ * Matches a request with a single regex evaluation by compiling all URL patterns of a host into one combined pattern.
+ *
+ * <p>
+ * Every entry becomes one alternative of the form {@code (?=[\s\S]*?(?:p1|p2|...))()} inside a {@code \A}-anchored
+ * alternation. The lookahead reproduces {@code find()} semantics, and because the whole expression is anchored at the
+ * start of the URI, alternatives are tried strictly in entry order, so the first alternative that succeeds is the
+ * first matching entry. The empty capturing group that follows each lookahead tells which alternative it was. Entries
+ * only take part in the combined patterns of the HTTP methods they allow, so the result also honors the method check.
+ *
+ * <p>
+ * Patterns using features that cannot be embedded in a larger expression (back references, named groups, quoting,
+ * comments mode), entries evaluated with another {@link RegexEngine} than Java, and entries whose URLs are not
+ * regexes (see {@link UrlType}), fall back to per-pattern evaluation. The entry list is split into consecutive
+ * segments: runs of combinable entries share one combined pattern per method, and the remaining entries are evaluated
+ * one by one, in order, exactly like {@link LinearEntryMatcher}.
+ */
+public final class CombinedPatternMatcher implements EntryMatcher {
+
+    private static final Pattern UNSUPPORTED = Pattern.compile("\\\\[1-9]|\\\\k<|\\\\Q|\\(\\?<[a-zA-Z]|\\(\\?[a-zA-Z-]*x");
+
+    private final UserProxyEntry[] entries;
+    private final Segment[] segments;
+
+    public CombinedPatternMatcher(final List<UserProxyEntry> entries) {
+        this.entries = entries.toArray(new UserProxyEntry[0]);
+        final List<Segment> segmentList = new ArrayList<>();
+        int start = 0;
+        while (start < this.entries.length) {
+            final boolean combinable = isCombinable(this.entries[start]);
+            int end = start + 1;
+            while (end < this.entries.length && isCombinable(this.entries[end]) == combinable) {
+                end++;
+            }
+            segmentList.add(combinable ? CombinedSegment.build(this.entries, start, end)
+                    : new Segment(start, end));
+            start = end;
+        }
+        this.segments = segmentList.toArray(new Segment[0]);
+    }
+
+    static boolean isCombinable(final UserProxyEntry entry) {
+        // a combined pattern is a java.util.regex pattern, it would drop the linear-time guarantee of other engines
+        if (entry.getRegexEngine() != RegexEngine.JAVA) {
+            return false;
+        }
+        // globs, prefixes and exact URLs are cheaper to evaluate on their own than inside a regex
+        if (entry.getUrlType() != UrlType.REGEX) {
+            return false;
+        }
+        for (final Pattern pattern : entry.getUrls()) {
+            if (UNSUPPORTED.matcher(pattern.pattern()).find()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int indexOf(final int methodBit, final String uri, final int fromIndex) {
+        for (final Segment segment : segments) {
+            if (segment.end <= fromIndex) {
+                continue;
+            }
+            final int match = segment.indexOf(entries, methodBit, uri, Math.max(fromIndex, segment.start));
+            if (match >= 0) {
+                return match;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A run of entries evaluated one at a time.
+     */
+    private static class Segment {
+
+        final int start;
+        final int end;
+
+        Segment(final int start, final int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        int indexOf(final UserProxyEntry[] entries, final int methodBit, final String uri, final int fromIndex) {
+            for (int i = fromIndex; i < end; i++) {
+                if (entries[i].matches(methodBit, uri)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * A run of entries evaluated with one combined pattern per HTTP method.
+     */
+    private static final class CombinedSegment extends Segment {
+
+        private final Alternation[] byMethodBit;
+
+        private CombinedSegment(final int start, final int end, final Alternation[] byMethodBit) {
+            super(start, end);
+            this.byMethodBit = byMethodBit;
+        }
+
+        static Segment build(final UserProxyEntry[] entries, final int start, final int end) {
+            int methods = 0;
+            for (int i = start; i < end; i++) {
+                methods |= entries[i].getMethodMask();
+            }
+            final Alternation[] byMethodBit = new Alternation[Integer.SIZE];
+            try {
+                for (int bit = 0; bit < Integer.SIZE; bit++) {
+                    if ((methods & (1 << bit)) != 0) {
+                        byMethodBit[bit] = Alternation.build(entries, start, end, 1 << bit);
+                    }
+                }
+            } catch (Exception e) {
+                Logger.warn(CombinedPatternMatcher.class,
+                        "Cannot combine url patterns for userproxy, evaluating them one by one:" + e.getMessage());
+                return new Segment(start, end);
+            }
+            return new CombinedSegment(start, end, byMethodBit);
+        }
+
+        @Override
+        int indexOf(final UserProxyEntry[] entries, final int methodBit, final String uri, final int fromIndex) {
+            if (fromIndex > start) {
+                // resuming after a match that was not used, evaluate the rest of the run one by one
+                return super.indexOf(entries, methodBit, uri, fromIndex);
+            }
+            if (methodBit == 0) {
+                return -1;
+            }
+            final Alternation alternation = byMethodBit[Integer.numberOfTrailingZeros(methodBit)];
+            return alternation != null ? alternation.indexOf(uri) : -1;
+        }
+    }
+
+    /**
+     * The combined pattern of the entries of a segment that allow one HTTP method.
+     */
+    private static final class Alternation {
+
+        private final Pattern pattern;
+        private final int[] markerGroups;
+        private final int[] entryIndexes;
+
+        private Alternation(final Pattern pattern, final int[] markerGroups, final int[] entryIndexes) {
+            this.pattern = pattern;
+            this.markerGroups = markerGroups;
+            this.entryIndexes = entryIndexes;
+        }
+
+        static Alternation build(final UserProxyEntry[] entries, final int start, final int end,
+                final int methodBit) {
+            final StringBuilder regex = new StringBuilder("\\A(?:");
+            final List<Integer> markers = new ArrayList<>();
+            final List<Integer> indexes = new ArrayList<>();
+            int groups = 0;
+            for (int i = start; i < end; i++) {
+                final Pattern[] urls = entries[i].getUrls();
+                if (urls.length == 0 || !entries[i].allowsMethod(methodBit)) {
+                    continue;
+                }
+                if (!indexes.isEmpty()) {
+                    regex.append('|');
+                }
+                regex.append("(?=[\\s\\S]*?(?:");
+                for (int p = 0; p < urls.length; p++) {
+                    regex.append(p > 0 ? "|" : "").append("(?:").append(urls[p].pattern()).append(')');
+                    groups += urls[p].matcher("").groupCount();
+                }
+                regex.append("))()");
+                markers.add(++groups);
+                indexes.add(i);
+            }
+            regex.append(')');
+            return new Alternation(indexes.isEmpty() ? null : Pattern.compile(regex.toString()),
+                    markers.stream().mapToInt(Integer::intValue).toArray(),
+                    indexes.stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        int indexOf(final String uri) {
+            if (pattern == null || uri == null) {
+                return -1;
+            }
+            final Matcher matcher = pattern.matcher(uri);
+            if (!matcher.lookingAt()) {
+                return -1;
+            }
+            for (int i = 0; i < markerGroups.length; i++) {
+                if (matcher.start(markerGroups[i]) >= 0) {
+                    return entryIndexes[i];
+                }
+            }
+            return -1;
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package com.dotcms.userproxy.matcher;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.dotcms.userproxy.util.BoundedCache;
+
+/**
+ * Remembers, per HTTP method and request URI, which entry of a host matched first, or that none did, so that repeated
+ * requests skip regex evaluation entirely. There is one bounded, approximate-LRU cache per method in use, created on
+ * first use and keyed by the URI string itself, so lookups do not allocate.
+ *
+ * <p>
+ * A decision cache belongs to one compiled {@link com.dotcms.userproxy.model.UserProxyConfig}. Reloading a host, or
+ * clearing all hosts, replaces the config and with it the cached decisions.
+ */
+public final class DecisionCache {
+
+    private static final Integer NO_MATCH = -1;
+
+    private final int maxSizePerMethod;
+    private final AtomicReferenceArray<BoundedCache<String, Integer>> byMethodBit =
+            new AtomicReferenceArray<>(Integer.SIZE);
+
+    public DecisionCache(final int maxSizePerMethod) {
+        this.maxSizePerMethod = maxSizePerMethod;
+    }
+
+    /**
+     * Returns the cached decision.
+     *
+     * @param methodBit the {@link com.dotcms.userproxy.util.HttpMethods} bit of the request method
+     * @param uri       the request URI
+     * @return the index of the first matching entry, -1 for a cached miss, or null if nothing is cached
+     */
+    public Integer get(final int methodBit, final String uri) {
+        final BoundedCache<String, Integer> cache = byMethodBit.get(Integer.numberOfTrailingZeros(methodBit));
+        return cache != null ? cache.get(uri) : null;
+    }
+
+    /**
+     * Caches a decision.
+     *
+     * @param methodBit the {@link com.dotcms.userproxy.util.HttpMethods} bit of the request method
+     * @param uri       the request URI
+     * @param index     the index of the first matching entry, or -1 if none matched
+     */
+    public void put(final int methodBit, final String uri, final int index) {
+        final int slot = Integer.numberOfTrailingZeros(methodBit);
+        BoundedCache<String, Integer> cache = byMethodBit.get(slot);
+        if (cache == null) {
+            byMethodBit.compareAndSet(slot, null,
+                    new BoundedCache<>(maxSizePerMethod, Long.MAX_VALUE, TimeUnit.NANOSECONDS));
+            cache = byMethodBit.get(slot);
+        }
+        cache.put(uri, index < 0 ? NO_MATCH : Integer.valueOf(index));
+    }
+
+    public long hitCount() {
+        long hits = 0;
+        for (int i = 0; i < byMethodBit.length(); i++) {
+            final BoundedCache<String, Integer> cache = byMethodBit.get(i);
+            hits += cache != null ? cache.hitCount() : 0;
+        }
+        return hits;
+    }
+
+    public long missCount() {
+        long misses = 0;
+        for (int i = 0; i < byMethodBit.length(); i++) {
+            final BoundedCache<String, Integer> cache = byMethodBit.get(i);
+            misses += cache != null ? cache.missCount() : 0;
+        }
+        return misses;
+    }
+
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < byMethodBit.length(); i++) {
+            final BoundedCache<String, Integer> cache = byMethodBit.get(i);
+            size += cache != null ? cache.size() : 0;
+        }
+        return size;
+    }
+
+}
@@ -0,0 +1,21 @@
+package com.dotcms.userproxy.matcher;
+
+/**
+ * Finds the {@link com.dotcms.userproxy.model.UserProxyEntry} entries of a host that match a request. Implementations
+ * are immutable, built once when a host's configuration is loaded, and must preserve the configured entry order so
+ * that the first matching entry wins.
+ */
+public interface EntryMatcher {
+
+    /**
+     * Returns the index of the first entry, starting at {@code fromIndex}, whose methods and URL patterns match the
+     * request.
+     *
+     * @param methodBit the {@link com.dotcms.userproxy.util.HttpMethods} bit of the request method
+     * @param uri       the request URI
+     * @param fromIndex the index of the first entry to consider
+     * @return the index of the matching entry, or -1 if no entry matches
+     */
+    int indexOf(int methodBit, String uri, int fromIndex);
+
+}
@@ -0,0 +1,29 @@
+package com.dotcms.userproxy.matcher;
+
+import java.util.List;
+
+import com.dotcms.userproxy.model.UserProxyEntry;
+
+/**
+ * Matches a request by evaluating every entry in order. This is the reference behavior all other matchers must
+ * reproduce.
+ */
+public final class LinearEntryMatcher implements EntryMatcher {
+
+    private final UserProxyEntry[] entries;
+
+    public LinearEntryMatcher(final List<UserProxyEntry> entries) {
+        this.entries = entries.toArray(new UserProxyEntry[0]);
+    }
+
+    @Override
+    public int indexOf(final int methodBit, final String uri, final int fromIndex) {
+        for (int i = Math.max(0, fromIndex); i < entries.length; i++) {
+            if (entries[i].matches(methodBit, uri)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,186 @@
+package com.dotcms.userproxy.matcher;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+import com.dotcms.userproxy.model.UserProxyEntry;
+
+/**
+ * Matches a request by first looking up which entries can possibly match its URI, then only evaluating those entries
+ * in order.
+ *
+ * <p>
+ * At build time, the leading literal of every URL pattern is extracted (see {@link RegexLiterals}) and put into a
+ * character trie. Anchored patterns ({@code ^/api/...}) go into a trie that is only walked from the start of the URI;
+ * unanchored patterns go into a trie that is walked from every offset, since {@code find()} can match them anywhere.
+ * Patterns without a literal make their entry a candidate for every request. A URI that contains none of the literals
+ * is rejected without running a single regex.
+ */
+public final class PrefixIndexMatcher implements EntryMatcher {
+
+    private static final ThreadLocal<long[]> SCRATCH = ThreadLocal.withInitial(() -> new long[1]);
+
+    private final UserProxyEntry[] entries;
+    private final TrieNode anchored;
+    private final TrieNode floating;
+    private final long[] alwaysCandidates;
+
+    public PrefixIndexMatcher(final List<UserProxyEntry> entries) {
+        this.entries = entries.toArray(new UserProxyEntry[0]);
+        this.alwaysCandidates = new long[words(this.entries.length)];
+        final TrieBuilder anchoredBuilder = new TrieBuilder();
+        final TrieBuilder floatingBuilder = new TrieBuilder();
+
+        for (int i = 0; i < this.entries.length; i++) {
+            for (final Pattern pattern : this.entries[i].getUrls()) {
+                final String regex = pattern.pattern();
+                final String literal = RegexLiterals.leadingLiteral(regex);
+                if (literal.isEmpty()) {
+                    alwaysCandidates[i >>> 6] |= 1L << i;
+                } else if (RegexLiterals.isAnchored(regex)) {
+                    anchoredBuilder.add(literal, i);
+                } else {
+                    floatingBuilder.add(literal, i);
+                }
+            }
+        }
+        this.anchored = anchoredBuilder.build();
+        this.floating = floatingBuilder.build();
+    }
+
+    @Override
+    public int indexOf(final int methodBit, final String uri, final int fromIndex) {
+        if (fromIndex >= entries.length) {
+            return -1;
+        }
+        final long[] candidates = candidates(uri, scratch());
+        for (int i = nextSetBit(candidates, Math.max(0, fromIndex)); i >= 0; i = nextSetBit(candidates, i + 1)) {
+            if (entries[i].matches(methodBit, uri)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns a bit set of the entries that have a URL pattern whose leading literal occurs in the URI.
+     */
+    long[] candidates(final String uri) {
+        return candidates(uri, new long[alwaysCandidates.length]);
+    }
+
+    private long[] candidates(final String uri, final long[] candidates) {
+        System.arraycopy(alwaysCandidates, 0, candidates, 0, alwaysCandidates.length);
+        if (uri == null) {
+            return candidates;
+        }
+        anchored.collect(uri, 0, candidates);
+        for (int offset = 0; offset < uri.length() && floating != TrieNode.EMPTY; offset++) {
+            floating.collect(uri, offset, candidates);
+        }
+        return candidates;
+    }
+
+    /**
+     * Returns this thread's reusable candidate bit set, so that matching does not allocate.
+     */
+    private long[] scratch() {
+        long[] scratch = SCRATCH.get();
+        if (scratch.length < alwaysCandidates.length) {
+            scratch = new long[alwaysCandidates.length];
+            SCRATCH.set(scratch);
+        } else {
+            // words past this host's entries are never read, but must not hold stale bits
+            Arrays.fill(scratch, alwaysCandidates.length, scratch.length, 0L);
+        }
+        return scratch;
+    }
+
+    private static int words(final int bits) {
+        return (bits + 63) >>> 6;
+    }
+
+    private static int nextSetBit(final long[] bits, final int from) {
+        int word = from >>> 6;
+        if (word >= bits.length) {
+            return -1;
+        }
+        long current = bits[word] & (-1L << from);
+        while (true) {
+            if (current != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(current);
+            }
+            if (++word == bits.length) {
+                return -1;
+            }
+            current = bits[word];
+        }
+    }
+
+    /**
+     * Immutable trie node. Children are kept in a sorted array and looked up with a binary search.
+     */
+    private static final class TrieNode {
+
+        private static final TrieNode EMPTY = new TrieNode(new char[0], new TrieNode[0], new int[0]);
+
+        private final char[] keys;
+        private final TrieNode[] children;
+        private final int[] entryIndexes;
+
+        TrieNode(final char[] keys, final TrieNode[] children, final int[] entryIndexes) {
+            this.keys = keys;
+            this.children = children;
+            this.entryIndexes = entryIndexes;
+        }
+
+        void collect(final String uri, final int offset, final long[] candidates) {
+            TrieNode node = this;
+            for (int i = offset; i < uri.length() && node.keys.length > 0; i++) {
+                final int child = Arrays.binarySearch(node.keys, uri.charAt(i));
+                if (child < 0) {
+                    return;
+                }
+                node = node.children[child];
+                for (final int entry : node.entryIndexes) {
+                    candidates[entry >>> 6] |= 1L << entry;
+                }
+            }
+        }
+    }
+
+    private static final class TrieBuilder {
+
+        private final TreeMap<Character, TrieBuilder> children = new TreeMap<>();
+        private final List<Integer> entryIndexes = new ArrayList<>();
+
+        void add(final String literal, final int entryIndex) {
+            TrieBuilder node = this;
+            for (int i = 0; i < literal.length(); i++) {
+                node = node.children.computeIfAbsent(literal.charAt(i), c -> new TrieBuilder());
+            }
+            if (!node.entryIndexes.contains(entryIndex)) {
+                node.entryIndexes.add(entryIndex);
+            }
+        }
+
+        TrieNode build() {
+            if (children.isEmpty() && entryIndexes.isEmpty()) {
+                return TrieNode.EMPTY;
+            }
+            final char[] keys = new char[children.size()];
+            final TrieNode[] nodes = new TrieNode[children.size()];
+            int i = 0;
+            for (final Map.Entry<Character, TrieBuilder> child : children.entrySet()) {
+                keys[i] = child.getKey();
+                nodes[i++] = child.getValue().build();
+            }
+            return new TrieNode(keys, nodes, entryIndexes.stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+}
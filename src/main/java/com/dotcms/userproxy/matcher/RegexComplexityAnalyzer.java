@@ -0,0 +1,489 @@
+package com.dotcms.userproxy.matcher;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import com.dotcms.userproxy.util.BoundedCache;
+import com.dotmarketing.util.Config;
+
+/**
+ * Catches expensive URL patterns before they go live, in two steps.
+ *
+ * <p>
+ * First, a static scan flags structures known to backtrack badly: a quantified group that contains another unbounded
+ * quantifier ({@code (a+)+}), a quantified alternation whose branches can start with the same character
+ * ({@code (a|ab)*}), adjacent unbounded quantifiers over overlapping terms ({@code .*.*}) and an unanchored leading
+ * {@code .*}, which is redundant with {@code find()} and makes every miss quadratic. These are reported as warnings.
+ *
+ * <p>
+ * Then the pattern is run against an adversarial corpus generated from its own characters: long runs of every
+ * character and character pair it accepts, ended by a character that makes the match fail, which is the input that
+ * triggers backtracking. The whole corpus has to be matched within {@code USER_PROXY_REGEX_BUDGET_STEPS} character
+ * reads; the input is wrapped in a {@link CharSequence} that counts them and aborts the match once they run out, so a
+ * catastrophic pattern costs the budget and no more. Patterns that go over budget are rejected. Counting reads rather
+ * than time makes the outcome the same on every run, whatever the load of the server or a GC pause.
+ *
+ * <p>
+ * Results are cached per pattern, so reloading a config only analyzes new patterns.
+ */
+public final class RegexComplexityAnalyzer {
+
+    private static final RegexComplexityAnalyzer INSTANCE = new RegexComplexityAnalyzer(
+            Config.getLongProperty("USER_PROXY_REGEX_BUDGET_STEPS", 2_000_000));
+
+    // short runs catch exponential backtracking, long ones polynomial
+    private static final int SHORT_RUN = 32;
+    private static final int LONG_RUN = 256;
+    private static final int MAX_ALPHABET = 12;
+    private static final String FAIL = "\u0000";
+
+    private final long budgetSteps;
+    private final BoundedCache<String, Result> results = new BoundedCache<>(10000, Long.MAX_VALUE,
+            TimeUnit.NANOSECONDS);
+
+    /**
+     * @param budgetSteps the number of character reads a pattern may spend on the adversarial corpus, 0 to only run
+     *                    the static scan
+     */
+    public RegexComplexityAnalyzer(final long budgetSteps) {
+        this.budgetSteps = budgetSteps;
+    }
+
+    public static RegexComplexityAnalyzer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Analyzes a pattern, or returns the cached result of a previous analysis.
+     *
+     * @param pattern the compiled pattern
+     * @return the analysis result
+     */
+    public Result analyze(final Pattern pattern) {
+        final Result cached = results.get(pattern.pattern());
+        if (cached != null) {
+            return cached;
+        }
+        final List<String> warnings = staticWarnings(pattern.pattern());
+        final boolean overBudget = budgetSteps > 0 && !runsWithinBudget(pattern);
+        final Result result = new Result(warnings, overBudget
+                ? "exceeds the match budget of " + budgetSteps + " character reads on adversarial input"
+                : null);
+        results.put(pattern.pattern(), result);
+        return result;
+    }
+
+    private boolean runsWithinBudget(final Pattern pattern) {
+        final BudgetedCharSequence input = new BudgetedCharSequence(budgetSteps);
+        try {
+            for (final String value : adversarialInputs(pattern.pattern())) {
+                pattern.matcher(input.reading(value)).find();
+            }
+            return true;
+        } catch (BudgetExceeded e) {
+            return false;
+        }
+    }
+
+    /**
+     * Generates inputs that make a backtracking engine explore as many paths as possible before failing.
+     */
+    static List<String> adversarialInputs(final String regex) {
+        final String prefix = RegexLiterals.leadingLiteral(regex);
+        final List<Character> alphabet = new ArrayList<>(alphabet(regex));
+        final List<String> inputs = new ArrayList<>();
+        for (final char c : alphabet) {
+            inputs.add(prefix + repeat(String.valueOf(c), SHORT_RUN) + FAIL);
+            inputs.add(prefix + repeat(String.valueOf(c), LONG_RUN) + FAIL);
+        }
+        for (int i = 0; i < alphabet.size(); i++) {
+            for (int j = i + 1; j < alphabet.size() && j < i + 3; j++) {
+                inputs.add(prefix + repeat("" + alphabet.get(i) + alphabet.get(j), SHORT_RUN / 2) + FAIL);
+            }
+        }
+        return inputs;
+    }
+
+    private static String repeat(final String s, final int times) {
+        final StringBuilder builder = new StringBuilder(s.length() * times);
+        for (int i = 0; i < times; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Collects one sample character for every literal, escape and character class of the pattern.
+     */
+    private static Set<Character> alphabet(final String regex) {
+        final Set<Character> alphabet = new LinkedHashSet<>();
+        alphabet.add('/');
+        for (int i = 0; i < regex.length() && alphabet.size() < MAX_ALPHABET; i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()) {
+                alphabet.add(sampleOfEscape(regex.charAt(++i)));
+            } else if (c == '[') {
+                final int j = i + 1;
+                if (j < regex.length() && regex.charAt(j) == '^') {
+                    alphabet.add('a');
+                } else if (j < regex.length() && regex.charAt(j) != '\\') {
+                    alphabet.add(regex.charAt(j));
+                }
+                i = classEnd(regex, i);
+            } else if (c == '.') {
+                alphabet.add('a');
+            } else if ("()|*+?{}^$".indexOf(c) < 0) {
+                alphabet.add(c);
+            }
+        }
+        return alphabet;
+    }
+
+    private static char sampleOfEscape(final char escape) {
+        switch (escape) {
+            case 'd':
+                return '0';
+            case 'w':
+                return 'a';
+            case 's':
+                return ' ';
+            case 'D':
+            case 'W':
+            case 'S':
+                return '-';
+            default:
+                return Character.isLetterOrDigit(escape) ? 'a' : escape;
+        }
+    }
+
+    /**
+     * Scans the pattern for structures that backtrack badly.
+     *
+     * @param regex the pattern
+     * @return a description of every problem found, empty if none
+     */
+    static List<String> staticWarnings(final String regex) {
+        final Set<String> warnings = new LinkedHashSet<>();
+        if (startsWithUnanchoredWildcard(regex)) {
+            warnings.add("starts with an unanchored .*, which makes every miss quadratic; remove it or anchor with ^");
+        }
+
+        final Deque<Group> groups = new ArrayDeque<>();
+        Group current = new Group(0, false);
+        Atom previous = null;
+        int i = 0;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            final int start = i;
+            Atom atom = null;
+            if (c == '\\') {
+                i = Math.min(regex.length(), i + 2);
+                atom = new Atom(start, Character.isLetter(regex.charAt(i - 1)) ? Atom.CLASS : Atom.LITERAL,
+                        regex.charAt(i - 1), null);
+            } else if (c == '[') {
+                i = classEnd(regex, i) + 1;
+                atom = new Atom(start, Atom.CLASS, '[', null);
+            } else if (c == '.') {
+                i++;
+                atom = new Atom(start, Atom.ANY, '.', null);
+            } else if (c == '(') {
+                groups.push(current);
+                current = new Group(start, regex.startsWith("(?>", start));
+                i = groupBodyStart(regex, i);
+                current.branchStart = true;
+                continue;
+            } else if (c == ')') {
+                i++;
+                final Group closed = current;
+                current = groups.isEmpty() ? new Group(0, false) : groups.pop();
+                atom = new Atom(closed.start, Atom.GROUP, '(', closed);
+            } else if (c == '|') {
+                i++;
+                current.alternation = true;
+                current.branchStart = true;
+                previous = null;
+                continue;
+            } else if (c == '^' || c == '$') {
+                i++;
+                previous = null;
+                continue;
+            } else {
+                i++;
+                atom = new Atom(start, Atom.LITERAL, c, null);
+            }
+
+            if (current.branchStart) {
+                current.branchFirsts.add(atom.key());
+                current.branchStart = false;
+            }
+
+            final int quantifierEnd = quantifierEnd(regex, i);
+            final String quantifier = regex.substring(i, quantifierEnd);
+            i = quantifierEnd;
+            final boolean possessive = quantifier.length() > 1 && quantifier.endsWith("+");
+            final boolean unbounded = isUnbounded(quantifier) && !possessive;
+
+            if (atom.type == Atom.GROUP && unbounded && !atom.group.atomic) {
+                final String text = regex.substring(atom.start, Math.min(quantifierEnd, regex.length()));
+                if (atom.group.unbounded) {
+                    warnings.add("nested quantifier " + text + " can backtrack exponentially");
+                } else if (atom.group.alternation && atom.group.overlappingBranches()) {
+                    warnings.add("quantified alternation " + text + " has overlapping branches");
+                }
+            }
+            if (unbounded && previous != null && previous.unbounded && overlaps(previous, atom)) {
+                warnings.add("adjacent unbounded quantifiers "
+                        + regex.substring(previous.start, Math.min(quantifierEnd, regex.length()))
+                        + " can backtrack polynomially");
+            }
+            if (unbounded || atom.type == Atom.GROUP && atom.group.unbounded && !atom.group.atomic) {
+                current.unbounded = true;
+            }
+            atom.unbounded = unbounded;
+            previous = atom;
+        }
+        return new ArrayList<>(warnings);
+    }
+
+    private static boolean startsWithUnanchoredWildcard(final String regex) {
+        int i = 0;
+        // skip leading inline flags such as (?i)
+        while (regex.startsWith("(?", i) && regex.indexOf(')', i) > 0
+                && regex.substring(i + 2, regex.indexOf(')', i)).matches("[a-zA-Z-]*")) {
+            i = regex.indexOf(')', i) + 1;
+        }
+        return regex.startsWith(".*", i) || regex.startsWith(".+", i);
+    }
+
+    private static boolean overlaps(final Atom a, final Atom b) {
+        if (a.type == Atom.ANY || b.type == Atom.ANY) {
+            return true;
+        }
+        if (a.type == Atom.GROUP || b.type == Atom.GROUP) {
+            return false;
+        }
+        return a.key().equals(b.key());
+    }
+
+    private static boolean isUnbounded(final String quantifier) {
+        if (quantifier.isEmpty()) {
+            return false;
+        }
+        final char q = quantifier.charAt(0);
+        return q == '*' || q == '+' || q == '{' && quantifier.matches("\\{\\d*,\\}[?+]?");
+    }
+
+    private static int quantifierEnd(final String regex, final int from) {
+        if (from >= regex.length()) {
+            return from;
+        }
+        int i = from;
+        final char c = regex.charAt(i);
+        if (c == '*' || c == '+' || c == '?') {
+            i++;
+        } else if (c == '{') {
+            final int close = regex.indexOf('}', i);
+            if (close < 0 || !regex.substring(i, close + 1).matches("\\{\\d*(,\\d*)?\\}")) {
+                return from;
+            }
+            i = close + 1;
+        } else {
+            return from;
+        }
+        if (i < regex.length() && (regex.charAt(i) == '?' || regex.charAt(i) == '+')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int groupBodyStart(final String regex, final int open) {
+        if (!regex.startsWith("(?", open)) {
+            return open + 1;
+        }
+        if (regex.startsWith("(?<", open) && open + 3 < regex.length() && Character.isLetter(regex.charAt(open + 3))) {
+            return regex.indexOf('>', open) + 1;
+        }
+        int i = open + 2;
+        while (i < regex.length() && "<=!>:".indexOf(regex.charAt(i)) >= 0 && i < open + 4) {
+            i++;
+        }
+        while (i < regex.length() && (Character.isLetter(regex.charAt(i)) || regex.charAt(i) == '-')) {
+            i++;
+        }
+        return i < regex.length() && regex.charAt(i) == ':' ? i + 1 : i;
+    }
+
+    private static int classEnd(final String regex, final int open) {
+        int i = open + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') {
+            i++;
+        }
+        if (i < regex.length() && regex.charAt(i) == ']') {
+            i++;
+        }
+        int depth = 1;
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '\\') {
+                i += 2;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+            } else if (c == ']' && --depth == 0) {
+                return i;
+            }
+            i++;
+        }
+        return regex.length() - 1;
+    }
+
+    /**
+     * The outcome of analyzing one pattern.
+     */
+    public static final class Result {
+
+        private final List<String> warnings;
+        private final String rejection;
+
+        Result(final List<String> warnings, final String rejection) {
+            this.warnings = List.copyOf(warnings);
+            this.rejection = rejection;
+        }
+
+        /**
+         * @return the structures found by the static scan, empty if none
+         */
+        public List<String> getWarnings() {
+            return warnings;
+        }
+
+        /**
+         * @return why the pattern must not be used, or null if it can be
+         */
+        public String getRejection() {
+            return rejection;
+        }
+
+        public boolean isRejected() {
+            return rejection != null;
+        }
+    }
+
+    private static final class Group {
+
+        final int start;
+        final boolean atomic;
+        final List<String> branchFirsts = new ArrayList<>();
+        boolean branchStart;
+        boolean alternation;
+        boolean unbounded;
+
+        Group(final int start, final boolean atomic) {
+            this.start = start;
+            this.atomic = atomic;
+        }
+
+        boolean overlappingBranches() {
+            final Set<String> seen = new LinkedHashSet<>();
+            for (final String first : branchFirsts) {
+                if (first.equals("any") || !seen.add(first)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Atom {
+
+        static final int LITERAL = 0;
+        static final int CLASS = 1;
+        static final int ANY = 2;
+        static final int GROUP = 3;
+
+        final int start;
+        final int type;
+        final char c;
+        final Group group;
+        boolean unbounded;
+
+        Atom(final int start, final int type, final char c, final Group group) {
+            this.start = start;
+            this.type = type;
+            this.c = c;
+            this.group = group;
+        }
+
+        String key() {
+            switch (type) {
+                case ANY:
+                    return "any";
+                case GROUP:
+                    return "group@" + start;
+                case CLASS:
+                    return "class:" + c;
+                default:
+                    return "literal:" + c;
+            }
+        }
+    }
+
+    /**
+     * A string that aborts the regex reading it once a number of character reads is used up. The budget is shared by
+     * every value it is {@link #reading(String) given}.
+     */
+    private static final class BudgetedCharSequence implements CharSequence {
+
+        private String value = "";
+        private long remaining;
+
+        BudgetedCharSequence(final long steps) {
+            this.remaining = steps;
+        }
+
+        BudgetedCharSequence reading(final String value) {
+            this.value = value;
+            return this;
+        }
+
+        @Override
+        public char charAt(final int index) {
+            if (--remaining < 0) {
+                throw new BudgetExceeded();
+            }
+            return value.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return value.length();
+        }
+
+        @Override
+        public CharSequence subSequence(final int start, final int end) {
+            return value.substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+
+    private static final class BudgetExceeded extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        BudgetExceeded() {
+            super(null, null, false, false);
+        }
+    }
+
+}
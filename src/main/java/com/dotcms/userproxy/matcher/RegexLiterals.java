@@ -0,0 +1,97 @@
+package com.dotcms.userproxy.matcher;
+
+/**
+ * Extracts the literal text every match of a regular expression has to start with. The extraction is conservative:
+ * when in doubt it returns a shorter literal (or none), never a longer one, so the literal can safely be used to rule
+ * out patterns before running them.
+ */
+public final class RegexLiterals {
+
+    private static final String META_CHARS = ".[](){}*+?|$^";
+
+    private RegexLiterals() {
+    }
+
+    /**
+     * Whether the pattern can only match at the start of the input.
+     *
+     * @param regex the regular expression
+     * @return true if the pattern starts with {@code ^} or {@code \A}
+     */
+    public static boolean isAnchored(final String regex) {
+        return regex.startsWith("^") || regex.startsWith("\\A");
+    }
+
+    /**
+     * Returns the literal text that every match of the pattern starts with.
+     *
+     * @param regex the regular expression
+     * @return the leading literal, or an empty string if there is none
+     */
+    public static String leadingLiteral(final String regex) {
+        if (regex.contains("\\Q") || hasTopLevelAlternation(regex)) {
+            // quoted text may hide the metacharacters that end the literal
+            return "";
+        }
+        int i = regex.startsWith("^") ? 1 : regex.startsWith("\\A") ? 2 : 0;
+        final StringBuilder literal = new StringBuilder();
+        while (i < regex.length()) {
+            final char c = regex.charAt(i);
+            if (c == '*' || c == '?' || c == '{') {
+                // the previous character is optional or repeated an unknown number of times
+                if (literal.length() > 0) {
+                    literal.setLength(literal.length() - 1);
+                }
+                break;
+            }
+            if (META_CHARS.indexOf(c) >= 0) {
+                break;
+            }
+            if (c == '\\') {
+                if (i + 1 >= regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    // character classes, back references and quoting are not plain literals
+                    break;
+                }
+                literal.append(regex.charAt(i + 1));
+                i += 2;
+                continue;
+            }
+            literal.append(c);
+            i++;
+        }
+        return literal.toString();
+    }
+
+    /**
+     * Whether the pattern has a {@code |} outside of any group, in which case it has no common leading literal. Text
+     * quoted between {@code \Q} and {@code \E} is skipped, as its characters are all literals.
+     */
+    static boolean hasTopLevelAlternation(final String regex) {
+        int depth = 0;
+        boolean inClass = false;
+        for (int i = 0; i < regex.length(); i++) {
+            final char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length() && regex.charAt(i + 1) == 'Q') {
+                final int end = regex.indexOf("\\E", i + 2);
+                if (end < 0) {
+                    return false;
+                }
+                i = end + 1;
+            } else if (c == '\\') {
+                i++;
+            } else if (inClass) {
+                inClass = c != ']';
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '|' && depth == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,96 @@
+package com.dotcms.userproxy.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contention-free latency histogram with power-of-two buckets. Recording is a leading-zero count plus two
+ * {@link LongAdder} increments; percentiles are approximate, reported as the upper bound of the bucket they fall in
+ * (so at most 2x the real value) and never above the recorded maximum.
+ */
+public final class LatencyHistogram {
+
+    // bucket b holds values in [2^(b-1), 2^b - 1], bucket 0 holds 0
+    private static final int BUCKETS = Long.SIZE + 1;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records one value.
+     *
+     * @param nanos the latency in nanoseconds, negative values are recorded as 0
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        buckets[Long.SIZE - Long.numberOfLeadingZeros(value)].increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long count() {
+        long count = 0;
+        for (final LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Returns an approximate percentile.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @return the upper bound of the bucket holding the percentile, 0 if nothing was recorded
+     */
+    public long percentile(final double percentile) {
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100d));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    private static long upperBound(final int bucket) {
+        return bucket >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+    /**
+     * @return count, sum, mean, p50, p90, p99 and max, in nanoseconds
+     */
+    public Map<String, Long> toMap() {
+        final Map<String, Long> map = new LinkedHashMap<>();
+        final long count = count();
+        final long total = sum.sum();
+        map.put("count", count);
+        map.put("sumNanos", total);
+        map.put("meanNanos", count > 0 ? total / count : 0);
+        map.put("p50Nanos", percentile(50));
+        map.put("p90Nanos", percentile(90));
+        map.put("p99Nanos", percentile(99));
+        map.put("maxNanos", max.get());
+        return map;
+    }
+
+}
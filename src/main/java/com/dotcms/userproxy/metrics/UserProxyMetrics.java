@@ -0,0 +1,348 @@
+package com.dotcms.userproxy.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.dotcms.userproxy.model.UserProxyConfig;
+import com.dotcms.userproxy.model.UserProxyEntry;
+import com.dotmarketing.util.Config;
+import com.dotmarketing.util.Logger;
+
+/**
+ * Counters and latency histograms of the {@link com.dotcms.userproxy.interceptor.UserProxyInterceptor}: requests
+ * bypassed because they are already authenticated or for a site without configuration, config lookups, per-host and
+ * per-entry matches, rate limited requests, and token resolution time and failures. Counters are {@link LongAdder}s,
+ * so recording never contends between request threads.
+ *
+ * <p>
+ * Recording is turned on with {@code USER_PROXY_METRICS_ENABLED} and read once at startup. When it is off, callers
+ * are expected to check {@link #isEnabled()} before timing anything, so the interceptor only pays for a field read.
+ * Gauges owned by other components (caches, invalidations) are registered with {@link #registerGauge} and reported
+ * either way.
+ *
+ * <p>
+ * Metrics are exposed through JMX as {@value #OBJECT_NAME} and through the {@code /api/v1/userproxy/metrics} REST
+ * endpoint.
+ */
+public final class UserProxyMetrics implements UserProxyMetricsMXBean {
+
+    public static final String OBJECT_NAME = "com.dotcms.userproxy:type=UserProxyMetrics";
+
+    private static final UserProxyMetrics INSTANCE = new UserProxyMetrics(
+            Config.getBooleanProperty("USER_PROXY_METRICS_ENABLED", false));
+
+    private final boolean enabled;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder existingAuth = new LongAdder();
+    private final LongAdder hostSkipped = new LongAdder();
+    private final LongAdder configLookups = new LongAdder();
+    private final LongAdder unconfigured = new LongAdder();
+    private final LongAdder proxied = new LongAdder();
+    private final LongAdder unmatched = new LongAdder();
+    private final LongAdder tokenFailures = new LongAdder();
+    private final LongAdder rateLimited = new LongAdder();
+    private final LatencyHistogram interceptLatency = new LatencyHistogram();
+    private final LatencyHistogram tokenResolutionLatency = new LatencyHistogram();
+
+    private final ConcurrentHashMap<String, HostMetrics> hosts = new ConcurrentHashMap<>();
+    private final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+
+    UserProxyMetrics(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public static UserProxyMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Registers a value owned by another component, read every time metrics are reported.
+     *
+     * @param name  the counter name
+     * @param gauge the value supplier
+     */
+    public void registerGauge(final String name, final LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Gets, or creates, the counters of a host.
+     *
+     * @param hostIdentifier the host identifier
+     * @return the host counters
+     */
+    public HostMetrics host(final String hostIdentifier) {
+        final HostMetrics host = hosts.get(hostIdentifier);
+        return host != null ? host : hosts.computeIfAbsent(hostIdentifier, key -> new HostMetrics());
+    }
+
+    /**
+     * Records a request that already carries a user or an Authorization header and is not proxied.
+     */
+    public void recordExistingAuth(final long startNanos) {
+        requests.increment();
+        existingAuth.increment();
+        interceptLatency.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records a request for a site without configuration, passed through before its host was resolved.
+     */
+    public void recordHostSkipped(final long startNanos) {
+        requests.increment();
+        hostSkipped.increment();
+        interceptLatency.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records a request that went through the config lookup.
+     *
+     * @param host       the host counters
+     * @param configured whether the host has any entries
+     * @param proxied    whether a proxy user was set on the request
+     * @param startNanos the {@link System#nanoTime()} at which interception started
+     */
+    public void recordRequest(final HostMetrics host, final boolean configured, final boolean proxied,
+            final long startNanos) {
+        requests.increment();
+        configLookups.increment();
+        host.requests.increment();
+        if (!configured) {
+            unconfigured.increment();
+        } else if (proxied) {
+            this.proxied.increment();
+            host.proxied.increment();
+        } else {
+            unmatched.increment();
+            host.unmatched.increment();
+        }
+        interceptLatency.record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Records one token resolution for a matched entry.
+     *
+     * @param host     the host counters
+     * @param resolved whether the token resolved to an active user
+     * @param nanos    the time spent resolving the token
+     */
+    public void recordTokenResolution(final HostMetrics host, final boolean resolved, final long nanos) {
+        tokenResolutionLatency.record(nanos);
+        if (!resolved) {
+            tokenFailures.increment();
+            host.tokenFailures.increment();
+        }
+    }
+
+    /**
+     * Records a matched request refused by the rate limits of its entry.
+     *
+     * @param host the host counters
+     */
+    public void recordRateLimited(final HostMetrics host) {
+        rateLimited.increment();
+        host.rateLimited.increment();
+    }
+
+    @Override
+    public Map<String, Long> getCounters() {
+        final Map<String, Long> counters = new TreeMap<>();
+        counters.put("requests", requests.sum());
+        counters.put("existingAuth", existingAuth.sum());
+        counters.put("hostSkipped", hostSkipped.sum());
+        counters.put("configLookups", configLookups.sum());
+        counters.put("unconfigured", unconfigured.sum());
+        counters.put("proxied", proxied.sum());
+        counters.put("unmatched", unmatched.sum());
+        counters.put("tokenFailures", tokenFailures.sum());
+        counters.put("rateLimited", rateLimited.sum());
+        gauges.forEach((name, gauge) -> counters.put(name, gauge.getAsLong()));
+        hosts.forEach((hostId, host) -> {
+            final String prefix = "host." + hostId + '.';
+            host.toMap().forEach((name, value) -> counters.put(prefix + name, value));
+            final EntryCounters entries = host.entries;
+            if (entries != null) {
+                for (int i = 0; i < entries.matches.length; i++) {
+                    counters.put(prefix + "entry." + i + ".matches", entries.matches[i].sum());
+                }
+            }
+        });
+        return counters;
+    }
+
+    @Override
+    public Map<String, Long> getInterceptLatency() {
+        return interceptLatency.toMap();
+    }
+
+    @Override
+    public Map<String, Long> getTokenResolutionLatency() {
+        return tokenResolutionLatency.toMap();
+    }
+
+    /**
+     * Builds the report served by the REST endpoint. Entries are described by their methods and URL patterns, never
+     * by their tokens.
+     *
+     * @return the metrics as nested maps and lists
+     */
+    public Map<String, Object> toMap() {
+        final Map<String, Object> map = new LinkedHashMap<>();
+        map.put("enabled", enabled);
+        final Map<String, Long> totals = new LinkedHashMap<>();
+        totals.put("requests", requests.sum());
+        totals.put("existingAuth", existingAuth.sum());
+        totals.put("hostSkipped", hostSkipped.sum());
+        totals.put("configLookups", configLookups.sum());
+        totals.put("unconfigured", unconfigured.sum());
+        totals.put("proxied", proxied.sum());
+        totals.put("unmatched", unmatched.sum());
+        totals.put("tokenFailures", tokenFailures.sum());
+        totals.put("rateLimited", rateLimited.sum());
+        map.put("totals", totals);
+        final Map<String, Long> gaugeValues = new TreeMap<>();
+        gauges.forEach((name, gauge) -> gaugeValues.put(name, gauge.getAsLong()));
+        map.put("gauges", gaugeValues);
+        final Map<String, Object> latency = new LinkedHashMap<>();
+        latency.put("intercept", interceptLatency.toMap());
+        latency.put("tokenResolution", tokenResolutionLatency.toMap());
+        map.put("latency", latency);
+        final Map<String, Object> hostMaps = new TreeMap<>();
+        hosts.forEach((hostId, host) -> {
+            final Map<String, Object> hostMap = new LinkedHashMap<>(host.toMap());
+            final EntryCounters entries = host.entries;
+            if (entries != null) {
+                hostMap.put("entries", entries.toList());
+            }
+            hostMaps.put(hostId, hostMap);
+        });
+        map.put("hosts", hostMaps);
+        return map;
+    }
+
+    /**
+     * Registers {@link #getInstance()} with the platform MBean server, replacing a registration left over by a
+     * previous version of the bundle.
+     */
+    public static void registerMBean() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(INSTANCE, name);
+        } catch (Exception e) {
+            Logger.warn(UserProxyMetrics.class, "Unable to register the UserProxy metrics MBean:" + e);
+        }
+    }
+
+    public static void unregisterMBean() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            Logger.warn(UserProxyMetrics.class, "Unable to unregister the UserProxy metrics MBean:" + e);
+        }
+    }
+
+    /**
+     * Counters of one host.
+     */
+    public static final class HostMetrics {
+
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder proxied = new LongAdder();
+        private final LongAdder unmatched = new LongAdder();
+        private final LongAdder tokenFailures = new LongAdder();
+        private final LongAdder rateLimited = new LongAdder();
+        private volatile EntryCounters entries;
+
+        /**
+         * Records that an entry of the host's current config matched a request. Counters are per config and start
+         * over when the host's config is reloaded.
+         *
+         * @param config the config the entry belongs to
+         * @param index  the index of the matched entry
+         */
+        public void recordMatch(final UserProxyConfig config, final int index) {
+            EntryCounters current = entries;
+            if (current == null || current.config != config) {
+                // racing threads may each install counters for a new config, losing a few counts at most
+                current = new EntryCounters(config);
+                entries = current;
+            }
+            current.matches[index].increment();
+        }
+
+        private Map<String, Long> toMap() {
+            final Map<String, Long> map = new LinkedHashMap<>();
+            map.put("requests", requests.sum());
+            map.put("proxied", proxied.sum());
+            map.put("unmatched", unmatched.sum());
+            map.put("tokenFailures", tokenFailures.sum());
+            map.put("rateLimited", rateLimited.sum());
+            return map;
+        }
+    }
+
+    private static final class EntryCounters {
+
+        private final UserProxyConfig config;
+        private final LongAdder[] matches;
+
+        EntryCounters(final UserProxyConfig config) {
+            this.config = config;
+            this.matches = new LongAdder[config.getEntries().size()];
+            for (int i = 0; i < matches.length; i++) {
+                matches[i] = new LongAdder();
+            }
+        }
+
+        List<Map<String, Object>> toList() {
+            final List<Map<String, Object>> list = new ArrayList<>(matches.length);
+            for (int i = 0; i < matches.length; i++) {
+                final UserProxyEntry entry = config.get(i);
+                final List<String> urls = new ArrayList<>();
+                for (final Pattern url : entry.getUrls()) {
+                    urls.add(url.pattern());
+                }
+                final Map<String, Object> map = new LinkedHashMap<>();
+                map.put("index", i);
+                map.put("methods", entry.getMethods());
+                map.put("urlType", entry.getUrlType().name().toLowerCase());
+                map.put("urls", urls);
+                map.put("tokenStatus", entry.getResolvedToken().getStatus().name().toLowerCase());
+                map.put("matches", matches[i].sum());
+                if (entry.getRateLimit().isLimited()) {
+                    map.put("rateLimit", entry.getRateLimit().toString());
+                    map.put("rateLimited", entry.getRateLimit().getLimitedCount());
+                    map.put("rateLimitTrackedIps", entry.getRateLimit().getTrackedIps());
+                }
+                list.add(map);
+            }
+            return list;
+        }
+    }
+
+}
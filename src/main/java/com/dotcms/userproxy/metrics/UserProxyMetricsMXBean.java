@@ -0,0 +1,22 @@
+package com.dotcms.userproxy.metrics;
+
+import java.util.Map;
+
+/**
+ * Read-only JMX view of {@link UserProxyMetrics}, registered as {@value UserProxyMetrics#OBJECT_NAME}.
+ */
+public interface UserProxyMetricsMXBean {
+
+    boolean isEnabled();
+
+    /**
+     * @return every counter and gauge by name, including per-host ({@code host.<id>.*}) and per-entry
+     *         ({@code host.<id>.entry.<index>.matches}) counters
+     */
+    Map<String, Long> getCounters();
+
+    Map<String, Long> getInterceptLatency();
+
+    Map<String, Long> getTokenResolutionLatency();
+
+}
@@ -0,0 +1,135 @@
+package com.dotcms.userproxy.model;
+
+import java.util.regex.Pattern;
+
+/**
+ * A condition on one query string parameter of a {@link UserProxyEntry}: the parameter is present, has a value equal
+ * to a given one, or has a value matched, as a whole, by a regex. A parameter given more than once satisfies the
+ * condition if any of its values does.
+ *
+ * <p>
+ * Conditions are created unbound by {@link #present}, {@link #equalTo} and {@link #matching}, and bound to the
+ * {@link RegexEngine} of their entry when the entry is built.
+ */
+public final class QueryCondition {
+
+    /**
+     * What a condition checks.
+     */
+    public enum Kind {
+        PRESENT, EQUALS, MATCHES
+    }
+
+    private final String name;
+    private final Kind kind;
+    private final String value;
+    private final UrlMatcher matcher;
+
+    private QueryCondition(final String name, final Kind kind, final String value, final UrlMatcher matcher) {
+        this.name = name;
+        this.kind = kind;
+        this.value = value;
+        this.matcher = matcher;
+    }
+
+    /**
+     * @param name the parameter name
+     * @return a condition satisfied when the parameter is present, with or without a value
+     */
+    public static QueryCondition present(final String name) {
+        return new QueryCondition(name, Kind.PRESENT, null, null);
+    }
+
+    /**
+     * @param name  the parameter name
+     * @param value the expected decoded value
+     * @return a condition satisfied when the parameter has the given value
+     */
+    public static QueryCondition equalTo(final String name, final String value) {
+        return new QueryCondition(name, Kind.EQUALS, value, null);
+    }
+
+    /**
+     * @param name  the parameter name
+     * @param regex the regex the whole decoded value has to match
+     * @return a condition satisfied when a value of the parameter matches the regex
+     */
+    public static QueryCondition matching(final String name, final String regex) {
+        return new QueryCondition(name, Kind.MATCHES, regex, null);
+    }
+
+    /**
+     * Compiles the regex of a {@link Kind#MATCHES} condition as a Java pattern anchored at both ends.
+     *
+     * @return the pattern, or null for other kinds
+     * @throws RuntimeException if the regex is invalid
+     */
+    Pattern pattern() {
+        return kind == Kind.MATCHES ? Pattern.compile("^(?:" + value + ")$") : null;
+    }
+
+    /**
+     * Binds this condition to the engine of its entry.
+     *
+     * @param pattern     the pattern returned by {@link #pattern()}
+     * @param regexEngine the engine of the entry
+     * @return the bound condition
+     * @throws RuntimeException if the engine does not support the pattern
+     */
+    QueryCondition bind(final Pattern pattern, final RegexEngine regexEngine) {
+        return pattern != null ? new QueryCondition(name, kind, value, regexEngine.compile(pattern)) : this;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the expected value or the regex, null for {@link Kind#PRESENT}
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Whether the query string satisfies this condition.
+     *
+     * @param query the parameters of the request
+     * @return true if the condition holds
+     */
+    public boolean test(final QueryParameters query) {
+        for (int i = query.indexOf(name, 0); i >= 0; i = query.indexOf(name, i + 1)) {
+            switch (kind) {
+                case PRESENT:
+                    return true;
+                case EQUALS:
+                    if (value.equals(query.value(i))) {
+                        return true;
+                    }
+                    break;
+                default:
+                    if (matcher != null && matcher.find(query.value(i))) {
+                        return true;
+                    }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        switch (kind) {
+            case PRESENT:
+                return name;
+            case EQUALS:
+                return name + "=" + value;
+            default:
+                return name + "~" + value;
+        }
+    }
+
+}
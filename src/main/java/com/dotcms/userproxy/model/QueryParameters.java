@@ -0,0 +1,126 @@
+package com.dotcms.userproxy.model;
+
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The parameters of a request query string, parsed on first access and at most once. A request only pays for parsing
+ * when an entry with {@link QueryCondition}s already matched its method and path.
+ *
+ * <p>
+ * Names and values are URL-decoded as UTF-8; {@code %} sequences and {@code +} are only decoded when present, so a
+ * plain query string is split without copying more than its parts. A parameter without {@code =} has an empty value.
+ */
+public final class QueryParameters {
+
+    public static final QueryParameters EMPTY = new QueryParameters(null);
+
+    private static final String[] NONE = new String[0];
+
+    private final String queryString;
+    private String[] names;
+    private String[] values;
+
+    public QueryParameters(final String queryString) {
+        this.queryString = queryString;
+    }
+
+    /**
+     * Whether the query string has a parameter with the given name.
+     *
+     * @param name the decoded parameter name
+     * @return true if the parameter is present, with or without a value
+     */
+    public boolean has(final String name) {
+        return indexOf(name, 0) >= 0;
+    }
+
+    /**
+     * Returns the index of the next parameter with the given name.
+     *
+     * @param name      the decoded parameter name
+     * @param fromIndex the index to start looking from
+     * @return the index of the parameter, or -1 if there is none
+     */
+    public int indexOf(final String name, final int fromIndex) {
+        parse();
+        for (int i = fromIndex; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param index the parameter index
+     * @return the decoded value of the parameter, empty if it has none
+     */
+    public String value(final int index) {
+        parse();
+        return values[index];
+    }
+
+    /**
+     * @return the number of parameters, counting repeated names once per occurrence
+     */
+    public int size() {
+        parse();
+        return names.length;
+    }
+
+    private void parse() {
+        if (names != null) {
+            return;
+        }
+        // not thread safe by design, an instance only lives for one request
+        if (queryString == null || queryString.isEmpty()) {
+            values = NONE;
+            names = NONE;
+            return;
+        }
+        int count = 1;
+        for (int i = 0; i < queryString.length(); i++) {
+            if (queryString.charAt(i) == '&') {
+                count++;
+            }
+        }
+        final String[] parsedNames = new String[count];
+        final String[] parsedValues = new String[count];
+        int parsed = 0;
+        int start = 0;
+        while (start <= queryString.length()) {
+            int end = queryString.indexOf('&', start);
+            if (end < 0) {
+                end = queryString.length();
+            }
+            if (end > start) {
+                final int equals = queryString.indexOf('=', start);
+                final boolean hasValue = equals >= 0 && equals < end;
+                parsedNames[parsed] = decode(queryString, start, hasValue ? equals : end);
+                parsedValues[parsed] = hasValue ? decode(queryString, equals + 1, end) : "";
+                parsed++;
+            }
+            start = end + 1;
+        }
+        values = parsed == count ? parsedValues : Arrays.copyOf(parsedValues, parsed);
+        names = parsed == count ? parsedNames : Arrays.copyOf(parsedNames, parsed);
+    }
+
+    private static String decode(final String query, final int start, final int end) {
+        for (int i = start; i < end; i++) {
+            final char c = query.charAt(i);
+            if (c == '%' || c == '+') {
+                try {
+                    return URLDecoder.decode(query.substring(start, end), StandardCharsets.UTF_8);
+                } catch (IllegalArgumentException e) {
+                    // malformed escape, keep the raw text
+                    return query.substring(start, end);
+                }
+            }
+        }
+        return query.substring(start, end);
+    }
+
+}
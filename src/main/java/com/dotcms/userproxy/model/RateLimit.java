@@ -0,0 +1,167 @@
+package com.dotcms.userproxy.model;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.dotcms.userproxy.util.BoundedCache;
+import com.dotcms.userproxy.util.TokenBucket;
+import com.dotmarketing.util.Config;
+
+/**
+ * The rate limits of one {@link UserProxyEntry}: a sustained rate and burst for all requests the entry proxies on a
+ * host, and another for the requests of each client IP. Either can be left out.
+ *
+ * <p>
+ * Limits are counted per host. Hosts that share a compiled config through the {@link UserProxyConfigPool}, such as
+ * every site falling back to the System Host, share this object but each get their own buckets. All requests to a host
+ * share a striped {@link TokenBucket}, with {@code USER_PROXY_RATE_LIMIT_STRIPES} stripes (by default the number of
+ * processors), created on its first limited request. Each client IP of each host has a single-cell bucket in one
+ * {@link BoundedCache} holding at most {@code USER_PROXY_RATE_LIMIT_MAX_IPS} of them for all hosts together, the least
+ * recently seen being dropped first, so memory stays bounded however many hosts share the limits and addresses
+ * clients use.
+ *
+ * <p>
+ * A config reloaded with unchanged content is the same pooled config, so its limits carry on; a config whose content
+ * changed starts with full buckets.
+ *
+ * <p>
+ * A request over a limit is either proxied without a user, so it continues as anonymous, or, with
+ * {@link #isReject()}, answered with a {@code 429 Too Many Requests}.
+ */
+public final class RateLimit {
+
+    public static final RateLimit NONE = new RateLimit(0, 0, 0, 0, false);
+
+    private final double perSecond;
+    private final int burst;
+    private final double perIpPerSecond;
+    private final int perIpBurst;
+    private final boolean reject;
+    private final long ipIntervalNanos;
+    private final long ipToleranceNanos;
+    private final ConcurrentHashMap<String, TokenBucket> hostBuckets = new ConcurrentHashMap<>();
+    private final BoundedCache<String, AtomicLong> ipBuckets;
+    private final LongAdder limited = new LongAdder();
+
+    /**
+     * Creates the rate limits of an entry.
+     *
+     * @param perSecond      the sustained requests per second of the entry, 0 for no limit
+     * @param burst          the requests the entry allows at once, at least 1 (defaults to the rate)
+     * @param perIpPerSecond the sustained requests per second of each client IP, 0 for no limit
+     * @param perIpBurst     the requests each client IP can make at once, at least 1 (defaults to the rate)
+     * @param reject         whether requests over a limit are answered with a 429 instead of continuing as anonymous
+     */
+    public RateLimit(final double perSecond, final int burst, final double perIpPerSecond, final int perIpBurst,
+            final boolean reject) {
+        this.perSecond = Math.max(0, perSecond);
+        this.burst = burstOf(this.perSecond, burst);
+        this.perIpPerSecond = Math.max(0, perIpPerSecond);
+        this.perIpBurst = burstOf(this.perIpPerSecond, perIpBurst);
+        this.reject = reject;
+        this.ipIntervalNanos = this.perIpPerSecond > 0 ? TokenBucket.intervalNanos(this.perIpPerSecond) : 0;
+        this.ipToleranceNanos = ipIntervalNanos * this.perIpBurst;
+        this.ipBuckets = this.perIpPerSecond > 0
+                ? new BoundedCache<>(Config.getIntProperty("USER_PROXY_RATE_LIMIT_MAX_IPS", 10000), Long.MAX_VALUE,
+                        TimeUnit.NANOSECONDS)
+                : null;
+    }
+
+    private static int burstOf(final double perSecond, final int burst) {
+        return burst > 0 ? burst : (int) Math.max(1, Math.ceil(perSecond));
+    }
+
+    /**
+     * Whether any limit is set.
+     *
+     * @return false if {@link #tryAcquire(String, String)} always allows requests
+     */
+    public boolean isLimited() {
+        return perSecond > 0 || perIpPerSecond > 0;
+    }
+
+    /**
+     * Counts a request against the limits of a host.
+     *
+     * @param hostId   the identifier of the host the request is for
+     * @param remoteIp the client IP address
+     * @return 0 if the request is allowed, otherwise how many nanoseconds until it would be
+     */
+    public long tryAcquire(final String hostId, final String remoteIp) {
+        if (!isLimited()) {
+            return 0;
+        }
+        final String host = hostId != null ? hostId : "";
+        if (ipBuckets != null) {
+            final String key = host + ' ' + (remoteIp != null ? remoteIp : "");
+            AtomicLong ipBucket = ipBuckets.get(key);
+            if (ipBucket == null) {
+                // racing first requests of an address may each start a bucket, allowing a few more requests at most
+                ipBucket = new AtomicLong(System.nanoTime());
+                ipBuckets.put(key, ipBucket);
+            }
+            final long wait = TokenBucket.tryAcquire(ipBucket, ipIntervalNanos, ipToleranceNanos);
+            if (wait > 0) {
+                limited.increment();
+                return wait;
+            }
+        }
+        if (perSecond > 0) {
+            final long wait = hostBuckets.computeIfAbsent(host, key -> new TokenBucket(perSecond, burst,
+                    Config.getIntProperty("USER_PROXY_RATE_LIMIT_STRIPES", Runtime.getRuntime().availableProcessors())))
+                    .tryAcquire();
+            if (wait > 0) {
+                limited.increment();
+                return wait;
+            }
+        }
+        return 0;
+    }
+
+    public double getPerSecond() {
+        return perSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    public double getPerIpPerSecond() {
+        return perIpPerSecond;
+    }
+
+    public int getPerIpBurst() {
+        return perIpBurst;
+    }
+
+    public boolean isReject() {
+        return reject;
+    }
+
+    /**
+     * @return the number of requests refused by these limits
+     */
+    public long getLimitedCount() {
+        return limited.sum();
+    }
+
+    /**
+     * @return the number of client IPs currently tracked, over every host
+     */
+    public int getTrackedIps() {
+        return ipBuckets != null ? ipBuckets.size() : 0;
+    }
+
+    @Override
+    public String toString() {
+        if (!isLimited()) {
+            return "none";
+        }
+        return "RateLimit{" + (perSecond > 0 ? perSecond + "/s burst " + burst : "")
+                + (perSecond > 0 && perIpPerSecond > 0 ? ", " : "")
+                + (perIpPerSecond > 0 ? "per IP " + perIpPerSecond + "/s burst " + perIpBurst : "")
+                + (reject ? ", reject" : "") + '}';
+    }
+}
@@ -0,0 +1,107 @@
+package com.dotcms.userproxy.model;
+
+import java.util.regex.Pattern;
+
+import com.dotmarketing.util.Config;
+import com.dotmarketing.util.Logger;
+
+/**
+ * The regex engine URL patterns are evaluated with.
+ *
+ * <p>
+ * {@link #JAVA} is {@link java.util.regex.Pattern}, which supports every Java regex feature but backtracks, so a
+ * pattern with nested quantifiers can take exponential time on a crafted URI. {@link #RE2} is RE2/J, which runs in
+ * time linear in the length of the URI whatever the pattern, at the cost of rejecting back references, lookarounds,
+ * possessive quantifiers and atomic groups. Patterns the selected engine cannot compile are rejected when the config
+ * is loaded.
+ *
+ * <p>
+ * The engine is chosen per config with the {@code regexEngine} key of userproxy.json ({@code java} or {@code re2}),
+ * and defaults to the {@code USER_PROXY_REGEX_ENGINE} property.
+ */
+public enum RegexEngine {
+
+    JAVA {
+        @Override
+        UrlMatcher compile(final Pattern pattern) {
+            return new UrlMatcher() {
+
+                @Override
+                public boolean find(final CharSequence uri) {
+                    return pattern.matcher(uri).find();
+                }
+
+                @Override
+                public String pattern() {
+                    return pattern.pattern();
+                }
+
+                @Override
+                public String toString() {
+                    return pattern.pattern();
+                }
+            };
+        }
+    },
+
+    RE2 {
+        @Override
+        UrlMatcher compile(final Pattern pattern) {
+            final com.google.re2j.Pattern re2 = com.google.re2j.Pattern.compile(pattern.pattern());
+            return new UrlMatcher() {
+
+                @Override
+                public boolean find(final CharSequence uri) {
+                    return re2.matcher(uri).find();
+                }
+
+                @Override
+                public String pattern() {
+                    return re2.pattern();
+                }
+
+                @Override
+                public String toString() {
+                    return re2.pattern();
+                }
+            };
+        }
+    };
+
+    /**
+     * Compiles an already Java-compiled URL pattern with this engine.
+     *
+     * @param pattern the Java pattern
+     * @return the matcher
+     * @throws RuntimeException if this engine does not support the pattern
+     */
+    abstract UrlMatcher compile(Pattern pattern);
+
+    /**
+     * Gets the engine by name.
+     *
+     * @param name {@code java} or {@code re2}, case insensitive, or null for {@link #defaultEngine()}
+     * @return the engine, {@link #defaultEngine()} if the name is unknown
+     */
+    public static RegexEngine of(final String name) {
+        if (name == null || name.isBlank()) {
+            return defaultEngine();
+        }
+        for (final RegexEngine engine : values()) {
+            if (engine.name().equalsIgnoreCase(name.trim())) {
+                return engine;
+            }
+        }
+        Logger.warn(RegexEngine.class, "Unknown userproxy regex engine:" + name + ", using " + defaultEngine());
+        return defaultEngine();
+    }
+
+    /**
+     * @return the engine set with {@code USER_PROXY_REGEX_ENGINE}, {@link #JAVA} if unset or unknown
+     */
+    public static RegexEngine defaultEngine() {
+        final String name = Config.getStringProperty("USER_PROXY_REGEX_ENGINE", "java");
+        return "re2".equalsIgnoreCase(name.trim()) ? RE2 : JAVA;
+    }
+
+}
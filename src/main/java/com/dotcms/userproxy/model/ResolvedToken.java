@@ -0,0 +1,302 @@
+package com.dotcms.userproxy.model;
+
+import java.util.Date;
+import java.util.Objects;
+import java.util.Optional;
+
+import com.dotcms.auth.providers.jwt.beans.ApiToken;
+import com.dotcms.auth.providers.jwt.beans.JWToken;
+import com.dotcms.auth.providers.jwt.services.ApiTokenAPI;
+import com.dotcms.userproxy.util.IpNetworks;
+import com.dotmarketing.business.APILocator;
+import com.dotmarketing.business.UserAPI;
+import com.dotmarketing.util.Logger;
+import com.liferay.portal.model.User;
+
+/**
+ * The result of validating the token of a {@link UserProxyEntry} ahead of requests: the user it resolves to, when it
+ * expires and the networks it can be used from. With a valid resolved token, matching a request only takes an IP
+ * check and reading the cached user; the JWT is not validated again until the next refresh.
+ *
+ * <p>
+ * The IP check is the token's own ({@link JWToken#isValid(String)}), so its Allowed Network setting means exactly
+ * what it means to dotCMS, and tokens without one skip it. The networks are also parsed into {@link IpNetworks} for
+ * {@link UserProxyConfig}, which can use them to skip entries early; a value that cannot be parsed is left to the
+ * token's check.
+ *
+ * <p>
+ * A token is {@link Status#UNRESOLVED} until it is first validated, or when validation fails for a reason other than
+ * the token itself (the token API is unavailable), in which case requests validate it as before.
+ *
+ * <p>
+ * A token {@link #restored(String, String, long, IpNetworks, long) restored} from a persisted snapshot only keeps the
+ * identifier of the API token and what its last validation found. It resolves no user until it is
+ * {@link #confirm(ResolvedToken) confirmed}: the API token is looked up by its identifier, which tells whether it was
+ * revoked or expired while the server was down, and its user is loaded again. That takes no JWT and no App secrets.
+ */
+public final class ResolvedToken {
+
+    /**
+     * The outcome of a validation.
+     */
+    public enum Status {
+        UNRESOLVED, VALID, INVALID
+    }
+
+    public static final ResolvedToken UNRESOLVED = new ResolvedToken(Status.UNRESOLVED, null, null, null,
+            Long.MAX_VALUE, IpNetworks.ANY, null, null, 0);
+
+    private final Status status;
+    private final String problem;
+    private final String tokenId;
+    private final String userId;
+    private final long expiresAtMillis;
+    private final IpNetworks allowedNetworks;
+    private final JWToken jwt;
+    private final User user;
+    private final long resolvedAtMillis;
+
+    private ResolvedToken(final Status status, final String problem, final String tokenId, final String userId,
+            final long expiresAtMillis, final IpNetworks allowedNetworks, final JWToken jwt, final User user,
+            final long resolvedAtMillis) {
+        this.status = status;
+        this.problem = problem;
+        this.tokenId = tokenId;
+        this.userId = userId;
+        this.expiresAtMillis = expiresAtMillis;
+        this.allowedNetworks = allowedNetworks;
+        this.jwt = jwt;
+        this.user = user;
+        this.resolvedAtMillis = resolvedAtMillis;
+    }
+
+    /**
+     * Validates a token with the dotCMS API token API and loads its user.
+     *
+     * @param token the JWT
+     * @return the resolved token, {@link #UNRESOLVED} if the token API cannot be reached
+     */
+    static ResolvedToken resolve(final char[] token) {
+        final ApiTokenAPI tokens;
+        final UserAPI users;
+        try {
+            tokens = APILocator.getApiTokenAPI();
+            users = APILocator.getUserAPI();
+        } catch (Exception e) {
+            return UNRESOLVED;
+        }
+        return resolve(token, tokens, users);
+    }
+
+    static ResolvedToken resolve(final char[] token, final ApiTokenAPI tokens, final UserAPI users) {
+        final long now = System.currentTimeMillis();
+        final Optional<JWToken> validated;
+        try {
+            // validated without a client address, which is checked on every request
+            validated = tokens.fromJwt(new String(token));
+        } catch (Exception e) {
+            return UNRESOLVED;
+        }
+        if (validated == null || validated.isEmpty()) {
+            return invalid("token is invalid, expired or revoked", null, now);
+        }
+        return withUser(validated.get(), users, UNRESOLVED, now);
+    }
+
+    /**
+     * Loads the user of a validated token.
+     *
+     * @param unavailable what to return if the user cannot be loaded
+     */
+    private static ResolvedToken withUser(final JWToken jwt, final UserAPI users, final ResolvedToken unavailable,
+            final long now) {
+        final User user;
+        try {
+            user = users.loadUserById(jwt.getUserId());
+        } catch (Exception e) {
+            return unavailable;
+        }
+        if (user == null || !user.isActive()) {
+            return invalid("user of the token is not active", jwt.getUserId(), now);
+        }
+        final Date expires = jwt.getExpiresDate();
+        return new ResolvedToken(Status.VALID, null, jwt.getId(), user.getUserId(),
+                expires != null ? expires.getTime() : Long.MAX_VALUE, parseNetworks(jwt.getAllowNetwork()), jwt, user,
+                now);
+    }
+
+    /**
+     * Validates a token again from its identifier, without the JWT: looks the API token up, checks that it is neither
+     * revoked nor expired and still belongs to the same user, and loads that user.
+     *
+     * @param previous a token that has a {@link #getTokenId() token identifier}, such as a restored one
+     * @return the validated token, or {@code previous} if the token API cannot be reached
+     */
+    public static ResolvedToken confirm(final ResolvedToken previous) {
+        final ApiTokenAPI tokens;
+        final UserAPI users;
+        try {
+            tokens = APILocator.getApiTokenAPI();
+            users = APILocator.getUserAPI();
+        } catch (Exception e) {
+            return previous;
+        }
+        return confirm(previous, tokens, users);
+    }
+
+    static ResolvedToken confirm(final ResolvedToken previous, final ApiTokenAPI tokens, final UserAPI users) {
+        if (previous.tokenId == null || previous.status != Status.VALID) {
+            return previous;
+        }
+        final long now = System.currentTimeMillis();
+        final Optional<ApiToken> found;
+        try {
+            found = tokens.findApiToken(previous.tokenId);
+        } catch (Exception e) {
+            return previous;
+        }
+        if (found == null || found.isEmpty()) {
+            return invalid("token no longer exists", previous.userId, now);
+        }
+        final ApiToken token = found.get();
+        if (token.isRevoked() || token.isExpired() || !Objects.equals(previous.userId, token.getUserId())) {
+            return invalid("token is expired or revoked", previous.userId, now);
+        }
+        return withUser(token, users, previous, now);
+    }
+
+    /**
+     * Parses the Allowed Network of a token, or allows every address when it cannot be parsed and only the token's
+     * own check applies.
+     */
+    private static IpNetworks parseNetworks(final String allowNetwork) {
+        try {
+            return IpNetworks.parse(allowNetwork);
+        } catch (IllegalArgumentException e) {
+            Logger.debug(ResolvedToken.class, "Leaving the Allowed Network of a token to the token API:" + e);
+            return IpNetworks.ANY;
+        }
+    }
+
+    /**
+     * Recreates a token from a persisted snapshot, without the token itself.
+     *
+     * @param tokenId          the identifier of the API token
+     * @param userId           the identifier of the token's user, or null if the token was not valid when persisted
+     * @param expiresAtMillis  the expiry time of the token in epoch millis
+     * @param allowedNetworks  the networks the token can be used from
+     * @param resolvedAtMillis when the token was last validated, in epoch millis
+     * @return the resolved token, which resolves no user until it is confirmed, {@link Status#INVALID} if there was
+     *         no user or no token identifier
+     */
+    public static ResolvedToken restored(final String tokenId, final String userId, final long expiresAtMillis,
+            final IpNetworks allowedNetworks, final long resolvedAtMillis) {
+        if (userId == null || tokenId == null) {
+            return invalid("token was not valid when the config was persisted", userId, resolvedAtMillis);
+        }
+        return new ResolvedToken(Status.VALID, null, tokenId, userId, expiresAtMillis, allowedNetworks, null, null,
+                resolvedAtMillis);
+    }
+
+    private static ResolvedToken invalid(final String problem, final String userId, final long now) {
+        return new ResolvedToken(Status.INVALID, problem, null, userId, Long.MAX_VALUE, IpNetworks.ANY, null, null,
+                now);
+    }
+
+    /**
+     * Gets the user a request from the given address acts as.
+     *
+     * @param remoteIp the client IP address
+     * @return the user, or null if the token is not valid, has expired, is not allowed from that address, was
+     *         restored and not confirmed yet or its user is no longer active
+     */
+    public User userFor(final String remoteIp) {
+        if (status != Status.VALID || user == null || System.currentTimeMillis() >= expiresAtMillis
+                || !allowsAddress(remoteIp)) {
+            return null;
+        }
+        return user.isActive() ? user : null;
+    }
+
+    private boolean allowsAddress(final String remoteIp) {
+        if (jwt == null) {
+            return allowedNetworks.contains(remoteIp);
+        }
+        final String allowNetwork = jwt.getAllowNetwork();
+        return allowNetwork == null || allowNetwork.isBlank() || jwt.isValid(remoteIp);
+    }
+
+    /**
+     * Whether this token has to be validated again: it was never validated, it was validated more than
+     * {@code refreshMillis} ago, or it expires within {@code refreshMillis}.
+     *
+     * @param refreshMillis the refresh interval
+     * @param nowMillis     the current time
+     * @return true if the token is due for a refresh
+     */
+    public boolean isDue(final long refreshMillis, final long nowMillis) {
+        return status == Status.UNRESOLVED || nowMillis - resolvedAtMillis >= refreshMillis
+                || expiresAtMillis - nowMillis <= refreshMillis;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isResolved() {
+        return status != Status.UNRESOLVED;
+    }
+
+    /**
+     * Whether this token was restored from a persisted snapshot and has to be {@link #confirm confirmed} before it
+     * resolves a user.
+     */
+    public boolean isUnconfirmed() {
+        return status == Status.VALID && user == null;
+    }
+
+    /**
+     * @return why the token is {@link Status#INVALID}, null otherwise
+     */
+    public String getProblem() {
+        return problem;
+    }
+
+    /**
+     * @return the identifier of the API token, null if unknown
+     */
+    public String getTokenId() {
+        return tokenId;
+    }
+
+    /**
+     * @return the identifier of the token's user, null if unknown
+     */
+    public String getUserId() {
+        return userId;
+    }
+
+    /**
+     * @return the expiry time of the token in epoch millis, {@link Long#MAX_VALUE} if it does not expire
+     */
+    public long getExpiresAtMillis() {
+        return expiresAtMillis;
+    }
+
+    /**
+     * @return when the token was last validated, in epoch millis
+     */
+    public long getResolvedAtMillis() {
+        return resolvedAtMillis;
+    }
+
+    public IpNetworks getAllowedNetworks() {
+        return allowedNetworks;
+    }
+
+    @Override
+    public String toString() {
+        return "ResolvedToken{status=" + status + ", userId=" + userId + ", networks=" + allowedNetworks + '}';
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.dotcms.userproxy.model;
+
+import java.util.List;
+
+/**
+ * How the responses to the GET requests an entry proxies are cached: for how long, and which query parameters they
+ * depend on. Every caller of a proxied rule is signed in as the same user, so a response that only depends on the
+ * URI and those parameters can be shared between callers.
+ *
+ * <p>
+ * The cache key is made of the URI and the values of the listed parameters, in the order they are listed; other
+ * parameters are ignored, so the list has to name every parameter that changes the response.
+ */
+public final class ResponseCachePolicy {
+
+    public static final ResponseCachePolicy NONE = new ResponseCachePolicy(0, List.of());
+
+    private final long ttlMillis;
+    private final String[] queryParameters;
+
+    /**
+     * Creates a cache policy.
+     *
+     * @param ttlMillis       how long a response is served from the cache, 0 to not cache
+     * @param queryParameters the query parameters that are part of the cache key
+     */
+    public ResponseCachePolicy(final long ttlMillis, final List<String> queryParameters) {
+        this.ttlMillis = Math.max(0, ttlMillis);
+        this.queryParameters = queryParameters != null ? queryParameters.toArray(new String[0]) : new String[0];
+    }
+
+    public boolean isEnabled() {
+        return ttlMillis > 0;
+    }
+
+    public long getTtlMillis() {
+        return ttlMillis;
+    }
+
+    public List<String> getQueryParameters() {
+        return List.of(queryParameters);
+    }
+
+    /**
+     * Builds the part of the cache key that comes from the request: the URI and the listed query parameters.
+     *
+     * @param uri   the request URI
+     * @param query the request parameters
+     * @return the key
+     */
+    public String keyOf(final String uri, final QueryParameters query) {
+        if (queryParameters.length == 0) {
+            return uri;
+        }
+        final StringBuilder key = new StringBuilder(uri);
+        char separator = '?';
+        for (final String name : queryParameters) {
+            for (int i = query.indexOf(name, 0); i >= 0; i = query.indexOf(name, i + 1)) {
+                // parameters are kept decoded, so separators inside values are escaped to keep keys distinct
+                key.append(separator).append(escape(name)).append('=').append(escape(query.value(i)));
+                separator = '&';
+            }
+        }
+        return key.toString();
+    }
+
+    private static String escape(final String value) {
+        return value.indexOf('&') < 0 && value.indexOf('=') < 0 && value.indexOf('%') < 0
+                ? value
+                : value.replace("%", "%25").replace("&", "%26").replace("=", "%3D");
+    }
+
+    @Override
+    public String toString() {
+        return isEnabled() ? "ResponseCachePolicy{ttlMillis=" + ttlMillis + ", queryParameters="
+                + List.of(queryParameters) + '}' : "none";
+    }
+
+}
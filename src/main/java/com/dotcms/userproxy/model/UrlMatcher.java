@@ -0,0 +1,22 @@
+package com.dotcms.userproxy.model;
+
+/**
+ * A compiled URL of a {@link UserProxyEntry}. Regexes are evaluated with {@code find()} semantics by the
+ * {@link RegexEngine} they were compiled with; the other {@link UrlType}s match the whole URI.
+ */
+public interface UrlMatcher {
+
+    /**
+     * Whether the URL matches the URI.
+     *
+     * @param uri the request URI
+     * @return true if the URL matches
+     */
+    boolean find(CharSequence uri);
+
+    /**
+     * @return the regex this matcher was compiled from, or that is equivalent to it
+     */
+    String pattern();
+
+}
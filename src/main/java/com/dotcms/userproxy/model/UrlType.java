@@ -0,0 +1,208 @@
+package com.dotcms.userproxy.model;
+
+import java.util.regex.Pattern;
+
+import com.dotmarketing.util.Logger;
+
+/**
+ * How the {@code urls} of a {@link UserProxyEntry} are interpreted, set per entry with the {@code urlType} key of
+ * userproxy.json.
+ *
+ * <p>
+ * {@link #REGEX} (the default) is a regular expression found anywhere in the URI, evaluated with the entry's
+ * {@link RegexEngine}. The other types match the whole URI without running a regex and without allocating:
+ * {@link #GLOB}, where {@code *} matches any run of characters (including {@code /}) and {@code ?} any single
+ * character, {@link #PREFIX}, a literal the URI starts with, and {@link #EXACT}, a literal equal to the URI.
+ *
+ * <p>
+ * Every URL is also translated to an equivalent anchored Java pattern, so that matchers can index its leading
+ * literal and report it like any other pattern.
+ */
+public enum UrlType {
+
+    REGEX {
+        @Override
+        String toRegex(final String url) {
+            return url;
+        }
+
+        @Override
+        UrlMatcher compile(final String url, final Pattern pattern, final RegexEngine regexEngine) {
+            return regexEngine.compile(pattern);
+        }
+    },
+
+    GLOB {
+        @Override
+        String toRegex(final String url) {
+            final StringBuilder regex = new StringBuilder("^");
+            for (int i = 0; i < url.length(); i++) {
+                final char c = url.charAt(i);
+                if (c == '*') {
+                    regex.append(".*");
+                } else if (c == '?') {
+                    regex.append('.');
+                } else {
+                    appendLiteral(regex, c);
+                }
+            }
+            return regex.append('$').toString();
+        }
+
+        @Override
+        UrlMatcher compile(final String url, final Pattern pattern, final RegexEngine regexEngine) {
+            final char[] glob = url.toCharArray();
+            return new LiteralMatcher(url, pattern) {
+
+                @Override
+                public boolean find(final CharSequence uri) {
+                    int g = 0;
+                    int u = 0;
+                    int star = -1;
+                    int starU = 0;
+                    while (u < uri.length()) {
+                        if (g < glob.length && (glob[g] == '?' || glob[g] == uri.charAt(u))) {
+                            g++;
+                            u++;
+                        } else if (g < glob.length && glob[g] == '*') {
+                            star = g++;
+                            starU = u;
+                        } else if (star >= 0) {
+                            // let the last star swallow one more character and retry from there
+                            g = star + 1;
+                            u = ++starU;
+                        } else {
+                            return false;
+                        }
+                    }
+                    while (g < glob.length && glob[g] == '*') {
+                        g++;
+                    }
+                    return g == glob.length;
+                }
+            };
+        }
+    },
+
+    PREFIX {
+        @Override
+        String toRegex(final String url) {
+            final StringBuilder regex = new StringBuilder("^");
+            for (int i = 0; i < url.length(); i++) {
+                appendLiteral(regex, url.charAt(i));
+            }
+            return regex.toString();
+        }
+
+        @Override
+        UrlMatcher compile(final String url, final Pattern pattern, final RegexEngine regexEngine) {
+            return new LiteralMatcher(url, pattern) {
+
+                @Override
+                public boolean find(final CharSequence uri) {
+                    return uri.length() >= url.length() && startsWith(uri, url);
+                }
+            };
+        }
+    },
+
+    EXACT {
+        @Override
+        String toRegex(final String url) {
+            return PREFIX.toRegex(url) + '$';
+        }
+
+        @Override
+        UrlMatcher compile(final String url, final Pattern pattern, final RegexEngine regexEngine) {
+            return new LiteralMatcher(url, pattern) {
+
+                @Override
+                public boolean find(final CharSequence uri) {
+                    return uri.length() == url.length() && startsWith(uri, url);
+                }
+            };
+        }
+    };
+
+    private static final String META_CHARS = "\\.[](){}*+?|$^";
+
+    /**
+     * Translates a URL of this type to an equivalent Java regex.
+     *
+     * @param url the configured URL
+     * @return the regex
+     */
+    abstract String toRegex(String url);
+
+    /**
+     * Compiles a URL of this type.
+     *
+     * @param url         the configured URL
+     * @param pattern     the Java pattern compiled from {@link #toRegex(String)}
+     * @param regexEngine the engine regexes are evaluated with
+     * @return the matcher
+     * @throws RuntimeException if the regex engine does not support the pattern
+     */
+    abstract UrlMatcher compile(String url, Pattern pattern, RegexEngine regexEngine);
+
+    /**
+     * Gets the type by name.
+     *
+     * @param name {@code regex}, {@code glob}, {@code prefix} or {@code exact}, case insensitive, or null for
+     *             {@link #REGEX}
+     * @return the type, {@link #REGEX} if the name is unknown
+     */
+    public static UrlType of(final String name) {
+        if (name == null || name.isBlank()) {
+            return REGEX;
+        }
+        for (final UrlType type : values()) {
+            if (type.name().equalsIgnoreCase(name.trim())) {
+                return type;
+            }
+        }
+        Logger.warn(UrlType.class, "Unknown userproxy url type:" + name + ", using regex");
+        return REGEX;
+    }
+
+    private static void appendLiteral(final StringBuilder regex, final char c) {
+        if (META_CHARS.indexOf(c) >= 0) {
+            regex.append('\\');
+        }
+        regex.append(c);
+    }
+
+    private static boolean startsWith(final CharSequence uri, final String literal) {
+        for (int i = 0; i < literal.length(); i++) {
+            if (uri.charAt(i) != literal.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A matcher that evaluates a URL without a regex, reporting the equivalent regex as its pattern.
+     */
+    private abstract static class LiteralMatcher implements UrlMatcher {
+
+        private final String url;
+        private final Pattern pattern;
+
+        LiteralMatcher(final String url, final Pattern pattern) {
+            this.url = url;
+            this.pattern = pattern;
+        }
+
+        @Override
+        public String pattern() {
+            return pattern.pattern();
+        }
+
+        @Override
+        public String toString() {
+            return url;
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+package com.dotcms.userproxy.model;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import com.dotcms.userproxy.matcher.CombinedPatternMatcher;
+import com.dotcms.userproxy.matcher.DecisionCache;
+import com.dotcms.userproxy.matcher.EntryMatcher;
+import com.dotcms.userproxy.matcher.LinearEntryMatcher;
+import com.dotcms.userproxy.matcher.PrefixIndexMatcher;
+import com.dotcms.userproxy.util.CidrTrie;
+import com.dotcms.userproxy.util.IpNetworks;
+import com.dotmarketing.util.Config;
+
+/**
+ * Immutable, compiled user proxy configuration of a single host: the ordered list of {@link UserProxyEntry} entries
+ * plus the matcher built over them. The matching engine is chosen with the {@code USER_PROXY_MATCH_ENGINE} property:
+ * {@code index} (default), {@code automaton} or {@code linear}.
+ *
+ * <p>
+ * When {@code USER_PROXY_DECISION_CACHE_SIZE} is greater than zero, first-match decisions are also cached per method
+ * and URI in a {@link DecisionCache} that lives and dies with this config.
+ *
+ * <p>
+ * The {@link UserProxyEntry#getAllowedNetworks() allowed networks} of the entries are compiled into a {@link CidrTrie}
+ * (none if no entry is limited). With {@code USER_PROXY_NETWORKS_FROM_TOKEN}, an entry without networks of its own is
+ * limited to the networks its token allows, as last validated, so requests from other addresses skip it without using
+ * the token. The trie is then rebuilt by {@link #tokensRefreshed()} whenever tokens are validated again; it is the only
+ * part of a config that changes after it is built.
+ *
+ * <p>
+ * Configs loaded from App secrets carry the hash of the content they were built from, and identical ones are shared
+ * between hosts through the {@link UserProxyConfigPool}.
+ */
+public final class UserProxyConfig {
+
+    public static final UserProxyConfig EMPTY = new UserProxyConfig(List.of(), null);
+
+    private final List<UserProxyEntry> entries;
+    private final String sourceHostId;
+    private final EntryMatcher matcher;
+    private final DecisionCache decisionCache;
+    private final boolean networksFromToken;
+    private volatile CidrTrie networks;
+    private final String contentHash;
+    private final long estimatedBytes;
+
+    public UserProxyConfig(final List<UserProxyEntry> entries) {
+        this(entries, null);
+    }
+
+    public UserProxyConfig(final List<UserProxyEntry> entries, final String sourceHostId) {
+        this(entries, sourceHostId, null);
+    }
+
+    /**
+     * Compiles a configuration.
+     *
+     * @param entries      the entries, in match order
+     * @param sourceHostId the identifier of the host whose App secrets the entries were loaded from, or null if unknown
+     * @param contentHash  the hash of the App secrets the entries were built from, or null if unknown
+     */
+    public UserProxyConfig(final List<UserProxyEntry> entries, final String sourceHostId, final String contentHash) {
+        this.entries = List.copyOf(entries);
+        this.sourceHostId = sourceHostId;
+        this.contentHash = contentHash;
+        this.estimatedBytes = estimateBytes(this.entries);
+        this.matcher = buildMatcher(this.entries);
+        this.decisionCache = buildDecisionCache(this.entries);
+        this.networksFromToken = Config.getBooleanProperty("USER_PROXY_NETWORKS_FROM_TOKEN", false);
+        this.networks = buildNetworks(this.entries, networksFromToken);
+    }
+
+    /**
+     * Rebuilds the networks of the entries after their tokens were validated again, when entries are limited to the
+     * networks of their token.
+     */
+    public void tokensRefreshed() {
+        if (networksFromToken) {
+            networks = buildNetworks(entries, true);
+        }
+    }
+
+    static CidrTrie buildNetworks(final List<UserProxyEntry> entries, final boolean fromToken) {
+        CidrTrie.Builder builder = null;
+        for (int i = 0; i < entries.size(); i++) {
+            final UserProxyEntry entry = entries.get(i);
+            IpNetworks allowed = entry.getAllowedNetworks();
+            if (allowed.isAny() && fromToken
+                    && entry.getResolvedToken().getStatus() == ResolvedToken.Status.VALID) {
+                allowed = entry.getResolvedToken().getAllowedNetworks();
+            }
+            if (!allowed.isAny()) {
+                builder = builder != null ? builder : CidrTrie.builder(entries.size());
+                builder.add(i, allowed);
+            }
+        }
+        return builder != null ? builder.build() : null;
+    }
+
+    /**
+     * Roughly estimates the heap retained by a compiled config: a fixed cost per entry and per pattern, plus a cost
+     * per pattern character for the compiled regex nodes and the matcher structures built over them.
+     */
+    static long estimateBytes(final List<UserProxyEntry> entries) {
+        long bytes = 512;
+        for (final UserProxyEntry entry : entries) {
+            bytes += 512;
+            for (final Pattern url : entry.getUrls()) {
+                bytes += 128 + 48L * url.pattern().length();
+            }
+        }
+        return bytes;
+    }
+
+    static DecisionCache buildDecisionCache(final List<UserProxyEntry> entries) {
+        if (entries.isEmpty()) {
+            return null;
+        }
+        final int maxSize = Config.getIntProperty("USER_PROXY_DECISION_CACHE_SIZE", 0);
+        return maxSize > 0 ? new DecisionCache(maxSize) : null;
+    }
+
+    static EntryMatcher buildMatcher(final List<UserProxyEntry> entries) {
+        if (entries.isEmpty()) {
+            return new LinearEntryMatcher(entries);
+        }
+        final String engine = Config.getStringProperty("USER_PROXY_MATCH_ENGINE", "index");
+        if ("linear".equalsIgnoreCase(engine)) {
+            return new LinearEntryMatcher(entries);
+        }
+        if ("automaton".equalsIgnoreCase(engine)) {
+            return new CombinedPatternMatcher(entries);
+        }
+        return new PrefixIndexMatcher(entries);
+    }
+
+    /**
+     * Gets the identifier of the host whose App secrets this config was loaded from. For a host that falls back to
+     * the System Host configuration, this is the System Host.
+     *
+     * @return the source host identifier, or null if unknown
+     */
+    public String getSourceHostId() {
+        return sourceHostId;
+    }
+
+    /**
+     * Whether a change to the given host's App secrets can change this config. A config with an unknown source is
+     * considered to depend on every host.
+     *
+     * @param hostIdentifier the host whose secrets changed
+     * @return true if this config has to be reloaded
+     */
+    public boolean dependsOn(final String hostIdentifier) {
+        return sourceHostId == null || sourceHostId.equals(hostIdentifier);
+    }
+
+    /**
+     * Gets the hash of the App secrets this config was built from, see
+     * {@link UserProxyEntryMapper#contentHash(String, String, java.util.Map)}.
+     *
+     * @return the content hash, or null if the config was not loaded from App secrets
+     */
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    /**
+     * @return the estimated heap retained by this config, in bytes
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    public List<UserProxyEntry> getEntries() {
+        return entries;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * Returns the index of the first entry, starting at {@code fromIndex}, that matches the request.
+     *
+     * @param methodBit the {@link com.dotcms.userproxy.util.HttpMethods} bit of the request method
+     * @param uri       the request URI
+     * @param fromIndex the index of the first entry to consider
+     * @return the index of the matching entry, or -1 if no entry matches
+     */
+    public int indexOf(final int methodBit, final String uri, final int fromIndex) {
+        if (decisionCache == null || fromIndex != 0 || methodBit == 0 || uri == null) {
+            return matcher.indexOf(methodBit, uri, fromIndex);
+        }
+        final Integer cached = decisionCache.get(methodBit, uri);
+        if (cached != null) {
+            return cached;
+        }
+        final int index = matcher.indexOf(methodBit, uri, 0);
+        decisionCache.put(methodBit, uri, index);
+        return index;
+    }
+
+    /**
+     * Whether the client address is in the networks of the entry at the given index.
+     *
+     * @param index the entry index
+     * @param ip    the client IP address
+     * @return true if the entry applies to the address
+     */
+    public boolean allowsAddress(final int index, final String ip) {
+        return networks == null || networks.allows(index, ip);
+    }
+
+    /**
+     * Gets the decision cache of this config.
+     *
+     * @return the decision cache, or null if decision caching is turned off
+     */
+    public DecisionCache getDecisionCache() {
+        return decisionCache;
+    }
+
+    public UserProxyEntry get(final int index) {
+        return entries.get(index);
+    }
+
+    @Override
+    public String toString() {
+        return "UserProxyConfig{sourceHostId=" + sourceHostId + ", entries=" + entries + '}';
+    }
+
+}
@@ -0,0 +1,109 @@
+package com.dotcms.userproxy.model;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Interns compiled {@link UserProxyConfig}s by {@link UserProxyConfig#getContentHash() content hash}, so hosts whose
+ * configs were built from the same App secrets share one immutable instance instead of each compiling their own. Every
+ * host that falls back to the System Host configuration gets the same instance.
+ *
+ * <p>
+ * Configs are held weakly: one stays pooled for as long as a host serves it. Configs are compiled outside of any map
+ * lock; when two loads of the same content race, both compile and the first one to finish is kept.
+ */
+public final class UserProxyConfigPool {
+
+    private static final UserProxyConfigPool INSTANCE = new UserProxyConfigPool();
+
+    private final ConcurrentHashMap<String, PooledConfig> configs = new ConcurrentHashMap<>();
+    private final ReferenceQueue<UserProxyConfig> cleared = new ReferenceQueue<>();
+    private final LongAdder hits = new LongAdder();
+
+    UserProxyConfigPool() {
+    }
+
+    public static UserProxyConfigPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Gets the pooled config with the given content hash, or builds and pools it.
+     *
+     * @param contentHash the hash of everything the config is built from
+     * @param builder     builds the config if none is pooled
+     * @return the pooled config, or the built one if it is empty (empty configs are not pooled)
+     */
+    public UserProxyConfig intern(final String contentHash, final Supplier<UserProxyConfig> builder) {
+        purge();
+        final UserProxyConfig pooled = get(contentHash);
+        if (pooled != null) {
+            hits.increment();
+            return pooled;
+        }
+        final UserProxyConfig built = builder.get();
+        if (built.isEmpty()) {
+            return built;
+        }
+        final PooledConfig created = new PooledConfig(contentHash, built, cleared);
+        final UserProxyConfig[] result = { built };
+        configs.compute(contentHash, (key, current) -> {
+            final UserProxyConfig other = current != null ? current.get() : null;
+            if (other != null) {
+                result[0] = other;
+                return current;
+            }
+            return created;
+        });
+        return result[0];
+    }
+
+    private UserProxyConfig get(final String contentHash) {
+        final PooledConfig ref = configs.get(contentHash);
+        return ref != null ? ref.get() : null;
+    }
+
+    private void purge() {
+        for (Reference<? extends UserProxyConfig> ref = cleared.poll(); ref != null; ref = cleared.poll()) {
+            configs.remove(((PooledConfig) ref).contentHash, ref);
+        }
+    }
+
+    /**
+     * Forgets every pooled config, so the next loads compile again (for instance with changed properties).
+     */
+    public void clear() {
+        configs.clear();
+    }
+
+    /**
+     * @return the number of pooled configs, including ones no longer used that have not been collected yet
+     */
+    public int size() {
+        purge();
+        return configs.size();
+    }
+
+    /**
+     * @return the number of loads served from the pool instead of compiling
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    private static final class PooledConfig extends WeakReference<UserProxyConfig> {
+
+        final String contentHash;
+
+        PooledConfig(final String contentHash, final UserProxyConfig config,
+                final ReferenceQueue<UserProxyConfig> queue) {
+            super(config, queue);
+            this.contentHash = contentHash;
+        }
+    }
+
+}
@@ -7,45 +7,177 @@ import java.util.regex.Pattern;
 
 import javax.servlet.http.HttpServletRequest;
 
+import com.dotcms.userproxy.matcher.RegexComplexityAnalyzer;
+import com.dotcms.userproxy.util.HttpMethods;
+import com.dotcms.userproxy.util.IpNetworks;
 import com.dotmarketing.util.Logger;
 
 /**
- * Immutable entry representing a user proxy configuration.
+ * Entry representing a user proxy configuration, built with {@link #builder(String, String, String[])}.
  * Contains the user token, allowed HTTP methods, and URL patterns.
+ *
+ * <p>
+ * URLs are interpreted according to the entry's {@link UrlType}. They are always compiled as Java patterns (globs,
+ * prefixes and exact URLs as their regex equivalent), which matchers use to analyze them, and are evaluated with the
+ * entry's {@link RegexEngine}, or without a regex for types other than {@link UrlType#REGEX}. Patterns that fail to
+ * compile with either, or that a {@link RegexComplexityAnalyzer} finds too expensive, are left out and reported by
+ * {@link #getRejectedUrls()}. Every problem found, including the analyzer's warnings on patterns that are kept, is
+ * described by {@link #getUrlProblems()}.
+ *
+ * <p>
+ * An entry can be limited to client addresses in its {@link #getAllowedNetworks() allowed networks}, which the
+ * interceptor checks through the {@link com.dotcms.userproxy.util.CidrTrie} of the config before the token is used.
+ * Networks that cannot be parsed make the entry never match. Requests that match an entry can be limited by its
+ * {@link RateLimit}, and their responses shared between callers according to its {@link ResponseCachePolicy}.
+ *
+ * <p>
+ * An entry can also require {@link QueryCondition}s on the query string. They are checked separately, with
+ * {@link #matchesQuery(QueryParameters)}, once the method and path already match. A condition that cannot be compiled
+ * makes the entry never match, rather than match more requests than configured.
+ *
+ * <p>
+ * Everything but the token validation is fixed when the entry is built. The token is validated ahead of requests
+ * with {@link #refreshToken()}, which replaces the entry's {@link ResolvedToken}. An entry
+ * {@link Builder#restored(ResolvedToken) restored} from a persisted snapshot has no token, only the result of its last
+ * validation, and proxies no user until that result is confirmed or its config is loaded again from the App secrets.
  */
 public final class UserProxyEntry {
 
     private final char[] userToken;
     private final List<String> methods;
+    private final int methodMask;
+    private final UrlType urlType;
+    private final RegexEngine regexEngine;
     private final Pattern[] urls;
+    private final String[] urlSources;
+    private final UrlMatcher[] urlMatchers;
+    private final List<String> rejectedUrls;
+    private final List<String> urlProblems;
+    private final QueryCondition[] queryConditions;
+    private final boolean queryUnsatisfiable;
+    private final IpNetworks allowedNetworks;
+    private final RateLimit rateLimit;
+    private final ResponseCachePolicy responseCache;
+    private final boolean restored;
+    private volatile ResolvedToken resolvedToken;
 
     /**
-     * Constructs a UserProxyEntry with the given parameters.
+     * Constructs a UserProxyEntry with the given parameters, evaluating URL patterns with {@link RegexEngine#JAVA}.
      *
      * @param userToken the user authentication token as a char array
      * @param methods   array of allowed HTTP methods (e.g., "GET", "POST")
      * @param urls      array of URL patterns that this entry applies to
      */
     public UserProxyEntry(final String userToken, final String methods, final String[] urls) {
-        this.userToken = userToken != null ? userToken.toCharArray() : new char[0];
-        this.methods = methods != null ? Arrays.asList(methods.toLowerCase().split("\\s*,\\s*", -1)) : List.of();
-        this.urls = stringsToPatterns(urls);
+        this(builder(userToken, methods, urls));
     }
 
-    Pattern[] stringsToPatterns(String[] strings) {
-        if (strings == null) {
-            return new Pattern[0];
+    private UserProxyEntry(final Builder builder) {
+        this.userToken = builder.userToken != null ? builder.userToken.toCharArray() : new char[0];
+        this.methods = builder.methods != null
+                ? Arrays.asList(builder.methods.toLowerCase().split("\\s*,\\s*", -1))
+                : List.of();
+        this.methodMask = HttpMethods.maskOf(this.methods);
+        this.urlType = builder.urlType != null ? builder.urlType : UrlType.REGEX;
+        this.regexEngine = builder.regexEngine != null ? builder.regexEngine : RegexEngine.JAVA;
+
+        final List<Pattern> patterns = new ArrayList<>();
+        final List<String> sources = new ArrayList<>();
+        final List<UrlMatcher> matchers = new ArrayList<>();
+        final List<String> rejected = new ArrayList<>();
+        final List<String> problems = new ArrayList<>();
+        final RegexComplexityAnalyzer analyzer = builder.analyzer;
+        if (builder.urls != null) {
+            for (String regex : builder.urls) {
+                final Pattern pattern;
+                final UrlMatcher matcher;
+                try {
+                    pattern = Pattern.compile(this.urlType.toRegex(regex));
+                    matcher = this.urlType.compile(regex, pattern, this.regexEngine);
+                } catch (Exception e) {
+                    Logger.warn(this.getClass(), "Cannot compile url pattern for userproxy with the "
+                            + this.regexEngine + " engine:" + regex);
+                    rejected.add(regex);
+                    problems.add(regex + " cannot be compiled by the " + this.regexEngine.name().toLowerCase()
+                            + " regex engine and is ignored");
+                    continue;
+                }
+                if (analyzer != null && this.urlType == UrlType.REGEX && this.regexEngine == RegexEngine.JAVA) {
+                    final RegexComplexityAnalyzer.Result analysis = analyzer.analyze(pattern);
+                    for (String warning : analysis.getWarnings()) {
+                        problems.add(regex + " " + warning);
+                    }
+                    if (analysis.isRejected()) {
+                        Logger.warn(this.getClass(), "Rejecting url pattern for userproxy, it "
+                                + analysis.getRejection() + ":" + regex);
+                        rejected.add(regex);
+                        problems.add(regex + " " + analysis.getRejection() + " and is ignored");
+                        continue;
+                    }
+                }
+                matchers.add(matcher);
+                patterns.add(pattern);
+                sources.add(regex);
+            }
         }
-        List<Pattern> patterns = new ArrayList<>();
-        for (String regex : strings) {
+        this.urls = patterns.toArray(new Pattern[0]);
+        this.urlSources = sources.toArray(new String[0]);
+        this.urlMatchers = matchers.toArray(new UrlMatcher[0]);
+        this.rejectedUrls = List.copyOf(rejected);
+
+        final List<QueryCondition> conditions = new ArrayList<>();
+        boolean unsatisfiable = false;
+        for (QueryCondition condition : builder.queryConditions) {
             try {
-                patterns.add(Pattern.compile(regex));
+                final Pattern pattern = condition.pattern();
+                if (pattern != null && analyzer != null && this.regexEngine == RegexEngine.JAVA) {
+                    final RegexComplexityAnalyzer.Result analysis = analyzer.analyze(pattern);
+                    if (analysis.isRejected()) {
+                        throw new IllegalArgumentException(analysis.getRejection());
+                    }
+                }
+                conditions.add(condition.bind(pattern, this.regexEngine));
             } catch (Exception e) {
-                Logger.warn(this.getClass(), "Cannot compile url pattern for userproxy:" + regex);
+                Logger.warn(this.getClass(), "Invalid query condition for userproxy, disabling the entry:"
+                        + condition + ":" + e.getMessage());
+                problems.add("query condition " + condition + " is invalid (" + e.getMessage()
+                        + "), the entry is disabled");
+                unsatisfiable = true;
             }
         }
-        return patterns.toArray(new Pattern[0]);
+        this.queryConditions = conditions.toArray(new QueryCondition[0]);
+        this.queryUnsatisfiable = unsatisfiable;
 
+        IpNetworks networks;
+        try {
+            networks = IpNetworks.of(builder.allowedNetworks);
+        } catch (Exception e) {
+            Logger.warn(this.getClass(), "Invalid allowed networks for userproxy, disabling the entry:"
+                    + builder.allowedNetworks + ":" + e.getMessage());
+            problems.add("allowed networks " + builder.allowedNetworks + " are invalid (" + e.getMessage()
+                    + "), the entry is disabled");
+            networks = IpNetworks.NONE;
+        }
+        this.allowedNetworks = networks;
+        this.rateLimit = builder.rateLimit;
+        this.responseCache = builder.responseCache;
+        this.urlProblems = List.copyOf(problems);
+        this.restored = builder.restoredToken != null;
+        this.resolvedToken = restored ? builder.restoredToken : ResolvedToken.UNRESOLVED;
+    }
+
+    /**
+     * Starts building an entry. Everything not set on the builder keeps the defaults of
+     * {@link #UserProxyEntry(String, String, String[])}: regex URLs evaluated with {@link RegexEngine#JAVA}, no
+     * complexity check, no query conditions, network limit, rate limit or response cache.
+     *
+     * @param userToken the user authentication token
+     * @param methods   the allowed HTTP methods, comma separated (e.g., "GET, POST")
+     * @param urls      the URLs that this entry applies to
+     * @return the builder
+     */
+    public static Builder builder(final String userToken, final String methods, final String[] urls) {
+        return new Builder(userToken, methods, urls);
     }
 
     /**
@@ -57,6 +189,34 @@ public final class UserProxyEntry {
         return userToken.clone();
     }
 
+    /**
+     * Gets the result of the last validation of the token.
+     *
+     * @return the resolved token, {@link ResolvedToken#UNRESOLVED} if it was never validated
+     */
+    public ResolvedToken getResolvedToken() {
+        return resolvedToken;
+    }
+
+    /**
+     * Validates the token and loads its user again, replacing the current {@link ResolvedToken}. A validation that
+     * cannot reach the token API keeps the previous result. A {@link #isRestored() restored} entry, which has no
+     * token, is {@link ResolvedToken#confirm confirmed} from the identifier of its API token instead.
+     *
+     * @return the new resolved token
+     */
+    public ResolvedToken refreshToken() {
+        if (restored) {
+            resolvedToken = ResolvedToken.confirm(resolvedToken);
+            return resolvedToken;
+        }
+        final ResolvedToken refreshed = ResolvedToken.resolve(userToken);
+        if (refreshed.isResolved() || !resolvedToken.isResolved()) {
+            resolvedToken = refreshed;
+        }
+        return resolvedToken;
+    }
+
     /**
      * Gets a copy of the allowed methods.
      *
@@ -76,23 +236,183 @@ public final class UserProxyEntry {
     }
 
     /**
-     * Matches the given request against this entry's methods and URL patterns.
+     * Gets the URLs that were kept, as configured, in the order of {@link #getUrls()}.
+     *
+     * @return the URLs
+     */
+    public List<String> getUrlSources() {
+        return List.of(urlSources);
+    }
+
+    /**
+     * Whether this entry was restored from a persisted snapshot and has no token.
+     */
+    public boolean isRestored() {
+        return restored;
+    }
+
+    /**
+     * Whether a query condition or the allowed networks could not be parsed, so the entry never matches.
+     */
+    public boolean isDisabled() {
+        return queryUnsatisfiable || allowedNetworks == IpNetworks.NONE;
+    }
+
+    /**
+     * Gets how the URLs of this entry are interpreted.
+     *
+     * @return the URL type
+     */
+    public UrlType getUrlType() {
+        return urlType;
+    }
+
+    /**
+     * Gets the engine URL patterns are evaluated with.
+     *
+     * @return the regex engine
+     */
+    public RegexEngine getRegexEngine() {
+        return regexEngine;
+    }
+
+    /**
+     * Gets the configured URL patterns that could not be compiled and are ignored.
+     *
+     * @return the rejected URL patterns, empty if all compiled
+     */
+    public List<String> getRejectedUrls() {
+        return rejectedUrls;
+    }
+
+    /**
+     * Describes every problem found with this entry's URL patterns, query conditions and networks: patterns that were
+     * rejected, expensive structures found in patterns that were kept, invalid query conditions and networks.
+     *
+     * @return the problem descriptions, empty if none
+     */
+    public List<String> getUrlProblems() {
+        return urlProblems;
+    }
+
+    /**
+     * Gets the conditions the query string has to satisfy.
+     *
+     * @return the query conditions, empty if the query string is not checked
+     */
+    public List<QueryCondition> getQueryConditions() {
+        return List.of(queryConditions);
+    }
+
+    /**
+     * Whether this entry has to check the query string, which callers can use to avoid parsing it.
+     *
+     * @return true if {@link #matchesQuery(QueryParameters)} can return false
+     */
+    public boolean hasQueryConditions() {
+        return queryConditions.length > 0 || queryUnsatisfiable;
+    }
+
+    /**
+     * Whether the query string satisfies every query condition of this entry.
+     *
+     * @param query the parameters of the request
+     * @return true if all conditions hold
+     */
+    public boolean matchesQuery(final QueryParameters query) {
+        if (queryUnsatisfiable) {
+            return false;
+        }
+        for (QueryCondition condition : queryConditions) {
+            if (!condition.test(query)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the client networks this entry applies to.
+     *
+     * @return the networks, {@link IpNetworks#ANY} if the entry is not limited to any
+     */
+    public IpNetworks getAllowedNetworks() {
+        return allowedNetworks;
+    }
+
+    /**
+     * Gets the rate limits of the requests this entry proxies.
+     *
+     * @return the rate limits, {@link RateLimit#NONE} if the entry is not limited
+     */
+    public RateLimit getRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * Gets how the responses to the GET requests this entry proxies are cached.
+     *
+     * @return the cache policy, {@link ResponseCachePolicy#NONE} if they are not cached
+     */
+    public ResponseCachePolicy getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Gets the allowed methods as a mask of {@link HttpMethods} bits.
+     *
+     * @return the method mask
+     */
+    public int getMethodMask() {
+        return methodMask;
+    }
+
+    /**
+     * Matches the given request against this entry's methods, URL patterns, query conditions and networks.
      *
      * @param request the HttpServletRequest to match
-     * @return true if the request method and URL match this entry's configuration
+     * @return true if the request method, URL, query string and client address match this entry's configuration
      */
     public boolean matches(final HttpServletRequest request) {
-        String url = request.getRequestURI();
-        String method = request.getMethod().toLowerCase();
+        return matches(HttpMethods.bitOf(request.getMethod()), request.getRequestURI())
+                && (!hasQueryConditions() || matchesQuery(new QueryParameters(request.getQueryString())))
+                && allowedNetworks.contains(request.getRemoteAddr());
+    }
+
+    /**
+     * Matches an already classified request method and the request URI against this entry, without checking its
+     * query conditions.
+     *
+     * @param methodBit the {@link HttpMethods} bit of the request method
+     * @param uri       the request URI
+     * @return true if the method and URL match this entry's configuration
+     */
+    public boolean matches(final int methodBit, final String uri) {
+        return allowsMethod(methodBit) && matchesUrl(uri);
+    }
+
+    /**
+     * Whether this entry allows the given request method.
+     *
+     * @param methodBit the {@link HttpMethods} bit of the request method
+     * @return true if the method is allowed
+     */
+    public boolean allowsMethod(final int methodBit) {
+        return (methodMask & methodBit) != 0;
+    }
 
-        // Check if method matches (case-insensitive)
-        if (!methods.contains(method)) {
+    /**
+     * Whether any of this entry's URL patterns matches the URI.
+     *
+     * @param uri the request URI
+     * @return true if a URL pattern matches
+     */
+    public boolean matchesUrl(final String uri) {
+        if (uri == null) {
             return false;
         }
-
-        // Check if URL matches any pattern
-        for (Pattern p : urls) {
-            if (p.matcher(url).find()) {
+        for (UrlMatcher url : urlMatchers) {
+            if (url.find(uri)) {
                 return true;
             }
         }
@@ -107,7 +427,123 @@ public final class UserProxyEntry {
                 "userToken=" + (userToken != null ? "***" : "null") +
                 ", methods=" + methods.toString() +
                 ", urls=" + java.util.Arrays.toString(urls) +
+                (queryConditions.length > 0 ? ", query=" + java.util.Arrays.toString(queryConditions) : "") +
+                (!allowedNetworks.isAny() ? ", allowedNetworks=" + allowedNetworks : "") +
+                (rateLimit.isLimited() ? ", rateLimit=" + rateLimit : "") +
+                (responseCache.isEnabled() ? ", responseCache=" + responseCache : "") +
                 '}';
     }
 
+    /**
+     * Collects the settings of an entry and builds it.
+     */
+    public static final class Builder {
+
+        private final String userToken;
+        private final String methods;
+        private final String[] urls;
+        private UrlType urlType = UrlType.REGEX;
+        private List<QueryCondition> queryConditions = List.of();
+        private List<String> allowedNetworks = List.of();
+        private RateLimit rateLimit = RateLimit.NONE;
+        private ResponseCachePolicy responseCache = ResponseCachePolicy.NONE;
+        private RegexEngine regexEngine = RegexEngine.JAVA;
+        private RegexComplexityAnalyzer analyzer;
+        private ResolvedToken restoredToken;
+
+        private Builder(final String userToken, final String methods, final String[] urls) {
+            this.userToken = userToken;
+            this.methods = methods;
+            this.urls = urls;
+        }
+
+        /**
+         * @param urlType how the URLs are interpreted
+         * @return this builder
+         */
+        public Builder urlType(final UrlType urlType) {
+            this.urlType = urlType;
+            return this;
+        }
+
+        /**
+         * @param queryConditions the conditions the query string has to satisfy, all of them
+         * @return this builder
+         */
+        public Builder queryConditions(final List<QueryCondition> queryConditions) {
+            this.queryConditions = queryConditions != null ? queryConditions : List.of();
+            return this;
+        }
+
+        /**
+         * @param allowedNetworks the CIDR ranges or addresses of the clients the entry applies to, empty for all
+         * @return this builder
+         */
+        public Builder allowedNetworks(final List<String> allowedNetworks) {
+            this.allowedNetworks = allowedNetworks != null ? allowedNetworks : List.of();
+            return this;
+        }
+
+        /**
+         * @param rateLimit the rate limits of the entry, {@link RateLimit#NONE} for none
+         * @return this builder
+         */
+        public Builder rateLimit(final RateLimit rateLimit) {
+            this.rateLimit = rateLimit != null ? rateLimit : RateLimit.NONE;
+            return this;
+        }
+
+        /**
+         * @param responseCache how responses are cached, {@link ResponseCachePolicy#NONE} to not cache them
+         * @return this builder
+         */
+        public Builder responseCache(final ResponseCachePolicy responseCache) {
+            this.responseCache = responseCache != null ? responseCache : ResponseCachePolicy.NONE;
+            return this;
+        }
+
+        /**
+         * @param regexEngine the engine regex URLs and query conditions are evaluated with
+         * @return this builder
+         */
+        public Builder regexEngine(final RegexEngine regexEngine) {
+            this.regexEngine = regexEngine;
+            return this;
+        }
+
+        /**
+         * Checks the cost of every regex evaluated with {@link RegexEngine#JAVA}. Patterns evaluated with RE2 run in
+         * linear time and are not analyzed.
+         *
+         * @param analyzer the analyzer to check regexes with, or null to skip the check
+         * @return this builder
+         */
+        public Builder analyzer(final RegexComplexityAnalyzer analyzer) {
+            this.analyzer = analyzer;
+            return this;
+        }
+
+        /**
+         * Marks the entry as recreated from a persisted snapshot, whose URLs and query conditions were already checked
+         * when it was first built. Such an entry has no token: it proxies no user until the given result of its last
+         * validation is confirmed by {@link UserProxyEntry#refreshToken()}.
+         *
+         * @param resolvedToken the persisted result of the last validation of the token
+         * @return this builder
+         */
+        public Builder restored(final ResolvedToken resolvedToken) {
+            this.restoredToken = resolvedToken;
+            return this;
+        }
+
+        /**
+         * Compiles the URLs and query conditions and parses the networks.
+         *
+         * @return the entry
+         */
+        public UserProxyEntry build() {
+            return new UserProxyEntry(this);
+        }
+    }
+
 }
@@ -1,20 +1,29 @@
 package com.dotcms.userproxy.model;
 
 import com.dotcms.security.apps.AppSecrets;
+import com.dotcms.userproxy.matcher.RegexComplexityAnalyzer;
 import com.dotcms.userproxy.util.AppKey;
+import com.dotcms.userproxy.util.JsonReader;
 import com.dotmarketing.beans.Host;
 import com.dotmarketing.business.APILocator;
+import com.dotmarketing.exception.DotRuntimeException;
+import com.dotmarketing.util.Config;
 import com.dotmarketing.util.Logger;
 import com.dotmarketing.util.UtilMethods;
 import com.dotmarketing.util.VelocityUtil;
-import com.dotmarketing.util.json.JSONObject;
+import com.dotmarketing.util.json.JSONException;
 import io.vavr.control.Try;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
 import org.apache.velocity.context.Context;
 
 /**
@@ -27,27 +36,85 @@ public class UserProxyEntryMapper {
     private static final String USER_TOKEN_KEY = "userToken";
     private static final String METHODS_KEY = "methods";
     private static final String URLS_KEY = "urls";
+    private static final String URL_TYPE_KEY = "urlType";
+    private static final String QUERY_KEY = "query";
+    private static final String QUERY_NAME_KEY = "name";
+    private static final String QUERY_EQUALS_KEY = "equals";
+    private static final String QUERY_MATCHES_KEY = "matches";
+    private static final String ALLOWED_NETWORKS_KEY = "allowedNetworks";
+    private static final String RATE_LIMIT_KEY = "rateLimit";
+    private static final String RATE_LIMIT_PER_SECOND_KEY = "requestsPerSecond";
+    private static final String RATE_LIMIT_BURST_KEY = "burst";
+    private static final String RATE_LIMIT_PER_IP_PER_SECOND_KEY = "perIpRequestsPerSecond";
+    private static final String RATE_LIMIT_PER_IP_BURST_KEY = "perIpBurst";
+    private static final String RATE_LIMIT_ON_LIMIT_KEY = "onLimit";
+    private static final String RESPONSE_CACHE_KEY = "responseCache";
+    private static final String RESPONSE_CACHE_TTL_KEY = "ttlSeconds";
+    private static final String RESPONSE_CACHE_QUERY_KEY = "queryParameters";
+    private static final String REGEX_ENGINE_KEY = "regexEngine";
 
     UserProxyEntryMapper() {
     }
 
     /**
-     * Parses JSON string content into UserProxyEntry objects.
+     * Parses JSON string content into UserProxyEntry objects. URL patterns are evaluated with the engine named by the
+     * optional top level {@code regexEngine} key, see {@link RegexEngine}, unless an entry's {@code urlType} says
+     * they are not regexes, see {@link UrlType}. Entries may also list {@link QueryCondition}s under {@code query}
+     * and the client networks they apply to under {@code allowedNetworks}, and set a {@link RateLimit} under
+     * {@code rateLimit} and a {@link ResponseCachePolicy} under {@code responseCache}. Regexes are checked for cost
+     * with the shared {@link RegexComplexityAnalyzer}.
      *
      * @param jsonContent the JSON string content to parse
      * @return a list of UserProxyEntry objects
      */
-    @SuppressWarnings("unchecked")
     public static List<UserProxyEntry> parseJsonToEntries(final String jsonContent) {
+        return parseJsonToEntries(jsonContent, Map.of());
+    }
 
-        List<UserProxyEntry> entries = new ArrayList<>();
+    /**
+     * Same as {@link #parseJsonToEntries(String)}, replacing {@code {name}} placeholders in string values with the
+     * token secrets of the same name as the document is read, see {@link JsonReader}.
+     *
+     * @param jsonContent the JSON string content to parse
+     * @param tokens      the token secrets, by name
+     * @return a list of UserProxyEntry objects
+     */
+    public static List<UserProxyEntry> parseJsonToEntries(final String jsonContent, final Map<String, String> tokens) {
         try {
-            List<JSONObject> jsonArray = new JSONObject(jsonContent).getJSONArray(CONFIG_KEY);
-            for (JSONObject json : jsonArray) {
-                String userToken = json.getString(USER_TOKEN_KEY);
-                String methodString = json.getString(METHODS_KEY);
-                List<String> urls = json.getJSONArray(URLS_KEY);
-                entries.add(new UserProxyEntry(userToken, methodString, urls.toArray(new String[0])));
+            final JsonReader reader = new JsonReader(jsonContent, tokens);
+            String regexEngineName = null;
+            List<EntryFields> fields = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case CONFIG_KEY:
+                        fields = parseEntries(reader);
+                        break;
+                    case REGEX_ENGINE_KEY:
+                        regexEngineName = reader.nextString();
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (fields == null) {
+                throw notFound(CONFIG_KEY);
+            }
+
+            // the engine may be named after the entries, so they are only compiled once the document is read
+            final RegexEngine regexEngine = RegexEngine.of(regexEngineName);
+            final List<UserProxyEntry> entries = new ArrayList<>(fields.size());
+            for (EntryFields entry : fields) {
+                entries.add(UserProxyEntry.builder(entry.userToken, entry.methods, entry.urls.toArray(new String[0]))
+                        .urlType(UrlType.of(entry.urlType))
+                        .queryConditions(entry.query)
+                        .allowedNetworks(entry.allowedNetworks)
+                        .rateLimit(entry.rateLimit)
+                        .responseCache(entry.responseCache)
+                        .regexEngine(regexEngine)
+                        .analyzer(RegexComplexityAnalyzer.getInstance())
+                        .build());
             }
             return Collections.unmodifiableList(entries);
         } catch (Exception e) {
@@ -56,60 +123,356 @@ public class UserProxyEntryMapper {
         }
     }
 
-    public static List<UserProxyEntry> buildListForHost(String hostIdentifier) {
+    private static List<EntryFields> parseEntries(final JsonReader reader) throws JSONException {
+        final List<EntryFields> entries = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            final EntryFields entry = new EntryFields();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case USER_TOKEN_KEY:
+                        entry.userToken = reader.nextString();
+                        break;
+                    case METHODS_KEY:
+                        entry.methods = reader.nextString();
+                        break;
+                    case URLS_KEY:
+                        entry.urls = parseStrings(reader);
+                        break;
+                    case URL_TYPE_KEY:
+                        entry.urlType = reader.nextString();
+                        break;
+                    case QUERY_KEY:
+                        entry.query = parseQueryConditions(reader);
+                        break;
+                    case ALLOWED_NETWORKS_KEY:
+                        final List<String> allowedNetworks = parseStrings(reader);
+                        entry.allowedNetworks = allowedNetworks != null ? allowedNetworks : List.of();
+                        break;
+                    case RATE_LIMIT_KEY:
+                        entry.rateLimit = parseRateLimit(reader);
+                        break;
+                    case RESPONSE_CACHE_KEY:
+                        entry.responseCache = parseResponseCache(reader);
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (entry.userToken == null) {
+                throw notFound(USER_TOKEN_KEY);
+            }
+            if (entry.methods == null) {
+                throw notFound(METHODS_KEY);
+            }
+            if (entry.urls == null) {
+                throw notFound(URLS_KEY);
+            }
+            entries.add(entry);
+        }
+        reader.endArray();
+        return entries;
+    }
+
+    /**
+     * Parses an array of strings.
+     *
+     * @return the strings, or null if the value is not an array
+     */
+    private static List<String> parseStrings(final JsonReader reader) throws JSONException {
+        if (reader.peek() != JsonReader.Kind.ARRAY) {
+            reader.skipValue();
+            return null;
+        }
+        final List<String> values = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            values.add(reader.nextString());
+        }
+        reader.endArray();
+        return values;
+    }
+
+    /**
+     * Parses the optional {@code query} array of an entry. Each condition names a parameter and may give the value it
+     * {@code equals} or a regex its value {@code matches}; with neither, the parameter only has to be present.
+     */
+    private static List<QueryCondition> parseQueryConditions(final JsonReader reader) throws JSONException {
+        if (reader.peek() != JsonReader.Kind.ARRAY) {
+            reader.skipValue();
+            return List.of();
+        }
+        List<QueryCondition> conditions = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String name = null;
+            String equals = null;
+            String matches = null;
+            boolean hasEquals = false;
+            boolean hasMatches = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case QUERY_NAME_KEY:
+                        name = reader.nextString();
+                        break;
+                    case QUERY_EQUALS_KEY:
+                        equals = reader.nextString();
+                        hasEquals = true;
+                        break;
+                    case QUERY_MATCHES_KEY:
+                        matches = reader.nextString();
+                        hasMatches = true;
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (name == null) {
+                throw notFound(QUERY_NAME_KEY);
+            }
+            if (hasEquals) {
+                conditions.add(QueryCondition.equalTo(name, required(equals, QUERY_EQUALS_KEY)));
+            } else if (hasMatches) {
+                conditions.add(QueryCondition.matching(name, required(matches, QUERY_MATCHES_KEY)));
+            } else {
+                conditions.add(QueryCondition.present(name));
+            }
+        }
+        reader.endArray();
+        return conditions;
+    }
+
+    /**
+     * Parses the optional {@code rateLimit} object of an entry: the {@code requestsPerSecond} and {@code burst} of all
+     * its requests, the {@code perIpRequestsPerSecond} and {@code perIpBurst} of each client IP, and whether requests
+     * over a limit continue as {@code anonymous} (the default) or are rejected ({@code "onLimit": "reject"}).
+     */
+    private static RateLimit parseRateLimit(final JsonReader reader) throws JSONException {
+        if (reader.peek() != JsonReader.Kind.OBJECT) {
+            reader.skipValue();
+            return RateLimit.NONE;
+        }
+        double perSecond = 0;
+        int burst = 0;
+        double perIpPerSecond = 0;
+        int perIpBurst = 0;
+        boolean reject = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case RATE_LIMIT_PER_SECOND_KEY:
+                    perSecond = toDouble(reader.nextString(), 0);
+                    break;
+                case RATE_LIMIT_BURST_KEY:
+                    burst = (int) toDouble(reader.nextString(), 0);
+                    break;
+                case RATE_LIMIT_PER_IP_PER_SECOND_KEY:
+                    perIpPerSecond = toDouble(reader.nextString(), 0);
+                    break;
+                case RATE_LIMIT_PER_IP_BURST_KEY:
+                    perIpBurst = (int) toDouble(reader.nextString(), 0);
+                    break;
+                case RATE_LIMIT_ON_LIMIT_KEY:
+                    reject = "reject".equalsIgnoreCase(reader.nextString());
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new RateLimit(perSecond, burst, perIpPerSecond, perIpBurst, reject);
+    }
+
+    /**
+     * Parses the optional {@code responseCache} object of an entry: how many {@code ttlSeconds} responses are kept,
+     * and the {@code queryParameters} they depend on.
+     */
+    private static ResponseCachePolicy parseResponseCache(final JsonReader reader) throws JSONException {
+        if (reader.peek() != JsonReader.Kind.OBJECT) {
+            reader.skipValue();
+            return ResponseCachePolicy.NONE;
+        }
+        long ttlSeconds = 0;
+        List<String> queryParameters = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case RESPONSE_CACHE_TTL_KEY:
+                    ttlSeconds = (long) toDouble(reader.nextString(), 0);
+                    break;
+                case RESPONSE_CACHE_QUERY_KEY:
+                    queryParameters = parseStrings(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new ResponseCachePolicy(TimeUnit.SECONDS.toMillis(ttlSeconds),
+                queryParameters != null ? queryParameters : List.of());
+    }
+
+    private static double toDouble(final String value, final double defaultValue) {
+        try {
+            return value != null ? Double.parseDouble(value.trim()) : defaultValue;
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static String required(final String value, final String key) throws JSONException {
+        if (value == null) {
+            throw notFound(key);
+        }
+        return value;
+    }
+
+    private static JSONException notFound(final String key) {
+        return new JSONException("JSONObject[\"" + key + "\"] not found.");
+    }
+
+    /**
+     * The fields of an entry, kept until the whole document is read.
+     */
+    private static final class EntryFields {
+
+        String userToken;
+        String methods;
+        List<String> urls;
+        String urlType;
+        List<QueryCondition> query = List.of();
+        List<String> allowedNetworks = List.of();
+        RateLimit rateLimit = RateLimit.NONE;
+        ResponseCachePolicy responseCache = ResponseCachePolicy.NONE;
+    }
+
+    /**
+     * Builds the compiled configuration for a host, falling back to the System Host configuration when the host has
+     * none of its own.
+     *
+     * @param hostIdentifier the host identifier
+     * @return the compiled configuration, empty if neither the host nor the System Host is configured or if the
+     *         configuration could not be loaded
+     */
+    public static UserProxyConfig buildConfigForHost(String hostIdentifier) {
+        try {
+            return loadConfigForHost(hostIdentifier);
+        } catch (Exception e) {
+            Logger.warnAndDebug(UserProxyEntryMapper.class, "error building user proxy map:" + e.getMessage(), e);
+        }
+        return UserProxyConfig.EMPTY;
+    }
+
+    /**
+     * Same as {@link #buildConfigForHost(String)}, but fails instead of returning an empty configuration when the host
+     * or its App secrets cannot be read, so callers can tell a failed load from a host that is not configured.
+     *
+     * @param hostIdentifier the host identifier
+     * @return the compiled configuration, empty if neither the host nor the System Host is configured
+     * @throws DotRuntimeException if the host or its App secrets could not be loaded
+     */
+    public static UserProxyConfig loadConfigForHost(String hostIdentifier) {
         try {
             Host host = APILocator.getHostAPI().find(hostIdentifier, APILocator.getUserAPI().getSystemUser(), false);
 
-            List<UserProxyEntry> entries = mapUserProxyEntry(host);
-            if (!entries.isEmpty()) {
-                return entries;
+            UserProxyConfig config = configFor(host);
+            if (config != null) {
+                return config;
             }
 
-            return mapUserProxyEntry(APILocator.systemHost());
+            Host systemHost = APILocator.systemHost();
+            config = configFor(systemHost);
+            return config != null ? config : new UserProxyConfig(List.of(), systemHost.getIdentifier());
 
+        } catch (DotRuntimeException e) {
+            throw e;
         } catch (Exception e) {
-            Logger.warnAndDebug(UserProxyEntryMapper.class, "error building user proxy map:" + e.getMessage(), e);
+            throw new DotRuntimeException("unable to load user proxy config for " + hostIdentifier, e);
         }
-        return List.of();
     }
 
-    static List<UserProxyEntry> mapUserProxyEntry(Host host) {
+    public static List<UserProxyEntry> buildListForHost(String hostIdentifier) {
+        return buildConfigForHost(hostIdentifier).getEntries();
+    }
+
+    /**
+     * Gets the compiled config of a host's own App secrets, from the {@link UserProxyConfigPool} if the same secrets
+     * were already compiled.
+     *
+     * @return the config, or null if the host has no configuration or none of its entries could be parsed
+     */
+    static UserProxyConfig configFor(Host host) {
         Optional<AppSecrets> secrets = Try
                 .of(() -> APILocator.getAppsAPI().getSecrets(AppKey.USER_PROXY_APP_VALUE.appValue,
                         host, APILocator.systemUser()))
                 .get();
         if (secrets.isEmpty()) {
-            return List.of();
+            return null;
         }
 
-        Optional<String> parsedConfig = secretsToJson(secrets.get());
-        if (parsedConfig.isEmpty()) {
-            return List.of();
+        String json = secrets.get().getSecrets().get(AppKey.APP_CONFIG_KEY.appValue).getString();
+        if (UtilMethods.isEmpty(json)) {
+            return null;
         }
-        return parseJsonToEntries(parsedConfig.get());
-
+        Map<String, String> tokens = tokensOf(secrets.get());
+        String contentHash = contentHash(host.getIdentifier(), json, tokens);
+        UserProxyConfig config = UserProxyConfigPool.getInstance().intern(contentHash, () -> {
+            List<UserProxyEntry> entries = parseJsonToEntries(json, tokens);
+            if (Config.getIntProperty("USER_PROXY_TOKEN_REFRESH_SECONDS", 60) > 0) {
+                entries.forEach(UserProxyEntry::refreshToken);
+            }
+            return new UserProxyConfig(entries, host.getIdentifier(), contentHash);
+        });
+        return config.isEmpty() ? null : config;
     }
 
-    private static Optional<String> secretsToJson(AppSecrets secrets) {
-        String config = secrets.getSecrets().get(AppKey.APP_CONFIG_KEY.appValue).getString();
-        if (UtilMethods.isEmpty(config)) {
-            return Optional.empty();
+    /**
+     * Hashes everything a config is built from: the host it is loaded from, its JSON and its token secrets. Equal
+     * hashes mean the configs compile to the same rules; the hash does not reveal the tokens.
+     *
+     * @param sourceHostId the host whose App secrets hold the config
+     * @param json         the config JSON
+     * @param tokens       the token secrets, by name
+     * @return the hex encoded SHA-256 hash
+     */
+    public static String contentHash(String sourceHostId, String json, Map<String, String> tokens) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(String.valueOf(sourceHostId).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(json.getBytes(StandardCharsets.UTF_8));
+            for (Map.Entry<String, String> token : new TreeMap<>(tokens).entrySet()) {
+                digest.update((byte) 0);
+                digest.update(token.getKey().getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '=');
+                digest.update(token.getValue().getBytes(StandardCharsets.UTF_8));
+            }
+            StringBuilder hex = new StringBuilder(64);
+            for (byte b : digest.digest()) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
+    }
+
+    /**
+     * Collects the {@code token*} secrets of the App, which replace the {@code {tokenN}} placeholders of the config
+     * when it is parsed.
+     *
+     * @param secrets the App secrets of a host
+     * @return the token secrets, by name
+     */
+    public static Map<String, String> tokensOf(AppSecrets secrets) {
         Map<String, String> tokens = new HashMap<>();
         secrets.getSecrets().entrySet().stream().filter(entry -> entry.getKey().startsWith("token"))
-                .forEach(entry -> {
-                    Object value = entry.getValue();
-
-                    tokens.put(entry.getKey(), new String(entry.getValue().getValue()));
-                });
-        for (Map.Entry<String, String> token : tokens.entrySet()) {
-            config = config.replace("{" + token.getKey() + "}", token.getValue());
-        }
-
-        return Optional.of(config);
-
-
+                .forEach(entry -> tokens.put(entry.getKey(), new String(entry.getValue().getValue())));
+        return tokens;
     }
 
-
 }
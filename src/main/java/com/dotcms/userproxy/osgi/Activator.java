@@ -1,12 +1,16 @@
 package com.dotcms.userproxy.osgi;
 
 import com.dotcms.filters.interceptor.FilterWebInterceptorProvider;
-import com.dotcms.filters.interceptor.WebInterceptor;
 import com.dotcms.filters.interceptor.WebInterceptorDelegate;
+import com.dotcms.rest.config.RestServiceUtil;
 import com.dotcms.security.apps.AppSecretSavedEvent;
 import com.dotcms.system.event.local.business.LocalSystemEventsAPI;
+import com.dotcms.userproxy.interceptor.ConfigWarmup;
+import com.dotcms.userproxy.interceptor.InterceptorFilters;
 import com.dotcms.userproxy.interceptor.UserProxyInterceptor;
 import com.dotcms.userproxy.listener.UserProxyAppListener;
+import com.dotcms.userproxy.metrics.UserProxyMetrics;
+import com.dotcms.userproxy.rest.UserProxyMetricsResource;
 import com.dotmarketing.business.APILocator;
 import com.dotmarketing.filters.InterceptorFilter;
 import com.dotmarketing.osgi.GenericBundleActivator;
@@ -14,6 +18,7 @@ import com.dotmarketing.util.Config;
 import com.dotmarketing.util.Logger;
 
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 
 import org.osgi.framework.BundleContext;
 
@@ -22,15 +27,26 @@ public class Activator extends GenericBundleActivator {
     final WebInterceptorDelegate delegate = FilterWebInterceptorProvider.getInstance(Config.CONTEXT).getDelegate(
             InterceptorFilter.class);
 
-    final WebInterceptor interceptor = new UserProxyInterceptor();
+    final UserProxyInterceptor interceptor = new UserProxyInterceptor();
     final LocalSystemEventsAPI localSystemEventsAPI = APILocator.getLocalSystemEventsAPI();
-    private final UserProxyAppListener appListener = new UserProxyAppListener();
+    private final InterceptorFilters interceptorFilters = new InterceptorFilters(delegate, interceptor);
+    private final UserProxyAppListener appListener = InterceptorFilters.isNarrow()
+            ? new UserProxyAppListener(interceptorFilters::refreshAsync)
+            : new UserProxyAppListener();
 
     public void start(final org.osgi.framework.BundleContext context) throws IOException {
 
         Logger.info(Activator.class.getName(), "Starting UserProxy Plugin");
 
+        // serve the configs persisted by the last run until they are reloaded
+        UserProxyInterceptor.restoreSnapshot();
+
         delegate.addFirst(interceptor);
+        CompletableFuture.runAsync(UserProxyInterceptor::refreshConfiguredHosts);
+        if (InterceptorFilters.isNarrow()) {
+            Logger.info(Activator.class.getName(), "Narrowing UserProxy interceptor filters in the background");
+            interceptorFilters.refreshAsync();
+        }
 
         // Adding APP yaml
         Logger.info(Activator.class.getName(), "Copying UserProxy APP");
@@ -40,6 +56,16 @@ public class Activator extends GenericBundleActivator {
         // set up app listener
         Logger.info(Activator.class.getName(), "Starting App Listener");
         localSystemEventsAPI.subscribe(AppSecretSavedEvent.class, appListener);
+
+        // expose metrics
+        Logger.info(Activator.class.getName(), "Registering UserProxy metrics");
+        UserProxyMetrics.registerMBean();
+        RestServiceUtil.addResource(UserProxyMetricsResource.class);
+
+        if (ConfigWarmup.isEnabled()) {
+            Logger.info(Activator.class.getName(), "Warming up UserProxy configs in the background");
+            new ConfigWarmup().startAsync();
+        }
     }
 
     @Override
@@ -48,11 +74,16 @@ public class Activator extends GenericBundleActivator {
         Logger.info(Activator.class.getName(), "Stopping UserProxy Plugin");
 
         Logger.info(Activator.class.getName(), "Stopping Interceptor");
-        delegate.remove(interceptor.getName(), true);
+        interceptorFilters.shutdown();
+        delegate.remove(interceptorFilters.getRegisteredName(), true);
+        UserProxyInterceptor.persistSnapshot();
 
-        Logger.info(Activator.class.getName(), "Removing UserProxy App");
-        new FileMoverUtil().deleteYml();
+        // the App yaml is left in place, so the next start finds it unchanged and leaves the apps cache alone
         localSystemEventsAPI.unsubscribe(appListener);
+
+        Logger.info(Activator.class.getName(), "Unregistering UserProxy metrics");
+        RestServiceUtil.removeResource(UserProxyMetricsResource.class);
+        UserProxyMetrics.unregisterMBean();
     }
 
 }
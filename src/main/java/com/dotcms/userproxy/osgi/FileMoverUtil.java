@@ -18,7 +18,12 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.jar.JarEntry;
@@ -97,7 +102,10 @@ public class FileMoverUtil {
     /**
      * Moves files from the plugin jar to the dotCMS virtual file system as
      * fileAssets. If you do not specify a host,
-     * they will be placed on the default host
+     * they will be placed on the default host. The jar is scanned once. Files
+     * whose asset already has the same content, by hash, and is live are
+     * skipped; the others are checked in one by one, on the calling thread,
+     * and each is published right after its check in.
      *
      * @param packagePathInJar - the directory path in the jar to copy
      * @param site             - the site to copy to
@@ -106,10 +114,10 @@ public class FileMoverUtil {
 
         String strippedPackagePath = stripPackagePath(packagePathInJar);
 
-        List<JarEntry> directoryList = listFilesInPackage(strippedPackagePath).stream().filter(e -> e.isDirectory())
-                .collect(Collectors.toList());
-        List<JarEntry> fileList = listFilesInPackage(strippedPackagePath).stream().filter(e -> !e.isDirectory())
-                .collect(Collectors.toList());
+        Map<Boolean, List<JarEntry>> entries = listFilesInPackage(strippedPackagePath).stream()
+                .collect(Collectors.partitioningBy(JarEntry::isDirectory));
+        List<JarEntry> directoryList = entries.get(true);
+        List<JarEntry> fileList = entries.get(false);
 
         try {
             // create folders first
@@ -124,84 +132,177 @@ public class FileMoverUtil {
                 }
             }
 
-            for (JarEntry e : fileList) {
+            if (fileList.isEmpty()) {
+                return;
+            }
+            String contentTypeId = APILocator.getContentTypeAPI(APILocator.systemUser())
+                    .find(FileAssetAPI.DEFAULT_FILE_ASSET_STRUCTURE_VELOCITY_VAR_NAME).id();
+            long languageId = APILocator.getLanguageAPI().getDefaultLanguage().getId();
+            Map<String, Folder> folders = new HashMap<>();
 
-                String fileName = e.getName().substring(e.getName().lastIndexOf("/") + 1);
-                String folderPath = "/" + e.getName().substring(0, e.getName().lastIndexOf("/"));
-                String fullPath = folderPath + "/" + fileName;
-                Folder destFolder = APILocator.getFolderAPI()
-                        .findFolderByPath(folderPath, site, APILocator.systemUser(), false);
-                Identifier id = APILocator.getIdentifierAPI().find(site, fullPath);
-                if (UtilMethods.isSet(() -> id.getId())) {
-                    Logger.warn(this.getClass(), "File already exists: " + folderPath + fileName);
+            // checked in one by one on this thread, in the caller's DB connection and transaction
+            for (JarEntry e : fileList) {
+                byte[] content = readEntry(e);
+                if (content == null) {
                     continue;
                 }
-
-                System.out.println("Writing File:" + fullPath);
-
-                Logger.info(this.getClass(), "Creating file: " + fullPath);
-                // Create tmp file
-                File tmpDir = Files.createTempFile("osgi-app", "").toFile();
-                tmpDir.delete();
-                tmpDir.mkdirs();
-                File tmpFile = new File(tmpDir, fileName);
-
-                // write content to tmp file
-                try (final InputStream in = this.getClass().getResourceAsStream("/" + e.getName())) {
-                    IOUtils.copy(in, Files.newOutputStream(tmpFile.toPath()));
-                } catch (IOException ioe) {
-                    Logger.error(this.getClass(), "Error moving file: " + e.getName(), ioe);
-                    continue;
+                Identifier id = APILocator.getIdentifierAPI().find(site, "/" + e.getName());
+                Contentlet existing = UtilMethods.isSet(() -> id.getId())
+                        ? APILocator.getContentletAPI().findContentletByIdentifierAnyLanguage(id.getId())
+                        : null;
+                Contentlet dotfile;
+                if (existing != null && hasContent(existing, content)) {
+                    if (existing.isLive()) {
+                        Logger.info(this.getClass(), "File is up to date: /" + e.getName());
+                        continue;
+                    }
+                    // checked in by an earlier start that failed before publishing it
+                    dotfile = existing;
+                } else {
+                    String folderPath = "/" + e.getName().substring(0, e.getName().lastIndexOf("/"));
+                    if (!folders.containsKey(folderPath)) {
+                        folders.put(folderPath, APILocator.getFolderAPI()
+                                .findFolderByPath(folderPath, site, APILocator.systemUser(), false));
+                    }
+                    dotfile = checkinFile(e, content, existing, folders.get(folderPath), site, contentTypeId,
+                            languageId);
                 }
+                // published right after its check in, so a failure leaves no other asset checked in but unpublished
+                APILocator.getContentletAPI().publish(dotfile, APILocator.systemUser(), false);
+            }
+        } catch (Exception e) {
+            throw new DotRuntimeException("Error moving files from jar to file assets:" + e.getMessage(), e);
+        }
 
-                //
+    }
 
-                Contentlet fileAsset = new Contentlet();
-                fileAsset.setFolder(destFolder.getIdentifier());
-                fileAsset.setHost(site.getIdentifier());
-                fileAsset.setStringProperty(FileAssetAPI.FILE_NAME_FIELD, fileName);
-                fileAsset.setBinary(FileAssetAPI.BINARY_FIELD, tmpFile);
-                fileAsset.setStringProperty(FileAssetAPI.TITLE_FIELD, fileName);
-                fileAsset.setContentTypeId(APILocator.getContentTypeAPI(APILocator.systemUser())
-                        .find(FileAssetAPI.DEFAULT_FILE_ASSET_STRUCTURE_VELOCITY_VAR_NAME).id());
+    /**
+     * Reads a file of the plugin jar.
+     *
+     * @return the content, or null if the file cannot be read
+     */
+    private byte[] readEntry(JarEntry e) {
+        try (final InputStream in = this.getClass().getResourceAsStream("/" + e.getName())) {
+            return IOUtils.toByteArray(in);
+        } catch (IOException ioe) {
+            Logger.error(this.getClass(), "Error moving file: " + e.getName(), ioe);
+            return null;
+        }
+    }
 
-                fileAsset.setProperty(Contentlet.DISABLE_WORKFLOW, true);
+    /**
+     * Whether a file asset already holds the given content, compared by hash.
+     */
+    private static boolean hasContent(Contentlet fileAsset, byte[] content) throws IOException {
+        File binary = fileAsset.getBinary(FileAssetAPI.BINARY_FIELD);
+        return binary != null && binary.isFile()
+                && contentHash(content).equals(contentHash(Files.readAllBytes(binary.toPath())));
+    }
 
-                fileAsset.setLanguageId(APILocator.getLanguageAPI().getDefaultLanguage().getId());
+    /**
+     * Checks a file of the plugin jar in as a file asset, or as a new version of the existing one, without publishing
+     * it.
+     *
+     * @param previous the existing file asset at the same path, or null if there is none
+     * @return the checked in file asset
+     */
+    private Contentlet checkinFile(JarEntry e, byte[] content, Contentlet previous, Folder destFolder, Host site,
+            String contentTypeId, long languageId) {
 
-                Contentlet dotfile = APILocator.getContentletAPI().checkin(fileAsset, APILocator.systemUser(), false);
-                dotfile.setProperty(Contentlet.DISABLE_WORKFLOW, true);
+        String fileName = e.getName().substring(e.getName().lastIndexOf("/") + 1);
+        Logger.info(this.getClass(), (previous != null ? "Updating file: /" : "Creating file: /") + e.getName());
 
-                APILocator.getContentletAPI().publish(dotfile, APILocator.systemUser(), false);
-                Assert.verify(dotfile != null && dotfile.getIdentifier() != null,
-                        "Unable to create file asset: " + fileName);
+        File tmpDir = null;
+        File tmpFile = null;
+        try {
+            // write content to tmp file
+            tmpDir = Files.createTempDirectory("osgi-app").toFile();
+            tmpFile = new File(tmpDir, fileName);
+            Files.write(tmpFile.toPath(), content);
+
+            Contentlet fileAsset = previous != null
+                    ? APILocator.getContentletAPI().checkout(previous.getInode(), APILocator.systemUser(), false)
+                    : new Contentlet();
+            fileAsset.setFolder(destFolder.getIdentifier());
+            fileAsset.setHost(site.getIdentifier());
+            fileAsset.setStringProperty(FileAssetAPI.FILE_NAME_FIELD, fileName);
+            fileAsset.setBinary(FileAssetAPI.BINARY_FIELD, tmpFile);
+            fileAsset.setStringProperty(FileAssetAPI.TITLE_FIELD, fileName);
+            fileAsset.setContentTypeId(contentTypeId);
+            fileAsset.setProperty(Contentlet.DISABLE_WORKFLOW, true);
+            fileAsset.setLanguageId(languageId);
+
+            Contentlet dotfile = APILocator.getContentletAPI().checkin(fileAsset, APILocator.systemUser(), false);
+            Assert.verify(dotfile != null && dotfile.getIdentifier() != null,
+                    "Unable to create file asset: " + fileName);
+            dotfile.setProperty(Contentlet.DISABLE_WORKFLOW, true);
+            return dotfile;
+        } catch (Exception ex) {
+            throw new DotRuntimeException("Error creating file asset " + e.getName() + ":" + ex.getMessage(), ex);
+        } finally {
+            if (tmpFile != null) {
                 tmpFile.delete();
+            }
+            if (tmpDir != null) {
                 tmpDir.delete();
-
             }
-            ;
-        } catch (Exception e) {
-            throw new DotRuntimeException("Error moving files from jar to file assets:" + e.getMessage(), e);
         }
-
     }
 
     /**
-     * copies the App yaml to the apps directory and refreshes the apps
+     * copies the App yaml to the apps directory and refreshes the apps, unless
+     * the installed yaml already has the same content
      *
      * @throws IOException
      */
     public void copyAppYml() throws IOException {
 
-        Logger.info(this.getClass().getName(), "copying YAML File:" + installedAppYaml);
+        final byte[] bundled;
         try (final InputStream in = this.getClass()
                 .getResourceAsStream("/" + AppKey.USER_PROXY_APP_VALUE.appValue + ".yml")) {
-            IOUtils.copy(in, Files.newOutputStream(installedAppYaml.toPath()));
+            bundled = IOUtils.toByteArray(in);
+        }
+        final String bundledHash = contentHash(bundled);
+        if (installedAppYaml.isFile()
+                && bundledHash.equals(contentHash(Files.readAllBytes(installedAppYaml.toPath())))) {
+            Logger.info(this.getClass().getName(), "YAML File is up to date:" + installedAppYaml);
+            return;
+        }
+
+        Logger.info(this.getClass().getName(), "copying YAML File:" + installedAppYaml);
+        // written next to the installed file and moved in place, so other nodes never read it half written
+        final Path target = installedAppYaml.toPath();
+        Files.createDirectories(target.getParent());
+        final Path tmp = Files.createTempFile(target.getParent(), installedAppYaml.getName(), ".tmp");
+        try {
+            Files.write(tmp, bundled);
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
         }
         CacheLocator.getAppsCache().clearCache();
 
     }
 
+    /**
+     * @return the SHA-256 of the content, in hex
+     */
+    static String contentHash(final byte[] content) {
+        try {
+            final StringBuilder hex = new StringBuilder(64);
+            for (final byte b : MessageDigest.getInstance("SHA-256").digest(content)) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new DotRuntimeException(e);
+        }
+    }
+
     /**
      * Deletes the App yaml to the apps directory and refreshes the apps
      *
@@ -211,8 +312,9 @@ public class FileMoverUtil {
 
         Logger.info(this.getClass().getName(), "deleting the YAML File:" + installedAppYaml);
 
-        installedAppYaml.delete();
-        CacheLocator.getAppsCache().clearCache();
+        if (Files.deleteIfExists(installedAppYaml.toPath())) {
+            CacheLocator.getAppsCache().clearCache();
+        }
 
     }
 
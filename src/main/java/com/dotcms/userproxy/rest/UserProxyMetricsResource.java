@@ -0,0 +1,46 @@
+package com.dotcms.userproxy.rest;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.glassfish.jersey.server.JSONP;
+
+import com.dotcms.rest.ResponseEntityView;
+import com.dotcms.rest.WebResource;
+import com.dotcms.rest.annotation.NoCache;
+import com.dotcms.userproxy.metrics.UserProxyMetrics;
+
+/**
+ * Read-only REST view of {@link UserProxyMetrics}, available to admin backend users at
+ * {@code GET /api/v1/userproxy/metrics}.
+ */
+@Path("/v1/userproxy")
+public class UserProxyMetricsResource {
+
+    private final WebResource webResource = new WebResource();
+
+    @GET
+    @Path("/metrics")
+    @JSONP
+    @NoCache
+    @Produces(MediaType.APPLICATION_JSON)
+    public final Response getMetrics(@Context final HttpServletRequest request,
+            @Context final HttpServletResponse response) {
+
+        new WebResource.InitBuilder(webResource)
+                .requestAndResponse(request, response)
+                .requiredBackendUser(true)
+                .requireAdmin(true)
+                .rejectWhenNoUser(true)
+                .init();
+
+        return Response.ok(new ResponseEntityView<>(UserProxyMetrics.getInstance().toMap())).build();
+    }
+
+}
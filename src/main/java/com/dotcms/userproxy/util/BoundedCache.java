@@ -0,0 +1,229 @@
+package com.dotcms.userproxy.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.function.ToIntFunction;
+
+/**
+ * Small, thread-safe cache with a maximum size and a time-to-live per entry. Reads are lock free and do not allocate.
+ * When the cache grows past its maximum size, entries are evicted in CLOCK (second chance) order, an approximation of
+ * LRU: entries are queued in insertion order, and the eldest one is evicted unless it was read since it was queued or
+ * last passed over, in which case it is queued again and the next one is considered. Expired entries are always
+ * evicted when reached.
+ *
+ * <p>
+ * The size can also be a total weight, such as a number of bytes, given by a weigher.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public final class BoundedCache<K, V> {
+
+    private final ConcurrentHashMap<K, Node<K, V>> map;
+    private final ConcurrentLinkedQueue<Node<K, V>> clock = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong weight = new AtomicLong();
+    private final long maxWeight;
+    private final long ttlNanos;
+    private final ToIntFunction<V> weigher;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxSize the maximum number of entries to hold
+     * @param ttl     the default time-to-live of an entry
+     * @param unit    the unit of the time-to-live
+     */
+    public BoundedCache(final int maxSize, final long ttl, final TimeUnit unit) {
+        this(maxSize, ttl, unit, value -> 1);
+    }
+
+    /**
+     * Creates a cache bounded by the total weight of its values.
+     *
+     * @param maxWeight the maximum total weight of the entries to hold
+     * @param ttl       the default time-to-live of an entry
+     * @param unit      the unit of the time-to-live
+     * @param weigher   the weight of a value, which must not change while it is cached
+     */
+    public BoundedCache(final long maxWeight, final long ttl, final TimeUnit unit, final ToIntFunction<V> weigher) {
+        this.maxWeight = Math.max(1, maxWeight);
+        this.ttlNanos = unit.toNanos(ttl);
+        this.weigher = weigher;
+        this.map = new ConcurrentHashMap<>((int) Math.min(this.maxWeight, 1024));
+    }
+
+    /**
+     * Gets the value for the key, or null if it is missing or expired.
+     *
+     * @param key the key
+     * @return the cached value or null
+     */
+    public V get(final K key) {
+        final Node<K, V> node = map.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        if (System.nanoTime() - node.expiresAt >= 0) {
+            remove(node);
+            misses.increment();
+            return null;
+        }
+        if (!node.referenced) {
+            node.referenced = true;
+        }
+        hits.increment();
+        return node.value;
+    }
+
+    /**
+     * Puts a value using the default time-to-live.
+     *
+     * @param key   the key
+     * @param value the value
+     */
+    public void put(final K key, final V value) {
+        put(key, value, ttlNanos);
+    }
+
+    /**
+     * Puts a value that expires after the given number of nanoseconds, capped at the default time-to-live.
+     *
+     * @param key      the key
+     * @param value    the value
+     * @param ttlNanos the time-to-live of this entry in nanoseconds
+     */
+    public void put(final K key, final V value, final long ttlNanos) {
+        final Node<K, V> node = new Node<>(key, value, weigher.applyAsInt(value),
+                System.nanoTime() + Math.min(ttlNanos, this.ttlNanos));
+        final Node<K, V> replaced = map.put(key, node);
+        weight.addAndGet(node.weight - (replaced != null ? replaced.weight : 0));
+        clock.add(node);
+        if (queued.incrementAndGet() > 2 * map.size() + 64) {
+            // removed and replaced entries stay queued until the clock reaches them
+            clock.removeIf(queuedNode -> map.get(queuedNode.key) != queuedNode);
+            queued.set(clock.size());
+        }
+        if (weight.get() > maxWeight) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        // each entry is spared at most once per call, however often it is read meanwhile
+        int spared = 0;
+        final int maxSpared = queued.get();
+        while (weight.get() > maxWeight) {
+            final Node<K, V> node = clock.poll();
+            if (node == null) {
+                return;
+            }
+            queued.decrementAndGet();
+            if (map.get(node.key) != node) {
+                continue;
+            }
+            if (node.referenced && spared < maxSpared && System.nanoTime() - node.expiresAt < 0) {
+                node.referenced = false;
+                spared++;
+                clock.add(node);
+                queued.incrementAndGet();
+                continue;
+            }
+            if (remove(node)) {
+                evictions.increment();
+            }
+        }
+    }
+
+    private boolean remove(final Node<K, V> node) {
+        if (map.remove(node.key, node)) {
+            weight.addAndGet(-node.weight);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes the value for the key.
+     *
+     * @param key the key
+     */
+    public void invalidate(final K key) {
+        final Node<K, V> node = map.get(key);
+        if (node != null) {
+            remove(node);
+        }
+    }
+
+    /**
+     * Removes every entry whose key matches the predicate.
+     *
+     * @param predicate the keys to remove
+     */
+    public void invalidateIf(final Predicate<K> predicate) {
+        for (final Map.Entry<K, Node<K, V>> entry : map.entrySet()) {
+            if (predicate.test(entry.getKey())) {
+                remove(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void invalidateAll() {
+        for (final Node<K, V> node : map.values()) {
+            remove(node);
+        }
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * @return the total weight of the entries, their number unless the cache has a weigher
+     */
+    public long weight() {
+        return weight.get();
+    }
+
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+    private static final class Node<K, V> {
+
+        final K key;
+        final V value;
+        final int weight;
+        final long expiresAt;
+        volatile boolean referenced;
+
+        Node(final K key, final V value, final int weight, final long expiresAt) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
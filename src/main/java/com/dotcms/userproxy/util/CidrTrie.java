@@ -0,0 +1,203 @@
+package com.dotcms.userproxy.util;
+
+/**
+ * The {@link IpNetworks} of many entries compiled into one binary trie per address family, so whether an entry
+ * allows a client address is answered by walking the address bits once, without parsing or comparing ranges.
+ *
+ * <p>
+ * Each node of the trie stands for a CIDR prefix and holds the indexes, as a bit set, of the entries that allow that
+ * prefix. An entry allows an address if its bit is set on any node along the address's path, or if it allows every
+ * address. IPv4 addresses, the common case, are parsed without allocating. An address that is not an IP literal is
+ * only allowed by unrestricted entries. A trie is immutable once built.
+ */
+public final class CidrTrie {
+
+    private static final int V4_BITS = 32;
+    private static final int V6_BITS = 128;
+
+    private final Node v4;
+    private final Node v6;
+    private final long[] unrestricted;
+
+    private CidrTrie(final Node v4, final Node v6, final long[] unrestricted) {
+        this.v4 = v4;
+        this.v6 = v6;
+        this.unrestricted = unrestricted;
+    }
+
+    /**
+     * Creates a builder for the networks of a fixed number of entries.
+     *
+     * @param size the number of entries
+     * @return the builder
+     */
+    public static Builder builder(final int size) {
+        return new Builder(size);
+    }
+
+    /**
+     * Whether the entry at the given index allows the address.
+     *
+     * @param index the entry index
+     * @param ip    the client IP address
+     * @return true if the address is in one of the entry's networks
+     */
+    public boolean allows(final int index, final String ip) {
+        if (isSet(unrestricted, index)) {
+            return true;
+        }
+        final long v4Address = parseV4(ip);
+        if (v4Address >= 0) {
+            return allowsV4(index, (int) v4Address);
+        }
+        final byte[] address = IpNetworks.toBytes(ip);
+        if (address == null) {
+            return false;
+        }
+        if (address.length == 4) {
+            // IPv4-mapped IPv6 addresses are returned as IPv4
+            return allowsV4(index, (address[0] & 0xFF) << 24 | (address[1] & 0xFF) << 16
+                    | (address[2] & 0xFF) << 8 | address[3] & 0xFF);
+        }
+        Node node = v6;
+        for (int bit = 0; node != null; bit++) {
+            if (isSet(node.entries, index)) {
+                return true;
+            }
+            if (bit == V6_BITS) {
+                return false;
+            }
+            node = (address[bit >>> 3] >>> (7 - (bit & 7)) & 1) == 0 ? node.zero : node.one;
+        }
+        return false;
+    }
+
+    private boolean allowsV4(final int index, final int address) {
+        Node node = v4;
+        for (int bit = 0; node != null; bit++) {
+            if (isSet(node.entries, index)) {
+                return true;
+            }
+            if (bit == V4_BITS) {
+                return false;
+            }
+            node = (address >>> (31 - bit) & 1) == 0 ? node.zero : node.one;
+        }
+        return false;
+    }
+
+    /**
+     * Parses a dotted quad IPv4 address.
+     *
+     * @return the address as an unsigned int, or -1 if it is not a dotted quad
+     */
+    static long parseV4(final String ip) {
+        if (ip == null) {
+            return -1;
+        }
+        final int length = ip.length();
+        long address = 0;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+        for (int i = 0; i < length; i++) {
+            final char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = octet * 10 + (c - '0');
+                if (++digits > 3 || octet > 255) {
+                    return -1;
+                }
+            } else if (c == '.' && digits > 0 && ++dots <= 3) {
+                address = address << 8 | octet;
+                octet = 0;
+                digits = 0;
+            } else {
+                return -1;
+            }
+        }
+        return dots == 3 && digits > 0 ? address << 8 | octet : -1;
+    }
+
+    private static boolean isSet(final long[] bits, final int index) {
+        return bits != null && index >> 6 < bits.length && (bits[index >> 6] & 1L << index) != 0;
+    }
+
+    private static final class Node {
+
+        Node zero;
+        Node one;
+        long[] entries;
+    }
+
+    /**
+     * Collects the networks of each entry and compiles them into a {@link CidrTrie}.
+     */
+    public static final class Builder {
+
+        private final int size;
+        private final Node v4 = new Node();
+        private final Node v6 = new Node();
+        private final long[] unrestricted;
+        private final long[] added;
+        private boolean built;
+
+        private Builder(final int size) {
+            this.size = size;
+            this.unrestricted = new long[(size + 63) >> 6];
+            this.added = new long[unrestricted.length];
+        }
+
+        /**
+         * Sets the networks of an entry. {@link IpNetworks#ANY} allows every address, {@link IpNetworks#NONE} none.
+         *
+         * @param index    the entry index
+         * @param networks the networks the entry allows
+         * @return this builder
+         */
+        public Builder add(final int index, final IpNetworks networks) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException("Entry index " + index + " out of " + size);
+            }
+            if (built) {
+                throw new IllegalStateException("The trie is already built");
+            }
+            added[index >> 6] |= 1L << index;
+            if (networks.isAny()) {
+                unrestricted[index >> 6] |= 1L << index;
+                return this;
+            }
+            for (final IpNetworks.Range range : networks.ranges()) {
+                Node node = range.network.length == 4 ? v4 : v6;
+                for (int bit = 0; bit < range.prefix; bit++) {
+                    if ((range.network[bit >>> 3] >>> (7 - (bit & 7)) & 1) == 0) {
+                        node = node.zero != null ? node.zero : (node.zero = new Node());
+                    } else {
+                        node = node.one != null ? node.one : (node.one = new Node());
+                    }
+                }
+                if (node.entries == null) {
+                    node.entries = new long[(size + 63) >> 6];
+                }
+                node.entries[index >> 6] |= 1L << index;
+            }
+            return this;
+        }
+
+        /**
+         * Compiles the trie. Entries whose networks were never added allow every address.
+         *
+         * @return the trie
+         */
+        public CidrTrie build() {
+            built = true;
+            final long[] allowAll = new long[unrestricted.length];
+            for (int i = 0; i < size; i++) {
+                if (!isSet(added, i) || isSet(unrestricted, i)) {
+                    allowAll[i >> 6] |= 1L << i;
+                }
+            }
+            return new CidrTrie(v4, v6, allowAll);
+        }
+    }
+
+}
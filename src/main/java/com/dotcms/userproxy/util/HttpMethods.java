@@ -0,0 +1,84 @@
+package com.dotcms.userproxy.util;
+
+import java.util.Arrays;
+
+import com.dotmarketing.util.Logger;
+
+/**
+ * Maps HTTP method names to single bits so that a set of allowed methods can be stored as an {@code int} mask and
+ * checked with one bit test. Lookups are case-insensitive and do not allocate.
+ *
+ * <p>
+ * The standard methods have fixed bits. Other method names found in a configuration are registered on first use,
+ * up to 32 methods in total.
+ */
+public final class HttpMethods {
+
+    public static final int NONE = 0;
+
+    public static final int GET = 1;
+
+    public static final int HEAD = 1 << 2;
+
+    private static final int MAX_METHODS = Integer.SIZE;
+
+    // most frequent first, this is the order lookups are tried in
+    private static volatile String[] names = { "GET", "POST", "HEAD", "OPTIONS", "PUT", "DELETE", "PATCH", "TRACE",
+            "CONNECT" };
+
+    private HttpMethods() {
+    }
+
+    /**
+     * Returns the bit of a request method.
+     *
+     * @param method the HTTP method, in any case
+     * @return the bit of the method, or {@link #NONE} if no configuration uses it
+     */
+    public static int bitOf(final String method) {
+        if (method == null) {
+            return NONE;
+        }
+        final String[] known = names;
+        for (int i = 0; i < known.length; i++) {
+            if (known[i].equalsIgnoreCase(method)) {
+                return 1 << i;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Builds the mask of a list of methods, registering method names not seen before.
+     *
+     * @param methods the method names, in any case
+     * @return the mask of all the listed methods
+     */
+    public static int maskOf(final Iterable<String> methods) {
+        int mask = NONE;
+        for (final String method : methods) {
+            final String name = method.trim();
+            if (!name.isEmpty()) {
+                mask |= register(name);
+            }
+        }
+        return mask;
+    }
+
+    private static synchronized int register(final String method) {
+        final int bit = bitOf(method);
+        if (bit != NONE) {
+            return bit;
+        }
+        final String[] known = names;
+        if (known.length == MAX_METHODS) {
+            Logger.warn(HttpMethods.class, "Too many distinct http methods for userproxy, ignoring:" + method);
+            return NONE;
+        }
+        final String[] updated = Arrays.copyOf(known, known.length + 1);
+        updated[known.length] = method.toUpperCase();
+        names = updated;
+        return 1 << known.length;
+    }
+
+}
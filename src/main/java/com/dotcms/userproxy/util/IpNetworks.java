@@ -0,0 +1,180 @@
+package com.dotcms.userproxy.util;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A set of IP networks, as set in the {@code allowNetwork} field of an API token or the {@code allowedNetworks} of an
+ * entry: CIDR ranges (IPv4 or IPv6) or single addresses. An empty or missing value, and {@code 0.0.0.0/0}, allow every
+ * address. Many sets are checked at once with a {@link CidrTrie}.
+ */
+public final class IpNetworks {
+
+    public static final IpNetworks ANY = new IpNetworks(List.of(), true);
+
+    public static final IpNetworks NONE = new IpNetworks(List.of(), false);
+
+    private final List<Range> ranges;
+    private final boolean any;
+
+    private IpNetworks(final List<Range> ranges, final boolean any) {
+        this.ranges = ranges;
+        this.any = any;
+    }
+
+    /**
+     * Parses an {@code allowNetwork} value.
+     *
+     * @param allowNetwork the comma separated ranges, or null
+     * @return the networks
+     * @throws IllegalArgumentException if a range is not an IP literal with an optional prefix length
+     */
+    public static IpNetworks parse(final String allowNetwork) {
+        if (allowNetwork == null || allowNetwork.isBlank()) {
+            return ANY;
+        }
+        return of(List.of(allowNetwork.split(",")));
+    }
+
+    /**
+     * Parses a list of networks.
+     *
+     * @param networks the CIDR ranges or addresses
+     * @return the networks, {@link #ANY} if the list is empty
+     * @throws IllegalArgumentException if a range is not an IP literal with an optional prefix length
+     */
+    public static IpNetworks of(final List<String> networks) {
+        final List<Range> ranges = new ArrayList<>();
+        for (final String part : networks) {
+            final String cidr = part.trim();
+            if (cidr.isEmpty()) {
+                continue;
+            }
+            final int slash = cidr.indexOf('/');
+            final byte[] address = toBytes(slash >= 0 ? cidr.substring(0, slash) : cidr);
+            if (address == null) {
+                throw new IllegalArgumentException("Not an IP network:" + cidr);
+            }
+            final int prefix = slash >= 0 ? Integer.parseInt(cidr.substring(slash + 1)) : address.length * 8;
+            if (prefix < 0 || prefix > address.length * 8) {
+                throw new IllegalArgumentException("Invalid prefix length:" + cidr);
+            }
+            if (prefix == 0) {
+                return ANY;
+            }
+            ranges.add(new Range(address, prefix));
+        }
+        return ranges.isEmpty() ? ANY : new IpNetworks(List.copyOf(ranges), false);
+    }
+
+    /**
+     * @return true if every address is allowed
+     */
+    public boolean isAny() {
+        return any;
+    }
+
+    List<Range> ranges() {
+        return ranges;
+    }
+
+    /**
+     * Whether the address is in one of the networks.
+     *
+     * @param ip the client IP address
+     * @return true if the address is allowed
+     */
+    public boolean contains(final String ip) {
+        if (any) {
+            return true;
+        }
+        final byte[] address = toBytes(ip);
+        if (address == null) {
+            return false;
+        }
+        for (final Range range : ranges) {
+            if (range.contains(address)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses an IP literal. Anything that is not made of IP literal characters is rejected before reaching
+     * {@link InetAddress}, so a host name is never looked up.
+     */
+    static byte[] toBytes(final String ip) {
+        if (ip == null || ip.isEmpty()) {
+            return null;
+        }
+        for (int i = 0; i < ip.length(); i++) {
+            final char c = ip.charAt(i);
+            if (Character.digit(c, 16) < 0 && c != '.' && c != ':') {
+                return null;
+            }
+        }
+        try {
+            return InetAddress.getByName(ip).getAddress();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the networks as CIDR ranges, which {@link #of(List)} parses back; empty for {@link #ANY} and
+     *         {@link #NONE}
+     */
+    public List<String> getCidrs() {
+        final List<String> cidrs = new ArrayList<>(ranges.size());
+        for (final Range range : ranges) {
+            cidrs.add(range.toString());
+        }
+        return cidrs;
+    }
+
+    @Override
+    public String toString() {
+        return any ? "any" : ranges.isEmpty() ? "none" : ranges.toString();
+    }
+
+    static final class Range {
+
+        final byte[] network;
+        final int prefix;
+
+        Range(final byte[] network, final int prefix) {
+            this.network = network;
+            this.prefix = prefix;
+        }
+
+        boolean contains(final byte[] address) {
+            if (address.length != network.length) {
+                return false;
+            }
+            final int fullBytes = prefix / 8;
+            for (int i = 0; i < fullBytes; i++) {
+                if (address[i] != network[i]) {
+                    return false;
+                }
+            }
+            final int remainingBits = prefix % 8;
+            if (remainingBits == 0) {
+                return true;
+            }
+            final int mask = 0xFF << (8 - remainingBits) & 0xFF;
+            return (address[fullBytes] & mask) == (network[fullBytes] & mask);
+        }
+
+        @Override
+        public String toString() {
+            try {
+                return InetAddress.getByAddress(network).getHostAddress() + '/' + prefix;
+            } catch (Exception e) {
+                return "?/" + prefix;
+            }
+        }
+    }
+
+}
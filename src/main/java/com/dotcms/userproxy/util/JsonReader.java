@@ -0,0 +1,375 @@
+package com.dotcms.userproxy.util;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import com.dotmarketing.util.json.JSONException;
+
+/**
+ * A pull parser for the userproxy.json config, reading values one at a time instead of building a tree. It accepts
+ * the same relaxed syntax as {@link com.dotmarketing.util.json.JSONObject}: comments, single quoted or unquoted
+ * strings, {@code =} between names and values, {@code ;} between members and trailing separators.
+ *
+ * <p>
+ * {@code {name}} placeholders in string values are replaced with the value of {@code name} in the placeholder map
+ * while the string is decoded, so a config referencing token secrets is read in a single pass. Braces around a name
+ * that is not in the map, such as regex quantifiers, are kept as they are.
+ */
+public final class JsonReader {
+
+    /**
+     * The kinds of value {@link #peek()} can find.
+     */
+    public enum Kind {
+        OBJECT, ARRAY, STRING, NULL, END
+    }
+
+    private static final int EMPTY = 0;
+    private static final int AFTER_VALUE = 1;
+    private static final int AFTER_SEPARATOR = 2;
+
+    private final String in;
+    private final Map<String, String> placeholders;
+    private int pos;
+    private int depth;
+    private boolean[] objects = new boolean[16];
+    private int[] states = new int[16];
+    private boolean afterName;
+
+    /**
+     * Creates a reader.
+     *
+     * @param json         the document
+     * @param placeholders the values of the {@code {name}} placeholders, by name
+     */
+    public JsonReader(final String json, final Map<String, String> placeholders) {
+        this.in = json != null ? json : "";
+        this.placeholders = placeholders != null ? placeholders : Map.of();
+    }
+
+    public void beginObject() throws JSONException {
+        begin('{', true);
+    }
+
+    public void endObject() throws JSONException {
+        end('}', true);
+    }
+
+    public void beginArray() throws JSONException {
+        begin('[', false);
+    }
+
+    public void endArray() throws JSONException {
+        end(']', false);
+    }
+
+    /**
+     * Whether the current object or array has another member, consuming the separator before it.
+     */
+    public boolean hasNext() throws JSONException {
+        if (depth == 0) {
+            return nextClean() >= 0;
+        }
+        int c = nextClean();
+        if (states[depth - 1] == AFTER_VALUE) {
+            if (c == ',' || c == ';') {
+                pos++;
+                states[depth - 1] = AFTER_SEPARATOR;
+                c = nextClean();
+            } else if (c != '}' && c != ']') {
+                throw syntaxError(objects[depth - 1] ? "Expected a ',' or '}'" : "Expected a ',' or ']'");
+            }
+        }
+        return c >= 0 && c != '}' && c != ']';
+    }
+
+    /**
+     * Reads the name of the next member of the current object.
+     */
+    public String nextName() throws JSONException {
+        if (depth == 0 || !objects[depth - 1] || afterName) {
+            throw syntaxError("Expected a value");
+        }
+        if (!hasNext()) {
+            throw syntaxError("Expected a name");
+        }
+        final String name = String.valueOf(readString(false));
+        final int c = nextClean();
+        if (c == '=') {
+            pos++;
+            if (pos < in.length() && in.charAt(pos) == '>') {
+                pos++;
+            }
+        } else if (c == ':') {
+            pos++;
+        } else {
+            throw syntaxError("Expected a ':' after a key");
+        }
+        afterName = true;
+        return name;
+    }
+
+    /**
+     * Reads a string value, with its placeholders resolved. Numbers and booleans are read as their text.
+     *
+     * @return the value, or null for {@code null}
+     */
+    public String nextString() throws JSONException {
+        beforeValue();
+        final String value = readString(true);
+        afterValue();
+        return value;
+    }
+
+    /**
+     * Finds the kind of the next value, without reading it. Returns {@link Kind#END} at the end of an object, an array
+     * or the document.
+     */
+    public Kind peek() throws JSONException {
+        if (!afterName && !hasNext()) {
+            return Kind.END;
+        }
+        final int c = nextClean();
+        switch (c) {
+            case '{':
+                return Kind.OBJECT;
+            case '[':
+                return Kind.ARRAY;
+            case 'n':
+            case 'N':
+                return in.regionMatches(true, pos, "null", 0, 4) && isDelimiter(pos + 4) ? Kind.NULL : Kind.STRING;
+            default:
+                return Kind.STRING;
+        }
+    }
+
+    /**
+     * Skips the next value, with everything it contains.
+     */
+    public void skipValue() throws JSONException {
+        final int target = depth;
+        do {
+            if (depth > target && !afterName) {
+                if (!hasNext()) {
+                    end(objects[depth - 1] ? '}' : ']', objects[depth - 1]);
+                    continue;
+                }
+                if (objects[depth - 1]) {
+                    nextName();
+                }
+            }
+            switch (peek()) {
+                case OBJECT:
+                    beginObject();
+                    break;
+                case ARRAY:
+                    beginArray();
+                    break;
+                default:
+                    beforeValue();
+                    readString(false);
+                    afterValue();
+            }
+        } while (depth > target);
+    }
+
+    private void begin(final char open, final boolean object) throws JSONException {
+        beforeValue();
+        if (nextClean() != open) {
+            throw syntaxError(object ? "A JSONObject text must begin with '{'"
+                    : "A JSONArray text must start with '['");
+        }
+        pos++;
+        if (depth == objects.length) {
+            objects = Arrays.copyOf(objects, depth * 2);
+            states = Arrays.copyOf(states, depth * 2);
+        }
+        objects[depth] = object;
+        states[depth] = EMPTY;
+        depth++;
+    }
+
+    private void end(final char close, final boolean object) throws JSONException {
+        if (depth == 0 || objects[depth - 1] != object || afterName || hasNext() || nextClean() != close) {
+            throw syntaxError(object ? "Expected a '}'" : "Expected a ']'");
+        }
+        pos++;
+        depth--;
+        afterValue();
+    }
+
+    private void beforeValue() throws JSONException {
+        if (depth > 0 && objects[depth - 1]) {
+            if (!afterName) {
+                throw syntaxError("Expected a name");
+            }
+            afterName = false;
+        } else if (!hasNext()) {
+            throw syntaxError("Missing value");
+        }
+    }
+
+    private void afterValue() {
+        if (depth > 0) {
+            states[depth - 1] = AFTER_VALUE;
+        }
+    }
+
+    private String readString(final boolean resolve) throws JSONException {
+        final int c = nextClean();
+        if (c == '"' || c == '\'') {
+            pos++;
+            return readQuoted((char) c, resolve);
+        }
+        if (c < 0 || c == '{' || c == '[' || c == '}' || c == ']' || c == ',' || c == ':') {
+            throw syntaxError("Missing value");
+        }
+        final int start = pos;
+        while (!isDelimiter(pos)) {
+            pos++;
+        }
+        if (pos == start) {
+            throw syntaxError("Missing value");
+        }
+        if (pos - start == 4 && in.regionMatches(true, start, "null", 0, 4)) {
+            return null;
+        }
+        return in.substring(start, pos);
+    }
+
+    private String readQuoted(final char quote, final boolean resolve) throws JSONException {
+        StringBuilder sb = null;
+        int start = pos;
+        while (true) {
+            if (pos >= in.length()) {
+                throw syntaxError("Unterminated string");
+            }
+            final char c = in.charAt(pos);
+            if (c == quote) {
+                final String value = sb == null ? in.substring(start, pos) : sb.append(in, start, pos).toString();
+                pos++;
+                return value;
+            }
+            if (c == '\n' || c == '\r') {
+                throw syntaxError("Unterminated string");
+            }
+            if (c == '\\') {
+                if (sb == null) {
+                    sb = new StringBuilder(pos - start + 16);
+                }
+                sb.append(in, start, pos);
+                pos++;
+                sb.append(readEscape());
+                start = pos;
+            } else if (c == '{' && resolve && !placeholders.isEmpty()) {
+                final String value = placeholder(pos, quote);
+                if (value != null) {
+                    if (sb == null) {
+                        sb = new StringBuilder(pos - start + value.length() + 16);
+                    }
+                    sb.append(in, start, pos).append(value);
+                    pos = in.indexOf('}', pos) + 1;
+                    start = pos;
+                } else {
+                    pos++;
+                }
+            } else {
+                pos++;
+            }
+        }
+    }
+
+    private char readEscape() throws JSONException {
+        if (pos >= in.length()) {
+            throw syntaxError("Unterminated string");
+        }
+        final char c = in.charAt(pos++);
+        switch (c) {
+            case 'b':
+                return '\b';
+            case 't':
+                return '\t';
+            case 'n':
+                return '\n';
+            case 'f':
+                return '\f';
+            case 'r':
+                return '\r';
+            case 'u':
+                if (pos + 4 > in.length()) {
+                    throw syntaxError("Illegal escape.");
+                }
+                try {
+                    final char unicode = (char) Integer.parseInt(in.substring(pos, pos + 4), 16);
+                    pos += 4;
+                    return unicode;
+                } catch (NumberFormatException e) {
+                    throw syntaxError("Illegal escape.");
+                }
+            case '"':
+            case '\'':
+            case '\\':
+            case '/':
+                return c;
+            default:
+                throw syntaxError("Illegal escape.");
+        }
+    }
+
+    /**
+     * Looks up the placeholder whose opening brace is at {@code open}, within the string ending with {@code quote}.
+     *
+     * @return the value of the placeholder, or null if the braces do not close around a known name
+     */
+    private String placeholder(final int open, final char quote) {
+        for (int i = open + 1; i < in.length(); i++) {
+            final char c = in.charAt(i);
+            if (c == '}') {
+                return i > open + 1 ? placeholders.get(in.substring(open + 1, i)) : null;
+            }
+            if (c == quote || c == '\\' || c == '{' || c == '"' || c == '\'' || Character.isWhitespace(c)) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private boolean isDelimiter(final int index) {
+        if (index >= in.length()) {
+            return true;
+        }
+        final char c = in.charAt(index);
+        return c <= ' ' || ",:]}/\\\"[{;=#'".indexOf(c) >= 0;
+    }
+
+    /**
+     * Skips whitespace and comments.
+     *
+     * @return the next character, not consumed, or -1 at the end of the document
+     */
+    private int nextClean() throws JSONException {
+        while (pos < in.length()) {
+            final char c = in.charAt(pos);
+            if (c <= ' ') {
+                pos++;
+            } else if (c == '#' || c == '/' && pos + 1 < in.length() && in.charAt(pos + 1) == '/') {
+                final int eol = in.indexOf('\n', pos);
+                pos = eol < 0 ? in.length() : eol + 1;
+            } else if (c == '/' && pos + 1 < in.length() && in.charAt(pos + 1) == '*') {
+                final int close = in.indexOf("*/", pos + 2);
+                if (close < 0) {
+                    throw syntaxError("Unclosed comment");
+                }
+                pos = close + 2;
+            } else {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    private JSONException syntaxError(final String message) {
+        return new JSONException(message + " at character " + pos);
+    }
+
+}
@@ -0,0 +1,134 @@
+package com.dotcms.userproxy.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free token bucket that allows a sustained rate of requests plus a burst, split into stripes so request threads
+ * running on different cores update different cache lines.
+ *
+ * <p>
+ * Each stripe is a single {@code long} holding its theoretical arrival time (the generic cell rate algorithm): taking
+ * a token moves it forward by one emission interval, and is refused if that would put it more than the stripe's burst
+ * ahead of now. A stripe gets an equal share of the rate and of the burst; when the burst does not divide evenly, the
+ * first {@code burst % stripes} stripes hold one more token, so the stripes together allow exactly the burst. A thread
+ * takes tokens from the stripe its id maps to and only looks at the other stripes when that one is empty, so the
+ * bucket as a whole refuses requests only once every stripe is empty. Stripes are padded apart to avoid false sharing.
+ */
+public final class TokenBucket {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    /**
+     * Longs between two stripes, two cache lines, so that adjacent line prefetching does not share them either.
+     */
+    private static final int PADDING = 16;
+
+    private final AtomicLongArray cells;
+    private final int stripes;
+    private final long intervalNanos;
+    private final long toleranceNanos;
+    private final int largerStripes;
+
+    /**
+     * Creates a bucket that starts full.
+     *
+     * @param perSecond the sustained number of requests per second
+     * @param burst     the number of requests that can be made at once
+     * @param stripes   the number of stripes, at most {@code burst}
+     */
+    public TokenBucket(final double perSecond, final int burst, final int stripes) {
+        if (!(perSecond > 0) || burst < 1) {
+            throw new IllegalArgumentException("Invalid rate " + perSecond + "/s, burst " + burst);
+        }
+        this.stripes = Math.max(1, Math.min(stripes, burst));
+        this.intervalNanos = Math.max(1, (long) (this.stripes * NANOS_PER_SECOND / perSecond));
+        this.toleranceNanos = intervalNanos * (burst / this.stripes);
+        this.largerStripes = burst % this.stripes;
+        this.cells = new AtomicLongArray(this.stripes * PADDING);
+        final long now = System.nanoTime();
+        for (int i = 0; i < this.stripes; i++) {
+            cells.set(i * PADDING, now);
+        }
+    }
+
+    /**
+     * Takes a token.
+     *
+     * @return 0 if a token was taken, otherwise how many nanoseconds until one is available
+     */
+    public long tryAcquire() {
+        final long now = System.nanoTime();
+        final int first = stripe();
+        long wait = Long.MAX_VALUE;
+        for (int i = 0; i < stripes; i++) {
+            final int stripe = (first + i) % stripes;
+            final long stripeWait = tryAcquire(cells, stripe * PADDING, now, intervalNanos,
+                    stripe < largerStripes ? toleranceNanos + intervalNanos : toleranceNanos);
+            if (stripeWait == 0) {
+                return 0;
+            }
+            wait = Math.min(wait, stripeWait);
+        }
+        return wait;
+    }
+
+    private int stripe() {
+        if (stripes == 1) {
+            return 0;
+        }
+        final long id = Thread.currentThread().getId();
+        return (int) ((id ^ id >>> 16) * 0x9E3779B9L >>> 32 & 0x7FFFFFFF) % stripes;
+    }
+
+    /**
+     * Takes a token from a single-cell bucket, for buckets that are not contended enough to stripe.
+     *
+     * @param cell           the theoretical arrival time of the bucket, a {@link System#nanoTime()} value
+     * @param intervalNanos  the time between two requests at the sustained rate
+     * @param toleranceNanos the burst times the interval
+     * @return 0 if a token was taken, otherwise how many nanoseconds until one is available
+     */
+    public static long tryAcquire(final AtomicLong cell, final long intervalNanos, final long toleranceNanos) {
+        final long now = System.nanoTime();
+        while (true) {
+            final long tat = cell.get();
+            final long next = (tat - now < 0 ? now : tat) + intervalNanos;
+            if (next - now > toleranceNanos) {
+                return next - now - toleranceNanos;
+            }
+            if (cell.compareAndSet(tat, next)) {
+                return 0;
+            }
+        }
+    }
+
+    private static long tryAcquire(final AtomicLongArray cells, final int index, final long now,
+            final long intervalNanos, final long toleranceNanos) {
+        while (true) {
+            final long tat = cells.get(index);
+            final long next = (tat - now < 0 ? now : tat) + intervalNanos;
+            if (next - now > toleranceNanos) {
+                return next - now - toleranceNanos;
+            }
+            if (cells.compareAndSet(index, tat, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Gets the time between two requests at the sustained rate of a single-cell bucket.
+     *
+     * @param perSecond the sustained number of requests per second
+     * @return the interval in nanoseconds
+     */
+    public static long intervalNanos(final double perSecond) {
+        return Math.max(1, (long) (NANOS_PER_SECOND / perSecond));
+    }
+
+    public int getStripes() {
+        return stripes;
+    }
+
+}
@@ -0,0 +1,112 @@
+package com.dotcms.userproxy.interceptor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.dotcms.userproxy.model.QueryCondition;
+import com.dotcms.userproxy.model.RateLimit;
+import com.dotcms.userproxy.model.ResolvedToken;
+import com.dotcms.userproxy.model.ResponseCachePolicy;
+import com.dotcms.userproxy.model.UrlType;
+import com.dotcms.userproxy.model.UserProxyConfig;
+import com.dotcms.userproxy.model.UserProxyEntry;
+import com.dotcms.userproxy.util.IpNetworks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ConfigSnapshotFile.
+ */
+class ConfigSnapshotFileTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testConfigsRoundTripWithoutTokens() throws Exception {
+        UserProxyEntry entry = UserProxyEntry.builder("secret-token-value", "GET,POST",
+                new String[] { "^/api/v1/.*", "(" })
+                .queryConditions(List.of(QueryCondition.equalTo("type", "news"), QueryCondition.present("q")))
+                .allowedNetworks(List.of("10.0.0.0/8"))
+                .rateLimit(new RateLimit(5, 10, 0, 0, true))
+                .responseCache(new ResponseCachePolicy(60_000, List.of("limit")))
+                .build();
+        UserProxyEntry disabled = UserProxyEntry.builder("secret-token-value", "GET", new String[] { "/x" })
+                .allowedNetworks(List.of("not-a-network"))
+                .build();
+        UserProxyConfig shared = new UserProxyConfig(List.of(entry, disabled), "system-host", "hash-1");
+        Map<String, UserProxyConfig> configs = new LinkedHashMap<>();
+        configs.put("host-1", shared);
+        configs.put("host-2", shared);
+        configs.put("host-3", new UserProxyConfig(List.of(new UserProxyEntry("other", "GET",
+                new String[] { "^/other" })), "host-3", "hash-3"));
+
+        ConfigSnapshotFile file = new ConfigSnapshotFile(dir.resolve("snapshot.bin"));
+        assertEquals(3, file.write(configs));
+
+        String bytes = new String(Files.readAllBytes(file.getPath()), StandardCharsets.ISO_8859_1);
+        assertFalse(bytes.contains("secret-token-value"), "Tokens are never written");
+
+        Map<String, UserProxyConfig> read = file.read();
+        assertEquals(List.of("host-1", "host-2", "host-3"), List.copyOf(read.keySet()));
+        assertSame(read.get("host-1"), read.get("host-2"), "Shared configs are shared again");
+
+        UserProxyConfig restored = read.get("host-1");
+        assertEquals("system-host", restored.getSourceHostId());
+        assertEquals("hash-1", restored.getContentHash());
+        assertEquals(1, restored.getEntries().size(), "Entries that never match are left out");
+        UserProxyEntry restoredEntry = restored.getEntries().get(0);
+        assertTrue(restoredEntry.isRestored());
+        assertEquals(0, restoredEntry.getUserToken().length);
+        assertEquals(List.of("get", "post"), restoredEntry.getMethods());
+        assertEquals(UrlType.REGEX, restoredEntry.getUrlType());
+        assertEquals(List.of("^/api/v1/.*"), restoredEntry.getUrlSources(), "Rejected URLs are left out");
+        assertEquals(2, restoredEntry.getQueryConditions().size());
+        assertEquals(List.of("10.0.0.0/8"), restoredEntry.getAllowedNetworks().getCidrs());
+        assertEquals(5.0, restoredEntry.getRateLimit().getPerSecond());
+        assertTrue(restoredEntry.getRateLimit().isReject());
+        assertEquals(60_000, restoredEntry.getResponseCache().getTtlMillis());
+        assertEquals(ResolvedToken.Status.INVALID, restoredEntry.getResolvedToken().getStatus(),
+                "A token that was never validated is not honored");
+    }
+
+    @Test
+    void testValidatedTokensAreRestored() throws Exception {
+        UserProxyEntry entry = UserProxyEntry.builder(null, "GET", new String[] { "^/api" })
+                .restored(ResolvedToken.restored("token-1", "user-1", 123_000, IpNetworks.of(List.of("192.168.0.0/16")),
+                        5_000))
+                .build();
+        ConfigSnapshotFile file = new ConfigSnapshotFile(dir.resolve("nested").resolve("snapshot.bin"));
+        file.write(Map.of("host-1", new UserProxyConfig(List.of(entry), "host-1", "hash-1")));
+
+        ResolvedToken token = file.read().get("host-1").getEntries().get(0).getResolvedToken();
+        assertEquals(ResolvedToken.Status.VALID, token.getStatus());
+        assertTrue(token.isUnconfirmed());
+        assertEquals("token-1", token.getTokenId());
+        assertEquals("user-1", token.getUserId());
+        assertEquals(123_000, token.getExpiresAtMillis());
+        assertEquals(5_000, token.getResolvedAtMillis());
+        assertEquals(List.of("192.168.0.0/16"), token.getAllowedNetworks().getCidrs());
+    }
+
+    @Test
+    void testMissingAndCorruptFiles() throws Exception {
+        ConfigSnapshotFile file = new ConfigSnapshotFile(dir.resolve("snapshot.bin"));
+        assertTrue(file.read().isEmpty());
+
+        file.write(Map.of("host-1", new UserProxyConfig(List.of(new UserProxyEntry("t", "GET",
+                new String[] { "^/api" })), "host-1", "hash-1")));
+        byte[] bytes = Files.readAllBytes(file.getPath());
+        bytes[bytes.length / 2] ^= 0x5a;
+        Files.write(file.getPath(), bytes);
+        assertThrows(IOException.class, file::read);
+    }
+}
@@ -0,0 +1,80 @@
+package com.dotcms.userproxy.interceptor;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ConfiguredHosts.
+ */
+class ConfiguredHostsTest {
+
+    @Test
+    void testNothingIsSkippedUntilIndexed() {
+        ConfiguredHosts hosts = new ConfiguredHosts(true);
+
+        assertFalse(hosts.canSkip(request("www.unconfigured.com", null, null)));
+        assertEquals(-1, hosts.size());
+    }
+
+    @Test
+    void testOnlyUnconfiguredNamesAreSkipped() {
+        ConfiguredHosts hosts = new ConfiguredHosts(true);
+        hosts.set(Set.of("host-1"), Set.of("www.configured.com", "configured.com"), false);
+
+        assertTrue(hosts.canSkip(request("www.unconfigured.com", null, null)));
+        assertFalse(hosts.canSkip(request("www.configured.com", null, null)));
+        assertFalse(hosts.canSkip(request("WWW.Configured.com", null, null)));
+        assertFalse(hosts.canSkip(request("configured.com", null, null)));
+        assertEquals(1, hosts.size());
+    }
+
+    @Test
+    void testExplicitHostSelectionIsNeverSkipped() {
+        ConfiguredHosts hosts = new ConfiguredHosts(true);
+        hosts.set(Set.of("host-1"), Set.of("www.configured.com"), false);
+
+        assertFalse(hosts.canSkip(request("www.unconfigured.com", "host_id=host-1", null)));
+        assertFalse(hosts.canSkip(request("www.unconfigured.com", null, new Object())));
+    }
+
+    @Test
+    void testFallbackConfigurationDisablesSkipping() {
+        ConfiguredHosts hosts = new ConfiguredHosts(true);
+        hosts.set(Set.of("system_host"), Set.of(), true);
+
+        assertFalse(hosts.canSkip(request("www.unconfigured.com", null, null)));
+    }
+
+    @Test
+    void testSavingAnUnknownHostStopsSkippingUntilRebuilt() {
+        ConfiguredHosts hosts = new ConfiguredHosts(true);
+        hosts.set(Set.of("host-1"), Set.of("www.configured.com"), false);
+        List<Runnable> rebuilds = new ArrayList<>();
+
+        hosts.hostChanged("HOST-1", rebuilds::add);
+        assertTrue(hosts.canSkip(request("www.unconfigured.com", null, null)));
+
+        hosts.hostChanged("host-2", rebuilds::add);
+        assertFalse(hosts.canSkip(request("www.unconfigured.com", null, null)));
+        assertEquals(1, rebuilds.size(), "Saves waiting for a rebuild are merged into it");
+    }
+
+    private static HttpServletRequest request(String serverName, String queryString, Object currentHost) {
+        Map<String, Object> values = new HashMap<>();
+        values.put("getServerName", serverName);
+        values.put("getQueryString", queryString);
+        values.put("getAttribute", currentHost);
+        return (HttpServletRequest) Proxy.newProxyInstance(ConfiguredHostsTest.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, (proxy, method, args) -> values.get(method.getName()));
+    }
+}
@@ -0,0 +1,63 @@
+package com.dotcms.userproxy.interceptor;
+
+import org.junit.jupiter.api.Test;
+
+import com.dotcms.userproxy.model.UrlType;
+import com.dotcms.userproxy.model.UserProxyConfig;
+import com.dotcms.userproxy.model.UserProxyEntry;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for InterceptorFilters.
+ */
+class InterceptorFiltersTest {
+
+    @Test
+    void testPathPrefix() {
+        assertEquals("/api/v1/", InterceptorFilters.pathPrefix("^/api/v1/graphql"));
+        assertEquals("/api/v1/page/", InterceptorFilters.pathPrefix("^/api/v1/page/json*"));
+        assertEquals("/dA/", InterceptorFilters.pathPrefix("\\A/dA/[0-9a-f-]{36}/.*"));
+        assertNull(InterceptorFilters.pathPrefix("/api/v1/.*"));
+        assertNull(InterceptorFilters.pathPrefix("^/api"));
+        assertNull(InterceptorFilters.pathPrefix("^(?i)/api/v1/.*"));
+        assertNull(InterceptorFilters.pathPrefix("^/a/|^/b/"));
+    }
+
+    @Test
+    void testNarrowestFiltersCoverEveryHost() {
+        UserProxyConfig host = new UserProxyConfig(List.of(
+                glob("/api/v1/page/json*", "/api/v1/content/_search*"),
+                new UserProxyEntry("token", "GET", new String[] { "^/dA/[0-9a-f-]{36}/.*" })), "host");
+        UserProxyConfig systemHost = new UserProxyConfig(List.of(
+                glob("/api/v1/graphql/*"),
+                UserProxyEntry.builder("token", "GET", new String[] { "/api2/x" }).urlType(UrlType.PREFIX).build()),
+                "SYSTEM_HOST");
+
+        assertArrayEquals(
+                new String[] { "/api/v1/content/*", "/api/v1/graphql/*", "/api/v1/page/*", "/api2/*", "/dA/*" },
+                InterceptorFilters.narrowest(List.of(host, systemHost)));
+
+        // paths covered by a shorter one are dropped
+        UserProxyConfig wider = new UserProxyConfig(List.of(glob("/api/v1/?*")), "other");
+        assertArrayEquals(new String[] { "/api/v1/*", "/api2/*", "/dA/*" },
+                InterceptorFilters.narrowest(List.of(host, systemHost, wider)));
+    }
+
+    @Test
+    void testPatternMatchingAnyPathKeepsEveryPath() {
+        UserProxyConfig config = new UserProxyConfig(List.of(glob("/api/v1/*"),
+                new UserProxyEntry("token", "GET", new String[] { "/pages/.*" })), "host");
+
+        assertArrayEquals(InterceptorFilters.ALL, InterceptorFilters.narrowest(List.of(config)));
+        assertArrayEquals(InterceptorFilters.ALL, InterceptorFilters.narrowest(List.of(UserProxyConfig.EMPTY)));
+        assertArrayEquals(InterceptorFilters.ALL,
+                InterceptorFilters.narrowest(List.of(new UserProxyConfig(List.of(glob("*.json")), "host"))));
+    }
+
+    private static UserProxyEntry glob(String... urls) {
+        return UserProxyEntry.builder("token", "GET", urls).urlType(UrlType.GLOB).build();
+    }
+}
@@ -0,0 +1,55 @@
+package com.dotcms.userproxy.interceptor;
+
+import org.junit.jupiter.api.Test;
+
+import com.dotcms.userproxy.model.UserProxyEntry;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ProxyUserCache.
+ */
+class ProxyUserCacheTest {
+
+    @Test
+    void testFailedResolutionIsCachedPerEntryAndAddress() {
+        ProxyUserCache cache = new ProxyUserCache(100, 60);
+        UserProxyEntry entry = new UserProxyEntry("not-a-jwt", "GET", new String[] { "^/api" });
+
+        assertNull(cache.resolve(entry, "10.0.0.1"));
+        assertNull(cache.resolve(entry, "10.0.0.1"));
+        assertNull(cache.resolve(entry, "10.0.0.2"));
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.hitCount());
+        assertEquals(2, cache.missCount());
+    }
+
+    @Test
+    void testInvalidateOnlyDropsTheGivenEntries() {
+        ProxyUserCache cache = new ProxyUserCache(100, 60);
+        UserProxyEntry replaced = new UserProxyEntry("token-1", "GET", new String[] { "^/api" });
+        UserProxyEntry kept = new UserProxyEntry("token-1", "GET", new String[] { "^/api" });
+        cache.resolve(replaced, "10.0.0.1");
+        cache.resolve(kept, "10.0.0.1");
+
+        cache.invalidate(List.of(replaced));
+        assertEquals(1, cache.size(), "Equal entries of other configs are kept");
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testSizeIsBounded() {
+        ProxyUserCache cache = new ProxyUserCache(10, 60);
+        UserProxyEntry entry = new UserProxyEntry("token-1", "GET", new String[] { "^/api" });
+        for (int i = 0; i < 100; i++) {
+            cache.resolve(entry, "10.0.0." + i);
+        }
+
+        assertTrue(cache.size() <= 10);
+    }
+}
@@ -0,0 +1,232 @@
+package com.dotcms.userproxy.interceptor;
+
+import org.junit.jupiter.api.Test;
+
+import com.dotcms.filters.interceptor.Result;
+import com.dotcms.userproxy.model.QueryParameters;
+import com.dotcms.userproxy.model.ResponseCachePolicy;
+import com.dotcms.userproxy.model.UserProxyConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for ResponseCache.
+ */
+class ResponseCacheTest {
+
+    private static final UserProxyConfig CONFIG = new UserProxyConfig(List.of(), "host-1");
+
+    private static final ResponseCachePolicy POLICY = new ResponseCachePolicy(60_000, List.of("limit"));
+
+    @Test
+    void testMissFillsTheCache() throws Exception {
+        ResponseCache cache = new ResponseCache(1024, 1024, 1000);
+
+        HttpServletRequest first = request();
+        Result result = intercept(cache, "limit=10", first, response(new ByteArrayOutputStream()));
+        assertNotSame(Result.NEXT, result);
+        assertNotSame(Result.SKIP_NO_CHAIN, result);
+        respond(cache, first, "hello");
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        assertSame(Result.SKIP_NO_CHAIN, intercept(cache, "limit=10&other=1", request(), response(body)));
+        assertEquals("hello", body.toString(StandardCharsets.UTF_8));
+        assertEquals(1, cache.hitCount());
+        assertEquals(5, cache.byteSize());
+
+        // a listed parameter is part of the key
+        assertNotSame(Result.SKIP_NO_CHAIN, intercept(cache, "limit=20", request(), response(body)));
+    }
+
+    @Test
+    void testConcurrentMissesAreSingleFlighted() throws Exception {
+        ResponseCache cache = new ResponseCache(1024, 1024, 5000);
+        HttpServletRequest leader = request();
+        intercept(cache, "limit=10", leader, response(new ByteArrayOutputStream()));
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        CompletableFuture<Result> follower = CompletableFuture.supplyAsync(
+                () -> intercept(cache, "limit=10", request(), response(body)));
+        for (int i = 0; i < 500 && cache.coalescedCount() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(follower.isDone(), "Identical miss waits for the first one");
+        respond(cache, leader, "shared");
+
+        assertSame(Result.SKIP_NO_CHAIN, follower.get(5, TimeUnit.SECONDS));
+        assertEquals("shared", body.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testResponsesWithCookiesAreNotCached() throws Exception {
+        ResponseCache cache = new ResponseCache(1024, 1024, 1000);
+        HttpServletRequest first = request();
+        intercept(cache, null, first, response(new ByteArrayOutputStream()));
+        ResponseCache.Pending pending = (ResponseCache.Pending) first.getAttribute(ResponseCache.PENDING_ATTRIBUTE);
+        pending.response.setHeader("Set-Cookie", "a=b");
+        respond(cache, first, "private");
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testHeadersAreReplayedWithoutHopByHopOnes() throws Exception {
+        ResponseCache cache = new ResponseCache(1024, 1024, 1000);
+        HttpServletRequest first = request();
+        Map<String, List<String>> original = new LinkedHashMap<>();
+        // set by an earlier filter, before the response is captured
+        original.put("Vary", new ArrayList<>(List.of("Accept-Language")));
+        intercept(cache, null, first, response(new ByteArrayOutputStream(), original));
+        ResponseCache.Pending pending = (ResponseCache.Pending) first.getAttribute(ResponseCache.PENDING_ATTRIBUTE);
+        pending.response.setHeader("Cache-Control", "public, max-age=60");
+        pending.response.setHeader("ETag", "\"v1\"");
+        pending.response.addHeader("Content-Language", "en");
+        pending.response.addHeader("Content-Language", "es");
+        pending.response.setHeader("Connection", "keep-alive");
+        pending.response.setHeader("Transfer-Encoding", "chunked");
+        respond(cache, first, "hello");
+
+        Map<String, List<String>> replayed = new LinkedHashMap<>();
+        assertSame(Result.SKIP_NO_CHAIN, intercept(cache, null, request(), response(new ByteArrayOutputStream(),
+                replayed)));
+        assertEquals(List.of("Accept-Language"), replayed.get("Vary"));
+        assertEquals(List.of("public, max-age=60"), replayed.get("Cache-Control"));
+        assertEquals(List.of("\"v1\""), replayed.get("ETag"));
+        assertEquals(List.of("en", "es"), replayed.get("Content-Language"));
+        assertFalse(replayed.containsKey("Connection"));
+        assertFalse(replayed.containsKey("Transfer-Encoding"));
+    }
+
+    @Test
+    void testNoStoreAndPrivateResponsesAreNotCached() throws Exception {
+        ResponseCache cache = new ResponseCache(1024, 1024, 1000);
+        HttpServletRequest noStore = request();
+        intercept(cache, "limit=1", noStore, response(new ByteArrayOutputStream()));
+        ((ResponseCache.Pending) noStore.getAttribute(ResponseCache.PENDING_ATTRIBUTE)).response
+                .addHeader("Cache-Control", "max-age=0, No-Store");
+        respond(cache, noStore, "secret");
+
+        HttpServletRequest earlier = request();
+        Map<String, List<String>> headers = new LinkedHashMap<>();
+        headers.put("Cache-Control", new ArrayList<>(List.of("private=\"Set-Cookie\", max-age=60")));
+        intercept(cache, "limit=2", earlier, response(new ByteArrayOutputStream(), headers));
+        respond(cache, earlier, "secret");
+
+        assertEquals(0, cache.size());
+        assertFalse(CapturingResponse.forbidsSharing("Cache-Control", "public, max-age=60"));
+        assertFalse(CapturingResponse.forbidsSharing("X-Note", "private"));
+    }
+
+    @Test
+    void testCacheIsBoundedAndInvalidatedPerConfig() throws Exception {
+        ResponseCache cache = new ResponseCache(10, 10, 1000);
+        for (int i = 0; i < 5; i++) {
+            HttpServletRequest request = request();
+            intercept(cache, "limit=" + i, request, response(new ByteArrayOutputStream()));
+            respond(cache, request, "1234");
+        }
+        assertTrue(cache.byteSize() <= 10);
+        assertTrue(cache.evictionCount() >= 3);
+
+        cache.invalidate(new UserProxyConfig(List.of(), "host-1"));
+        assertTrue(cache.size() > 0, "Other configs keep their responses");
+        cache.invalidate(CONFIG);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.byteSize());
+    }
+
+    @Test
+    void testOnlyListedParametersAreKeyed() {
+        assertEquals("/api/x?limit=1&limit=a%26b",
+                POLICY.keyOf("/api/x", new QueryParameters("q=1&limit=1&limit=a%26b")));
+        assertEquals("/api/x", ResponseCachePolicy.NONE.keyOf("/api/x", new QueryParameters("limit=1")));
+    }
+
+    private static Result intercept(ResponseCache cache, String query, HttpServletRequest request,
+            HttpServletResponse response) {
+        return cache.intercept("host-1", CONFIG, 0, POLICY, false, "/api/x", new QueryParameters(query), request,
+                response);
+    }
+
+    private static void respond(ResponseCache cache, HttpServletRequest request, String body) throws Exception {
+        ResponseCache.Pending pending = (ResponseCache.Pending) request.getAttribute(ResponseCache.PENDING_ATTRIBUTE);
+        pending.response.setContentType("application/json");
+        pending.response.getOutputStream().write(body.getBytes(StandardCharsets.UTF_8));
+        cache.complete(request);
+    }
+
+    private static HttpServletRequest request() {
+        Map<String, Object> attributes = new HashMap<>();
+        return (HttpServletRequest) Proxy.newProxyInstance(ResponseCacheTest.class.getClassLoader(),
+                new Class<?>[] { HttpServletRequest.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getAttribute":
+                            return attributes.get(args[0]);
+                        case "setAttribute":
+                            attributes.put((String) args[0], args[1]);
+                            return null;
+                        default:
+                            return null;
+                    }
+                });
+    }
+
+    private static HttpServletResponse response(ByteArrayOutputStream body) {
+        return response(body, new LinkedHashMap<>());
+    }
+
+    private static HttpServletResponse response(ByteArrayOutputStream body, Map<String, List<String>> headers) {
+        ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener listener) {
+            }
+        };
+        return (HttpServletResponse) Proxy.newProxyInstance(ResponseCacheTest.class.getClassLoader(),
+                new Class<?>[] { HttpServletResponse.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getOutputStream":
+                            return out;
+                        case "getStatus":
+                            return 200;
+                        case "setHeader":
+                            headers.put((String) args[0], new ArrayList<>(List.of((String) args[1])));
+                            return null;
+                        case "addHeader":
+                            headers.computeIfAbsent((String) args[0], k -> new ArrayList<>()).add((String) args[1]);
+                            return null;
+                        case "getHeaderNames":
+                            return new ArrayList<>(headers.keySet());
+                        case "getHeaders":
+                            return headers.getOrDefault(args[0], List.of());
+                        default:
+                            return null;
+                    }
+                });
+    }
+}
@@ -0,0 +1,56 @@
+package com.dotcms.userproxy.interceptor;
+
+import org.junit.jupiter.api.Test;
+
+import com.dotcms.userproxy.model.ResolvedToken;
+import com.dotcms.userproxy.model.UserProxyConfig;
+import com.dotcms.userproxy.model.UserProxyEntry;
+import com.dotcms.userproxy.util.IpNetworks;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for TokenRefresher.
+ */
+class TokenRefresherTest {
+
+    @Test
+    void testDueTokensAreRefreshedEveryRun() {
+        UserProxyEntry first = new UserProxyEntry("token-1", "GET", new String[] { "^/api" });
+        UserProxyEntry second = new UserProxyEntry("token-2", "GET", new String[] { "^/pages" });
+        UserProxyConfig config = new UserProxyConfig(List.of(first, second), "host-1");
+        TokenRefresher refresher = new TokenRefresher(() -> List.of(config), 0);
+
+        // the token API is not available here, so the tokens stay unresolved and are retried on the next run
+        assertEquals(2, refresher.run());
+        assertEquals(ResolvedToken.Status.UNRESOLVED, first.getResolvedToken().getStatus());
+        assertEquals(2, refresher.run());
+        refresher.shutdown();
+    }
+
+    @Test
+    void testTokensThatAreNotDueAreSkipped() {
+        UserProxyEntry validated = UserProxyEntry.builder(null, "GET", new String[] { "^/api" })
+                .restored(ResolvedToken.restored("token-1", "user-1", Long.MAX_VALUE, IpNetworks.ANY,
+                        System.currentTimeMillis()))
+                .build();
+        UserProxyEntry unresolved = new UserProxyEntry("token-2", "GET", new String[] { "^/pages" });
+        TokenRefresher refresher = new TokenRefresher(
+                () -> List.of(new UserProxyConfig(List.of(validated, unresolved), "host-1")), 60_000);
+
+        assertEquals(1, refresher.run());
+        refresher.shutdown();
+    }
+
+    @Test
+    void testFailuresDoNotStopTheRefresher() {
+        TokenRefresher refresher = new TokenRefresher(() -> {
+            throw new IllegalStateException("store unavailable");
+        }, 0);
+
+        assertEquals(0, refresher.run());
+        refresher.shutdown();
+    }
+}
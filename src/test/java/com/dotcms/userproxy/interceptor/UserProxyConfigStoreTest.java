@@ -0,0 +1,321 @@
+package com.dotcms.userproxy.interceptor;
+
+import org.junit.jupiter.api.Test;
+
+import com.dotcms.userproxy.model.UserProxyConfig;
+import com.dotcms.userproxy.model.UserProxyConfigPool;
+import com.dotcms.userproxy.model.UserProxyEntry;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for UserProxyConfigStore.
+ */
+class UserProxyConfigStoreTest {
+
+    @Test
+    void testColdLoadIsSharedAndCached() {
+        AtomicInteger loads = new AtomicInteger();
+        UserProxyConfigStore store = new UserProxyConfigStore(host -> {
+            loads.incrementAndGet();
+            return new UserProxyConfig(List.of(), host);
+        }, config -> {
+        }, 2, 5000);
+
+        UserProxyConfig first = store.get("host-1");
+        UserProxyConfig second = store.get("host-1");
+
+        assertEquals("host-1", first.getSourceHostId());
+        assertSame(first, second, "Second request should be served from the snapshot");
+        assertEquals(1, loads.get());
+        store.shutdown();
+    }
+
+    @Test
+    void testPreviousSnapshotIsServedWhileReloading() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        UserProxyConfigStore store = new UserProxyConfigStore(host -> {
+            if (loads.incrementAndGet() > 1) {
+                await(release);
+            }
+            return new UserProxyConfig(List.of(), host);
+        }, config -> {
+        }, 2, 5000);
+
+        UserProxyConfig original = store.get("host-1");
+        assertEquals(1, store.invalidate("host-1"));
+
+        // the rebuild is blocked, requests keep getting the previous snapshot without waiting
+        assertSame(original, store.get("host-1"));
+
+        release.countDown();
+        UserProxyConfig rebuilt = store.reload("host-1").get(5, TimeUnit.SECONDS).config;
+        assertNotSame(original, rebuilt);
+        assertSame(rebuilt, store.get("host-1"));
+        store.shutdown();
+    }
+
+    @Test
+    void testOlderBuildDoesNotReplaceNewerSnapshot() throws Exception {
+        CountDownLatch slowStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        UserProxyConfigStore store = new UserProxyConfigStore(host -> {
+            if (loads.incrementAndGet() == 1) {
+                slowStarted.countDown();
+                await(release);
+                return new UserProxyConfig(List.of(), "stale");
+            }
+            return new UserProxyConfig(List.of(), "fresh");
+        }, config -> {
+        }, 2, 0);
+
+        CompletableFuture<UserProxyConfigStore.Snapshot> slow = store.reload("host-1");
+        assertTrue(slowStarted.await(5, TimeUnit.SECONDS));
+        store.reload("host-1").get(5, TimeUnit.SECONDS);
+        release.countDown();
+        slow.get(5, TimeUnit.SECONDS);
+
+        assertEquals("fresh", store.get("host-1").getSourceHostId());
+        store.shutdown();
+    }
+
+    @Test
+    void testInvalidateOnlyAffectsDependentHosts() {
+        UserProxyConfigStore store = new UserProxyConfigStore(host -> new UserProxyConfig(List.of(),
+                host.startsWith("fallback") ? "SYSTEM_HOST" : host), config -> {
+        }, 2, 5000);
+
+        store.get("host-1");
+        store.get("host-2");
+        store.get("fallback-1");
+        store.get("fallback-2");
+
+        assertEquals(1, store.invalidate("host-1"));
+        assertEquals(2, store.invalidate("SYSTEM_HOST"));
+        store.shutdown();
+    }
+
+    @Test
+    void testStaleSnapshotIsServedWhileRefreshing() throws Exception {
+        CountDownLatch refreshStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        UserProxyConfigStore store = new UserProxyConfigStore(host -> {
+            if (loads.incrementAndGet() > 1) {
+                refreshStarted.countDown();
+                await(release);
+            }
+            return new UserProxyConfig(List.of(), host);
+        }, config -> {
+        }, 2, 5000, 1);
+
+        UserProxyConfig original = store.get("host-1");
+        Thread.sleep(5);
+
+        // stale: every request gets the old snapshot, only one refresh is started
+        assertSame(original, store.get("host-1"));
+        assertTrue(refreshStarted.await(5, TimeUnit.SECONDS));
+        assertSame(original, store.get("host-1"));
+        assertSame(original, store.get("host-1"));
+        assertEquals(2, loads.get());
+
+        release.countDown();
+        for (int i = 0; i < 500 && store.get("host-1") == original; i++) {
+            Thread.sleep(10);
+        }
+        assertNotSame(original, store.get("host-1"));
+        store.shutdown();
+    }
+
+    @Test
+    void testLoaderFailureKeepsLastGoodConfig() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        UserProxyConfigStore store = new UserProxyConfigStore(host -> {
+            if (loads.incrementAndGet() > 1) {
+                throw new IllegalStateException("secrets unavailable");
+            }
+            return new UserProxyConfig(List.of(), host);
+        }, config -> {
+        }, 2, 5000);
+
+        UserProxyConfig original = store.get("host-1");
+        CompletableFuture<UserProxyConfigStore.Snapshot> failed = store.reload("host-1");
+        assertThrows(Exception.class, () -> failed.get(5, TimeUnit.SECONDS));
+
+        assertSame(original, store.get("host-1"));
+        store.shutdown();
+    }
+
+    @Test
+    void testFailedReloadDropsRestoredConfig() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        UserProxyConfigStore store = new UserProxyConfigStore(host -> {
+            if (loads.incrementAndGet() == 1) {
+                throw new IllegalStateException("secrets unavailable");
+            }
+            return new UserProxyConfig(List.of(), host);
+        }, config -> {
+        }, 2, 5000);
+        UserProxyConfig restored = new UserProxyConfig(List.of(), "host-1", "hash-1");
+        assertTrue(store.restore("host-1", restored));
+
+        CompletableFuture<UserProxyConfigStore.Snapshot> failed = store.reload("host-1");
+        assertThrows(Exception.class, () -> failed.get(5, TimeUnit.SECONDS));
+
+        assertEquals(0, store.size(), "A restored config that cannot be confirmed is not kept");
+        assertEquals("host-1", store.get("host-1").getSourceHostId());
+        store.shutdown();
+    }
+
+    @Test
+    void testFailedColdLoadIsNotCached() {
+        AtomicInteger loads = new AtomicInteger();
+        UserProxyConfigStore store = new UserProxyConfigStore(host -> {
+            if (loads.incrementAndGet() == 1) {
+                throw new IllegalStateException("secrets unavailable");
+            }
+            return new UserProxyConfig(List.of(), host);
+        }, config -> {
+        }, 2, 5000);
+
+        assertSame(UserProxyConfig.EMPTY, store.get("host-1"));
+        assertEquals("host-1", store.get("host-1").getSourceHostId());
+        store.shutdown();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    void testHostsShareInternedConfigs() {
+        AtomicInteger compiled = new AtomicInteger();
+        String contentHash = "shared-" + System.nanoTime();
+        UserProxyConfigStore store = new UserProxyConfigStore(host -> UserProxyConfigPool.getInstance()
+                .intern(contentHash, () -> {
+                    compiled.incrementAndGet();
+                    return new UserProxyConfig(List.of(new UserProxyEntry("test-token", "GET",
+                            new String[] { "/api/.*" })), "system-host", contentHash);
+                }), config -> {
+                }, 2, 5000);
+
+        UserProxyConfig first = store.get("host-1");
+        assertSame(first, store.get("host-2"));
+        assertSame(first, store.get("host-3"));
+
+        assertEquals(1, compiled.get(), "Identical content is compiled once");
+        assertEquals(contentHash, first.getContentHash());
+        assertEquals(1, store.configs().size());
+        assertEquals(2, store.sharedHostCount());
+        assertEquals(2 * first.getEstimatedBytes(), store.sharedBytes());
+        store.shutdown();
+    }
+
+    @Test
+    void testRestoredConfigsAreServedUntilReloaded() throws Exception {
+        UserProxyConfigStore store = new UserProxyConfigStore(host -> new UserProxyConfig(List.of(), host,
+                "host-1".equals(host) ? "hash-1" : "changed"), config -> {
+                }, 2, 0);
+        UserProxyConfig restored = new UserProxyConfig(List.of(), "host-1", "hash-1");
+        assertTrue(store.restore("host-1", restored));
+        assertTrue(store.restore("host-2", new UserProxyConfig(List.of(), "host-2", "hash-2")));
+        assertFalse(store.restore("host-1", restored), "Only hosts that were not loaded are restored");
+
+        // served right away, and reloaded in the background
+        assertSame(restored, store.get("host-1"));
+        store.get("host-2");
+        for (int i = 0; i < 500 && store.restoredConfirmedCount() + store.restoredStaleCount() < 2; i++) {
+            Thread.sleep(10);
+        }
+        assertNotSame(restored, store.get("host-1"));
+        assertEquals(2, store.restoredCount());
+        assertEquals(1, store.restoredConfirmedCount());
+        assertEquals(1, store.restoredStaleCount());
+        store.shutdown();
+    }
+
+    @Test
+    void testColdRequestDoesNotWaitWithoutAWait() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        UserProxyConfigStore store = new UserProxyConfigStore(host -> {
+            await(release);
+            return new UserProxyConfig(List.of(), host);
+        }, config -> {
+        }, 2, 0);
+
+        assertSame(UserProxyConfig.EMPTY, store.get("host-1"));
+        release.countDown();
+        for (int i = 0; i < 500 && store.get("host-1") == UserProxyConfig.EMPTY; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals("host-1", store.get("host-1").getSourceHostId());
+        store.shutdown();
+    }
+
+    @Test
+    void testReloadsJoinALoadThatHasNotStarted() throws Exception {
+        CountDownLatch busy = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        UserProxyConfigStore store = new UserProxyConfigStore(host -> {
+            if ("busy".equals(host)) {
+                await(busy);
+            } else {
+                loads.incrementAndGet();
+            }
+            return new UserProxyConfig(List.of(), host);
+        }, config -> {
+        }, 1, 0);
+
+        // the only loader thread is busy, so the loads of host-1 are queued
+        CompletableFuture<UserProxyConfigStore.Snapshot> blocker = store.reload("busy");
+        CompletableFuture<UserProxyConfigStore.Snapshot> first = store.reload("host-1");
+        assertSame(first, store.reload("host-1"));
+        // every first load in flight is reloaded: the running one again, the queued one by joining it
+        assertEquals(2, store.invalidate("host-1"));
+        assertSame(first, store.reload("host-1"));
+
+        busy.countDown();
+        blocker.get(5, TimeUnit.SECONDS);
+        first.get(5, TimeUnit.SECONDS);
+        assertEquals(1, loads.get());
+        store.shutdown();
+    }
+
+    @Test
+    void testCurrentDoesNotReloadLoadedHosts() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        UserProxyConfigStore store = new UserProxyConfigStore(host -> {
+            if (loads.incrementAndGet() > 1) {
+                await(release);
+            }
+            return new UserProxyConfig(List.of(), host);
+        }, config -> {
+        }, 2, 0);
+
+        UserProxyConfig loaded = store.current("host-1").get(5, TimeUnit.SECONDS).config;
+        assertSame(loaded, store.current("host-1").get(5, TimeUnit.SECONDS).config);
+        assertEquals(1, loads.get());
+
+        // a pending reload is waited for instead of serving the snapshot it replaces
+        store.invalidate("host-1");
+        CompletableFuture<UserProxyConfigStore.Snapshot> current = store.current("host-1");
+        assertFalse(current.isDone());
+        release.countDown();
+        assertNotSame(loaded, current.get(5, TimeUnit.SECONDS).config);
+        assertEquals(2, loads.get());
+        store.shutdown();
+    }
+}
@@ -2,10 +2,17 @@ package com.dotcms.userproxy.interceptor;
 
 import org.junit.jupiter.api.Test;
 
+import com.dotcms.userproxy.model.QueryCondition;
+import com.dotcms.userproxy.model.QueryParameters;
+import com.dotcms.userproxy.model.RegexEngine;
+import com.dotcms.userproxy.model.UrlType;
+import com.dotcms.userproxy.model.UserProxyConfig;
 import com.dotcms.userproxy.model.UserProxyEntry;
 import com.dotcms.userproxy.model.UserProxyEntryMapper;
+import com.dotcms.userproxy.util.HttpMethods;
 
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -333,4 +340,193 @@ class UserProxyEntryMapperTest {
         assertTrue(patterns[1].matcher("/api/v1/content/_search/result").find());
         assertTrue(patterns[2].matcher("/api/v2/something").find());
     }
+
+    @Test
+    void testMethodMaskMatching() {
+        UserProxyEntry entry = new UserProxyEntry("test-token", "GET, post", new String[] { "/api/.*" });
+
+        assertTrue(entry.allowsMethod(HttpMethods.bitOf("GET")));
+        assertTrue(entry.allowsMethod(HttpMethods.bitOf("get")));
+        assertTrue(entry.allowsMethod(HttpMethods.bitOf("POST")));
+        assertFalse(entry.allowsMethod(HttpMethods.bitOf("PUT")));
+        assertFalse(entry.allowsMethod(HttpMethods.bitOf("UNKNOWN")));
+
+        assertTrue(entry.matches(HttpMethods.bitOf("GET"), "/api/v1/page"));
+        assertFalse(entry.matches(HttpMethods.bitOf("DELETE"), "/api/v1/page"));
+        assertFalse(entry.matches(HttpMethods.bitOf("GET"), "/other"));
+    }
+
+    @Test
+    void testCustomMethodIsMatched() {
+        UserProxyEntry entry = new UserProxyEntry("test-token", "PROPFIND", new String[] { "/webdav/.*" });
+
+        assertTrue(entry.matches(HttpMethods.bitOf("propfind"), "/webdav/folder"));
+        assertFalse(entry.matches(HttpMethods.bitOf("GET"), "/webdav/folder"));
+    }
+
+    @Test
+    void testRe2EngineMatchesLikeJava() {
+        String[] urls = { "/api/v1/page/json.*", "(?i)^/STATIC/.*\\.css$" };
+        UserProxyEntry java = UserProxyEntry.builder("test-token", "GET", urls).regexEngine(RegexEngine.JAVA).build();
+        UserProxyEntry re2 = UserProxyEntry.builder("test-token", "GET", urls).regexEngine(RegexEngine.RE2).build();
+
+        assertEquals(RegexEngine.RE2, re2.getRegexEngine());
+        assertTrue(re2.getRejectedUrls().isEmpty());
+        for (String uri : new String[] { "/api/v1/page/json", "/x/api/v1/page/json", "/static/a.css", "/static/a.js",
+                "/other" }) {
+            assertEquals(java.matchesUrl(uri), re2.matchesUrl(uri), uri);
+        }
+    }
+
+    @Test
+    void testRe2EngineRejectsUnsupportedPatterns() {
+        UserProxyEntry entry = UserProxyEntry.builder("test-token", "GET",
+                new String[] { "/(a)/\\1", "/api/(?=v1).*", "/ok/.*" }).regexEngine(RegexEngine.RE2).build();
+
+        assertEquals(List.of("/(a)/\\1", "/api/(?=v1).*"), entry.getRejectedUrls());
+        assertEquals(1, entry.getUrls().length);
+        assertTrue(entry.matchesUrl("/ok/page"));
+        assertFalse(entry.matchesUrl("/a/a"));
+    }
+
+    @Test
+    void testInvalidPatternIsRejected() {
+        UserProxyEntry entry = new UserProxyEntry("test-token", "GET", new String[] { "/api/(unclosed", "/ok/.*" });
+
+        assertEquals(List.of("/api/(unclosed"), entry.getRejectedUrls());
+        assertEquals(RegexEngine.JAVA, entry.getRegexEngine());
+        assertTrue(entry.matchesUrl("/ok/page"));
+    }
+
+    @Test
+    void testGlobUrlsMatchWholeUri() {
+        UserProxyEntry entry = UserProxyEntry.builder("test-token", "GET",
+                new String[] { "/api/v1/page/json*", "/pages/*/index.???" }).urlType(UrlType.GLOB).build();
+
+        assertEquals(UrlType.GLOB, entry.getUrlType());
+        assertTrue(entry.matchesUrl("/api/v1/page/json"));
+        assertTrue(entry.matchesUrl("/api/v1/page/json/about-us"));
+        assertTrue(entry.matchesUrl("/pages/a/b/index.vtl"));
+        assertFalse(entry.matchesUrl("/x/api/v1/page/json"));
+        assertFalse(entry.matchesUrl("/api/v1/page/jso"));
+        assertFalse(entry.matchesUrl("/pages/a/index.html"));
+        // regex characters are literals in a glob
+        assertFalse(UserProxyEntry.builder("test-token", "GET", new String[] { "/a.b*" }).urlType(UrlType.GLOB)
+                .build().matchesUrl("/axb"));
+    }
+
+    @Test
+    void testPrefixAndExactUrls() {
+        UserProxyEntry prefix = UserProxyEntry.builder("test-token", "GET", new String[] { "/api/v1/" })
+                .urlType(UrlType.PREFIX).build();
+        UserProxyEntry exact = UserProxyEntry.builder("test-token", "GET", new String[] { "/api/v1/graphql" })
+                .urlType(UrlType.EXACT).build();
+
+        assertTrue(prefix.matchesUrl("/api/v1/"));
+        assertTrue(prefix.matchesUrl("/api/v1/content"));
+        assertFalse(prefix.matchesUrl("/x/api/v1/content"));
+        assertFalse(prefix.matchesUrl("/api/v1"));
+        assertTrue(exact.matchesUrl("/api/v1/graphql"));
+        assertFalse(exact.matchesUrl("/api/v1/graphql/x"));
+        assertFalse(exact.matchesUrl("/api/v1/graph"));
+    }
+
+    @Test
+    void testNonRegexUrlsHaveEquivalentPatterns() {
+        String[] uris = { "/api/v1/page/json", "/api/v1/page/json/x", "/api/v1/pag", "/x/api/v1/page/json" };
+        for (UrlType type : new UrlType[] { UrlType.GLOB, UrlType.PREFIX, UrlType.EXACT }) {
+            UserProxyEntry entry = UserProxyEntry.builder("test-token", "GET", new String[] { "/api/v1/page/json*" })
+                    .urlType(type).build();
+            Pattern pattern = entry.getUrls()[0];
+            for (String uri : uris) {
+                assertEquals(pattern.matcher(uri).find(), entry.matchesUrl(uri), type + " " + uri);
+            }
+        }
+        assertEquals(UrlType.REGEX, UrlType.of(null));
+        assertEquals(UrlType.GLOB, UrlType.of(" Glob "));
+        assertEquals(UrlType.REGEX, UrlType.of("wildcard"));
+    }
+
+    @Test
+    void testQueryParametersAreParsedAndDecoded() {
+        QueryParameters query = new QueryParameters("limit=10&q=a+b%2Fc&flag&&limit=20&bad=%zz");
+
+        assertEquals(5, query.size());
+        assertTrue(query.has("flag"));
+        assertFalse(query.has("missing"));
+        assertEquals("", query.value(query.indexOf("flag", 0)));
+        assertEquals("a b/c", query.value(query.indexOf("q", 0)));
+        assertEquals("20", query.value(query.indexOf("limit", query.indexOf("limit", 0) + 1)));
+        assertEquals("%zz", query.value(query.indexOf("bad", 0)));
+        assertEquals(0, QueryParameters.EMPTY.size());
+    }
+
+    @Test
+    void testQueryConditions() {
+        UserProxyEntry entry = UserProxyEntry.builder("test-token", "GET", new String[] { "/api/search" })
+                .urlType(UrlType.EXACT)
+                .queryConditions(List.of(QueryCondition.present("q"), QueryCondition.equalTo("format", "json"),
+                        QueryCondition.matching("limit", "[1-9]|[1-4][0-9]|50")))
+                .build();
+
+        assertTrue(entry.hasQueryConditions());
+        assertTrue(entry.matchesQuery(new QueryParameters("q=x&format=json&limit=50")));
+        assertTrue(entry.matchesQuery(new QueryParameters("limit=500&q&limit=5&format=json")));
+        assertFalse(entry.matchesQuery(new QueryParameters("format=json&limit=5")));
+        assertFalse(entry.matchesQuery(new QueryParameters("q=x&format=xml&limit=5")));
+        // the regex has to match the whole value
+        assertFalse(entry.matchesQuery(new QueryParameters("q=x&format=json&limit=500")));
+        assertFalse(entry.matchesQuery(QueryParameters.EMPTY));
+
+        UserProxyEntry noConditions = new UserProxyEntry("test-token", "GET", new String[] { "/api/.*" });
+        assertFalse(noConditions.hasQueryConditions());
+        assertTrue(noConditions.matchesQuery(QueryParameters.EMPTY));
+    }
+
+    @Test
+    void testInvalidQueryConditionDisablesEntry() {
+        UserProxyEntry entry = UserProxyEntry.builder("test-token", "GET", new String[] { "/api/.*" })
+                .queryConditions(List.of(QueryCondition.matching("limit", "(unclosed"))).build();
+
+        assertTrue(entry.hasQueryConditions());
+        assertFalse(entry.matchesQuery(new QueryParameters("limit=1")));
+        assertTrue(entry.getUrlProblems().get(0).contains("limit~(unclosed"));
+    }
+
+    @Test
+    void testAllowedNetworksAreCompiledIntoTheConfig() {
+        UserProxyEntry limited = UserProxyEntry.builder("test-token", "GET", new String[] { "/api/.*" })
+                .allowedNetworks(List.of("10.0.0.0/8")).build();
+        UserProxyEntry invalid = UserProxyEntry.builder("test-token", "GET", new String[] { "/api/.*" })
+                .allowedNetworks(List.of("example.com/8")).build();
+        UserProxyEntry open = new UserProxyEntry("test-token", "GET", new String[] { "/api/.*" });
+        UserProxyConfig config = new UserProxyConfig(List.of(limited, invalid, open));
+
+        assertTrue(config.allowsAddress(0, "10.1.2.3"));
+        assertFalse(config.allowsAddress(0, "192.168.1.1"));
+        assertFalse(config.allowsAddress(1, "10.1.2.3"));
+        assertTrue(invalid.getUrlProblems().get(0).contains("example.com/8"));
+        assertTrue(config.allowsAddress(2, "192.168.1.1"));
+    }
+
+    @Test
+    void testTokenPlaceholdersAreResolved() {
+        String json = "{\n" +
+                "    \"config\": [\n" +
+                "        {\n" +
+                "            \"userToken\": \"{token1}\",\n" +
+                "            \"methods\": \"GET\",\n" +
+                "            \"urls\": [\"/dA/[0-9a-f-]{36}/.*\"]\n" +
+                "        }\n" +
+                "    ],\n" +
+                "    \"regexEngine\": \"java\"\n" +
+                "}";
+
+        List<UserProxyEntry> entries = UserProxyEntryMapper.parseJsonToEntries(json,
+                Map.of("token1", "secret-token", "token36", "unused"));
+
+        assertEquals(1, entries.size());
+        assertEquals("secret-token", new String(entries.get(0).getUserToken()));
+        assertEquals("/dA/[0-9a-f-]{36}/.*", entries.get(0).getUrls()[0].pattern());
+    }
 }
@@ -0,0 +1,80 @@
+package com.dotcms.userproxy.matcher;
+
+import org.junit.jupiter.api.Test;
+
+import com.dotcms.userproxy.model.RegexEngine;
+import com.dotcms.userproxy.model.UserProxyEntry;
+import com.dotcms.userproxy.util.HttpMethods;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for CombinedPatternMatcher. Every result is compared against LinearEntryMatcher, which is the reference
+ * first-match behavior.
+ */
+class CombinedPatternMatcherTest {
+
+    private static final List<UserProxyEntry> ENTRIES = List.of(
+            new UserProxyEntry("token-0", "POST", new String[] { "/api/v1/graphql" }),
+            new UserProxyEntry("token-1", "GET", new String[] { "/api/v1/page/json.*", "(/api)/v1/content/_search.*" }),
+            new UserProxyEntry("token-2", "GET, POST", new String[] { "/api/.*" }),
+            new UserProxyEntry("token-3", "GET", new String[] { "/(dup)/\\1" }),
+            new UserProxyEntry("token-4", "GET", new String[] { "(?i)/STATIC/.*" }),
+            new UserProxyEntry("token-5", "GET", new String[] { "^/pages/(?<section>[a-z]+)/.*" }),
+            new UserProxyEntry("token-6", "GET", new String[] {}),
+            new UserProxyEntry("token-7", "GET", new String[] { "/pages/.*" }));
+
+    private static final String[] METHODS = { "GET", "POST", "PUT", "get" };
+
+    private static final String[] URIS = {
+            "/api/v1/graphql",
+            "/api/v1/page/json/index",
+            "/api/v1/content/_search",
+            "/api/v2/other",
+            "/dup/dup",
+            "/static/main.css",
+            "/pages/news/today",
+            "/x/pages/news",
+            "/nothing",
+            "",
+    };
+
+    @Test
+    void testSameResultsAsLinearMatcher() {
+        CombinedPatternMatcher combined = new CombinedPatternMatcher(ENTRIES);
+        LinearEntryMatcher linear = new LinearEntryMatcher(ENTRIES);
+
+        for (String method : METHODS) {
+            for (String uri : URIS) {
+                int methodBit = HttpMethods.bitOf(method);
+                for (int from = 0; from <= ENTRIES.size(); from++) {
+                    assertEquals(linear.indexOf(methodBit, uri, from), combined.indexOf(methodBit, uri, from),
+                            method + " " + uri + " from " + from);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testFirstEntryWinsOverEarlierMatchPosition() {
+        List<UserProxyEntry> entries = List.of(
+                new UserProxyEntry("token-0", "GET", new String[] { "/b" }),
+                new UserProxyEntry("token-1", "GET", new String[] { "/a" }));
+
+        // "/a" matches earlier in the uri, but entry 0 is configured first
+        assertEquals(0, new CombinedPatternMatcher(entries).indexOf(HttpMethods.bitOf("GET"), "/a/b", 0));
+    }
+
+    @Test
+    void testUnsupportedPatternsAreDetected() {
+        assertFalse(CombinedPatternMatcher.isCombinable(new UserProxyEntry("t", "GET", new String[] { "(a)\\1" })));
+        assertFalse(CombinedPatternMatcher.isCombinable(new UserProxyEntry("t", "GET", new String[] { "(?<n>a)" })));
+        assertFalse(CombinedPatternMatcher.isCombinable(new UserProxyEntry("t", "GET", new String[] { "\\Q/a" })));
+        assertTrue(CombinedPatternMatcher.isCombinable(new UserProxyEntry("t", "GET", new String[] { "(?<=a)b" })));
+        assertTrue(CombinedPatternMatcher.isCombinable(new UserProxyEntry("t", "GET", new String[] { "(?i)/a" })));
+        assertFalse(CombinedPatternMatcher.isCombinable(
+                UserProxyEntry.builder("t", "GET", new String[] { "/a" }).regexEngine(RegexEngine.RE2).build()));
+    }
+}
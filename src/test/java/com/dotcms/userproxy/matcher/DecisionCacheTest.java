@@ -0,0 +1,43 @@
+package com.dotcms.userproxy.matcher;
+
+import org.junit.jupiter.api.Test;
+
+import com.dotcms.userproxy.util.HttpMethods;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for DecisionCache.
+ */
+class DecisionCacheTest {
+
+    @Test
+    void testDecisionsAreCachedPerMethod() {
+        DecisionCache cache = new DecisionCache(100);
+        int get = HttpMethods.bitOf("GET");
+        int post = HttpMethods.bitOf("POST");
+
+        cache.put(get, "/api/a", 2);
+        cache.put(get, "/api/b", -1);
+
+        assertEquals(Integer.valueOf(2), cache.get(get, "/api/a"));
+        assertEquals(Integer.valueOf(-1), cache.get(get, "/api/b"), "Misses are cached too");
+        assertNull(cache.get(post, "/api/a"), "Other methods have their own decisions");
+        assertNull(cache.get(get, "/api/c"));
+        assertEquals(2, cache.size());
+        assertEquals(2, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    void testEachMethodIsBounded() {
+        DecisionCache cache = new DecisionCache(10);
+        int get = HttpMethods.bitOf("GET");
+        for (int i = 0; i < 100; i++) {
+            cache.put(get, "/api/" + i, i);
+        }
+
+        assertTrue(cache.size() <= 10);
+        assertEquals(Integer.valueOf(99), cache.get(get, "/api/99"));
+    }
+}
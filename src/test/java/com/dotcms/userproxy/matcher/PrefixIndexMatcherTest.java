@@ -0,0 +1,122 @@
+package com.dotcms.userproxy.matcher;
+
+import org.junit.jupiter.api.Test;
+
+import com.dotcms.userproxy.model.UrlType;
+import com.dotcms.userproxy.model.UserProxyEntry;
+import com.dotcms.userproxy.util.HttpMethods;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for PrefixIndexMatcher and the literal extraction it relies on.
+ */
+class PrefixIndexMatcherTest {
+
+    private static final List<UserProxyEntry> ENTRIES = List.of(
+            new UserProxyEntry("token-0", "GET", new String[] { "/api/v1/page/json.*", "/api/v1/content/_search.*" }),
+            new UserProxyEntry("token-1", "GET", new String[] { "^/api/v1/graphql" }),
+            new UserProxyEntry("token-2", "GET", new String[] { "/pages/prot?ected/.*" }),
+            new UserProxyEntry("token-3", "GET", new String[] { "(?i)/static/.*" }),
+            new UserProxyEntry("token-4", "GET", new String[] { "/a|/b" }));
+
+    private static final String[] URIS = {
+            "/api/v1/page/json/index",
+            "/api/v1/content/_search",
+            "/prefix/api/v1/page/json",
+            "/api/v1/graphql",
+            "/x/api/v1/graphql",
+            "/pages/protected/secret",
+            "/pages/proected/secret",
+            "/STATIC/main.css",
+            "/b/c",
+            "/nothing/here",
+            "",
+    };
+
+    @Test
+    void testLeadingLiteral() {
+        assertEquals("/api/v1/page/json", RegexLiterals.leadingLiteral("/api/v1/page/json.*"));
+        assertEquals("/api/v1/page/jso", RegexLiterals.leadingLiteral("/api/v1/page/json*"));
+        assertEquals("/api/v1/graphql", RegexLiterals.leadingLiteral("^/api/v1/graphql"));
+        assertEquals("/api/v1.json", RegexLiterals.leadingLiteral("/api/v1\\.json"));
+        assertEquals("/api/v", RegexLiterals.leadingLiteral("/api/v\\d+/"));
+        assertEquals("/api/v", RegexLiterals.leadingLiteral("/api/v+/"));
+        assertEquals("/api/", RegexLiterals.leadingLiteral("/api/(a|b)"));
+        assertEquals("", RegexLiterals.leadingLiteral("/a|/b"));
+        assertEquals("", RegexLiterals.leadingLiteral("(?i)/static/.*"));
+        assertEquals("", RegexLiterals.leadingLiteral(".*"));
+        assertEquals("", RegexLiterals.leadingLiteral("^/api\\Q(\\E|^/other"));
+        assertEquals("", RegexLiterals.leadingLiteral("/api/\\Qv1.json\\E"));
+        assertTrue(RegexLiterals.hasTopLevelAlternation("^/api\\Q(\\E|^/other"));
+        assertFalse(RegexLiterals.hasTopLevelAlternation("^/api\\Q|\\E/other"));
+    }
+
+    @Test
+    void testAnchored() {
+        assertTrue(RegexLiterals.isAnchored("^/api"));
+        assertTrue(RegexLiterals.isAnchored("\\A/api"));
+        assertFalse(RegexLiterals.isAnchored("/api"));
+    }
+
+    @Test
+    void testCandidatesIncludeEveryMatchingEntry() {
+        PrefixIndexMatcher matcher = new PrefixIndexMatcher(ENTRIES);
+
+        for (String uri : URIS) {
+            long[] candidates = matcher.candidates(uri);
+            for (int i = 0; i < ENTRIES.size(); i++) {
+                boolean isCandidate = (candidates[i >>> 6] & (1L << i)) != 0;
+                if (matchesAny(ENTRIES.get(i), uri)) {
+                    assertTrue(isCandidate, "entry " + i + " should be a candidate for " + uri);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testCandidatesSkipEntriesWithoutLiteralInUri() {
+        PrefixIndexMatcher matcher = new PrefixIndexMatcher(ENTRIES);
+
+        long[] candidates = matcher.candidates("/nothing/here");
+
+        // only the entries without a usable literal are left
+        assertEquals((1L << 3) | (1L << 4), candidates[0]);
+
+        // anchored patterns are only looked up at the start of the uri
+        assertEquals(0, matcher.candidates("/x/api/v1/graphql")[0] & (1L << 1));
+        assertNotEquals(0L, matcher.candidates("/api/v1/graphql")[0] & (1L << 1));
+
+        // unanchored patterns are looked up anywhere in the uri
+        assertNotEquals(0L, matcher.candidates("/prefix/api/v1/page/json")[0] & 1L);
+    }
+
+    private static boolean matchesAny(UserProxyEntry entry, String uri) {
+        for (Pattern p : entry.getUrls()) {
+            if (p.matcher(uri).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    void testNonRegexUrlsAreIndexed() {
+        List<UserProxyEntry> entries = List.of(
+                UserProxyEntry.builder("token-0", "GET", new String[] { "/api/v1/page/json*" })
+                        .urlType(UrlType.GLOB).build(),
+                UserProxyEntry.builder("token-1", "GET", new String[] { "/api/v1/graphql" })
+                        .urlType(UrlType.EXACT).build());
+        PrefixIndexMatcher matcher = new PrefixIndexMatcher(entries);
+
+        assertEquals(0L, matcher.candidates("/nothing/here")[0]);
+        // translated to anchored patterns, so only looked up at the start of the uri
+        assertEquals(0L, matcher.candidates("/x/api/v1/page/json")[0]);
+        assertEquals(1L, matcher.candidates("/api/v1/page/json/x")[0]);
+        assertEquals(1, matcher.indexOf(HttpMethods.bitOf("GET"), "/api/v1/graphql", 0));
+        assertEquals(-1, matcher.indexOf(HttpMethods.bitOf("GET"), "/api/v1/graphql/x", 0));
+    }
+}
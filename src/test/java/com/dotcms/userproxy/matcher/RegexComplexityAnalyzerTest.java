@@ -0,0 +1,73 @@
+package com.dotcms.userproxy.matcher;
+
+import org.junit.jupiter.api.Test;
+
+import com.dotcms.userproxy.model.UserProxyEntry;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for RegexComplexityAnalyzer.
+ */
+class RegexComplexityAnalyzerTest {
+
+    private static final RegexComplexityAnalyzer STATIC_ONLY = new RegexComplexityAnalyzer(0);
+
+    @Test
+    void testStaticWarnings() {
+        assertTrue(warnings(".*\\.json").get(0).contains("unanchored .*"));
+        assertTrue(warnings("(a|ab)*c").get(0).contains("overlapping"));
+        assertTrue(warnings("^/x/.*.*y").get(0).contains("adjacent unbounded"));
+        assertTrue(warnings("(\\w+\\s?)*").get(0).contains("nested quantifier"));
+        assertTrue(warnings("(?i).*/secret").get(0).contains("unanchored .*"));
+    }
+
+    @Test
+    void testSafePatternsHaveNoWarnings() {
+        assertEquals(List.of(), warnings("/api/v1/page/json.*"));
+        assertEquals(List.of(), warnings("^/api/v1/graphql"));
+        assertEquals(List.of(), warnings("^.*\\.json$"));
+        assertEquals(List.of(), warnings("(?>a+)+b"));
+        assertEquals(List.of(), warnings("/a|/b"));
+    }
+
+    @Test
+    void testPatternOverBudgetIsRejected() {
+        RegexComplexityAnalyzer analyzer = new RegexComplexityAnalyzer(100_000);
+
+        RegexComplexityAnalyzer.Result result = analyzer.analyze(Pattern.compile("(x+x+)+y"));
+
+        assertTrue(result.isRejected());
+        assertTrue(result.getRejection().contains("100000 character reads"));
+        assertTrue(new RegexComplexityAnalyzer(100_000).analyze(Pattern.compile("(x+x+)+y")).isRejected(),
+                "The budget counts reads, so the outcome does not depend on timing");
+    }
+
+    @Test
+    void testPatternWithinBudgetIsAccepted() {
+        RegexComplexityAnalyzer analyzer = new RegexComplexityAnalyzer(100_000);
+
+        assertFalse(analyzer.analyze(Pattern.compile("/api/v1/.*")).isRejected());
+        assertFalse(analyzer.analyze(Pattern.compile("^/api/v1/content/_search.*")).isRejected());
+    }
+
+    @Test
+    void testEntryDropsRejectedPatterns() {
+        RegexComplexityAnalyzer analyzer = new RegexComplexityAnalyzer(100_000);
+
+        UserProxyEntry entry = UserProxyEntry.builder("token", "GET", new String[] { "(x+x+)+y", "/api/.*" })
+                .analyzer(analyzer).build();
+
+        assertEquals(List.of("(x+x+)+y"), entry.getRejectedUrls());
+        assertEquals(1, entry.getUrls().length);
+        assertTrue(entry.getUrlProblems().stream().anyMatch(p -> p.startsWith("(x+x+)+y") && p.contains("ignored")));
+        assertFalse(entry.getUrlProblems().stream().anyMatch(p -> p.contains("token")));
+    }
+
+    private static List<String> warnings(String regex) {
+        return STATIC_ONLY.analyze(Pattern.compile(regex)).getWarnings();
+    }
+}
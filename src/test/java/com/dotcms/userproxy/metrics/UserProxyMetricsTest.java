@@ -0,0 +1,102 @@
+package com.dotcms.userproxy.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import com.dotcms.userproxy.model.UserProxyConfig;
+import com.dotcms.userproxy.model.UserProxyEntry;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for UserProxyMetrics and LatencyHistogram.
+ */
+class UserProxyMetricsTest {
+
+    @Test
+    void testHistogramPercentilesAreBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(100);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(5000);
+        }
+
+        assertEquals(100, histogram.count());
+        // 100 falls in [64, 127], 5000 in [4096, 8191]
+        assertEquals(127, histogram.percentile(50));
+        assertEquals(127, histogram.percentile(90));
+        assertEquals(5000, histogram.percentile(99), "Percentiles are capped at the recorded maximum");
+        assertEquals(5000L, histogram.toMap().get("maxNanos"));
+        assertEquals(0, new LatencyHistogram().percentile(99));
+    }
+
+    @Test
+    void testHostAndEntryCounters() {
+        UserProxyMetrics metrics = new UserProxyMetrics(true);
+        UserProxyConfig config = new UserProxyConfig(List.of(
+                new UserProxyEntry("token-0", "GET", new String[] { "/api/.*" }),
+                new UserProxyEntry("token-1", "GET", new String[] { "/pages/.*" })));
+        UserProxyMetrics.HostMetrics host = metrics.host("host-1");
+
+        host.recordMatch(config, 1);
+        metrics.recordTokenResolution(host, false, 1000);
+        metrics.recordRequest(host, true, false, System.nanoTime());
+        host.recordMatch(config, 1);
+        metrics.recordTokenResolution(host, true, 1000);
+        metrics.recordRequest(host, true, true, System.nanoTime());
+        metrics.recordExistingAuth(System.nanoTime());
+
+        Map<String, Long> counters = metrics.getCounters();
+        assertEquals(3L, counters.get("requests"));
+        assertEquals(1L, counters.get("existingAuth"));
+        assertEquals(1L, counters.get("proxied"));
+        assertEquals(1L, counters.get("unmatched"));
+        assertEquals(1L, counters.get("tokenFailures"));
+        assertEquals(2L, counters.get("host.host-1.requests"));
+        assertEquals(0L, counters.get("host.host-1.entry.0.matches"));
+        assertEquals(2L, counters.get("host.host-1.entry.1.matches"));
+        assertEquals(2L, metrics.getTokenResolutionLatency().get("count"));
+    }
+
+    @Test
+    void testEntryCountersStartOverWithNewConfig() {
+        UserProxyMetrics metrics = new UserProxyMetrics(true);
+        List<UserProxyEntry> entries = List.of(new UserProxyEntry("token-0", "GET", new String[] { "/api/.*" }));
+        UserProxyMetrics.HostMetrics host = metrics.host("host-1");
+
+        host.recordMatch(new UserProxyConfig(entries), 0);
+        host.recordMatch(new UserProxyConfig(entries), 0);
+
+        assertEquals(1L, metrics.getCounters().get("host.host-1.entry.0.matches"));
+    }
+
+    @Test
+    void testGaugesAreReported() {
+        UserProxyMetrics metrics = new UserProxyMetrics(false);
+        metrics.registerGauge("userCache.size", () -> 42);
+
+        assertEquals(42L, metrics.getCounters().get("userCache.size"));
+    }
+
+    @Test
+    void testIsValidMXBean() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.dotcms.userproxy:type=UserProxyMetricsTest");
+        server.registerMBean(new UserProxyMetrics(true), name);
+        try {
+            assertEquals(Boolean.TRUE, server.getAttribute(name, "Enabled"));
+            assertNotNull(server.getAttribute(name, "Counters"));
+            assertNotNull(server.getAttribute(name, "InterceptLatency"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
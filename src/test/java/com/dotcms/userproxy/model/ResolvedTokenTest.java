@@ -0,0 +1,193 @@
+package com.dotcms.userproxy.model;
+
+import org.junit.jupiter.api.Test;
+
+import com.dotcms.auth.providers.jwt.beans.ApiToken;
+import com.dotcms.auth.providers.jwt.beans.JWToken;
+import com.dotcms.auth.providers.jwt.services.ApiTokenAPI;
+import com.dotcms.userproxy.util.CidrTrie;
+import com.dotcms.userproxy.util.IpNetworks;
+import com.dotmarketing.business.UserAPI;
+import com.liferay.portal.model.User;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests for ResolvedToken.
+ */
+class ResolvedTokenTest {
+
+    private static final char[] TOKEN = "a.b.c".toCharArray();
+
+    @Test
+    void testValidTokenResolvesItsUser() throws Exception {
+        User user = user("user-1", true);
+        ResolvedToken token = ResolvedToken.resolve(TOKEN, tokens(jwt("user-1", null, null)), users(user));
+
+        assertEquals(ResolvedToken.Status.VALID, token.getStatus());
+        assertEquals("user-1", token.getUserId());
+        assertEquals(Long.MAX_VALUE, token.getExpiresAtMillis());
+        assertSame(user, token.userFor("10.0.0.1"));
+        assertSame(user, token.userFor(null));
+    }
+
+    @Test
+    void testAddressIsCheckedByTheToken() throws Exception {
+        User user = user("user-1", true);
+        JWToken jwt = jwt("user-1", "10.0.0.0/8", null);
+        when(jwt.isValid("10.1.2.3")).thenReturn(true);
+        ResolvedToken token = ResolvedToken.resolve(TOKEN, tokens(jwt), users(user));
+
+        assertEquals(List.of("10.0.0.0/8"), token.getAllowedNetworks().getCidrs());
+        assertSame(user, token.userFor("10.1.2.3"));
+        assertNull(token.userFor("192.168.0.1"));
+    }
+
+    @Test
+    void testUnparseableNetworkIsLeftToTheToken() throws Exception {
+        User user = user("user-1", true);
+        JWToken jwt = jwt("user-1", "10.0.0.0/8 ; office", null);
+        when(jwt.isValid("10.1.2.3")).thenReturn(true);
+        ResolvedToken token = ResolvedToken.resolve(TOKEN, tokens(jwt), users(user));
+
+        assertEquals(ResolvedToken.Status.VALID, token.getStatus());
+        assertTrue(token.getAllowedNetworks().isAny());
+        assertSame(user, token.userFor("10.1.2.3"));
+        assertNull(token.userFor("192.168.0.1"));
+    }
+
+    @Test
+    void testExpiredTokenHasNoUser() throws Exception {
+        ResolvedToken token = ResolvedToken.resolve(TOKEN,
+                tokens(jwt("user-1", null, new Date(System.currentTimeMillis() - 1000))), users(user("user-1", true)));
+
+        assertEquals(ResolvedToken.Status.VALID, token.getStatus());
+        assertNull(token.userFor("10.0.0.1"));
+        assertTrue(token.isDue(60_000, System.currentTimeMillis()));
+    }
+
+    @Test
+    void testRejectedTokenOrInactiveUserIsInvalid() throws Exception {
+        ResolvedToken rejected = ResolvedToken.resolve(TOKEN, tokens(null), users(user("user-1", true)));
+        ResolvedToken inactive = ResolvedToken.resolve(TOKEN, tokens(jwt("user-1", null, null)),
+                users(user("user-1", false)));
+
+        assertEquals(ResolvedToken.Status.INVALID, rejected.getStatus());
+        assertNotNull(rejected.getProblem());
+        assertEquals(ResolvedToken.Status.INVALID, inactive.getStatus());
+        assertEquals("user-1", inactive.getUserId());
+        assertNull(inactive.userFor("10.0.0.1"));
+    }
+
+    @Test
+    void testUnavailableApiLeavesTokenUnresolved() throws Exception {
+        ApiTokenAPI failing = mock(ApiTokenAPI.class);
+        when(failing.fromJwt(anyString())).thenThrow(new IllegalStateException("unavailable"));
+        UserAPI failingUsers = mock(UserAPI.class);
+        when(failingUsers.loadUserById(anyString())).thenThrow(new IllegalStateException("unavailable"));
+
+        assertSame(ResolvedToken.UNRESOLVED, ResolvedToken.resolve(TOKEN, failing, users(user("user-1", true))));
+        assertSame(ResolvedToken.UNRESOLVED,
+                ResolvedToken.resolve(TOKEN, tokens(jwt("user-1", null, null)), failingUsers));
+        assertSame(ResolvedToken.UNRESOLVED, ResolvedToken.resolve(TOKEN));
+    }
+
+    @Test
+    void testRestoredTokenHasNoUserUntilConfirmed() throws Exception {
+        ResolvedToken restored = ResolvedToken.restored("token-1", "user-1", Long.MAX_VALUE, IpNetworks.ANY,
+                System.currentTimeMillis());
+        assertEquals(ResolvedToken.Status.VALID, restored.getStatus());
+        assertTrue(restored.isUnconfirmed());
+        assertNull(restored.userFor("10.0.0.1"), "Restored tokens are not trusted until they are confirmed");
+
+        User user = user("user-1", true);
+        ResolvedToken confirmed = ResolvedToken.confirm(restored, apiTokens(apiToken("user-1", false)), users(user));
+        assertEquals(ResolvedToken.Status.VALID, confirmed.getStatus());
+        assertFalse(confirmed.isUnconfirmed());
+        assertEquals("token-1", confirmed.getTokenId());
+        assertSame(user, confirmed.userFor("10.0.0.1"));
+        assertEquals(ResolvedToken.Status.INVALID,
+                ResolvedToken.restored(null, "user-1", 0, IpNetworks.ANY, 0).getStatus());
+    }
+
+    @Test
+    void testRevokedOrReassignedRestoredTokenIsInvalid() throws Exception {
+        ResolvedToken restored = ResolvedToken.restored("token-1", "user-1", Long.MAX_VALUE, IpNetworks.ANY, 0);
+        UserAPI users = users(user("user-1", true));
+
+        assertEquals(ResolvedToken.Status.INVALID,
+                ResolvedToken.confirm(restored, apiTokens(apiToken("user-1", true)), users).getStatus());
+        assertEquals(ResolvedToken.Status.INVALID,
+                ResolvedToken.confirm(restored, apiTokens(apiToken("user-2", false)), users).getStatus());
+        assertEquals(ResolvedToken.Status.INVALID,
+                ResolvedToken.confirm(restored, apiTokens(null), users).getStatus());
+        assertEquals(ResolvedToken.Status.INVALID, ResolvedToken.confirm(restored,
+                apiTokens(apiToken("user-1", false)), users(user("user-1", false))).getStatus());
+
+        ApiTokenAPI failing = mock(ApiTokenAPI.class);
+        when(failing.findApiToken(anyString())).thenThrow(new IllegalStateException("unavailable"));
+        assertSame(restored, ResolvedToken.confirm(restored, failing, users));
+        assertSame(restored, ResolvedToken.confirm(restored));
+    }
+
+    @Test
+    void testTokenNetworksLimitEntriesWithoutTheirOwn() {
+        UserProxyEntry fromToken = UserProxyEntry.builder(null, "GET", new String[] { "^/api" })
+                .restored(ResolvedToken.restored("token-1", "user-1", Long.MAX_VALUE,
+                        IpNetworks.of(List.of("10.0.0.0/8")), 0))
+                .build();
+        UserProxyEntry open = new UserProxyEntry("t", "GET", new String[] { "^/api" });
+
+        CidrTrie trie = UserProxyConfig.buildNetworks(List.of(fromToken, open), true);
+        assertTrue(trie.allows(0, "10.1.2.3"));
+        assertFalse(trie.allows(0, "192.168.0.1"));
+        assertTrue(trie.allows(1, "192.168.0.1"));
+        assertNull(UserProxyConfig.buildNetworks(List.of(fromToken, open), false));
+    }
+
+    private static User user(String userId, boolean active) {
+        User user = mock(User.class);
+        when(user.getUserId()).thenReturn(userId);
+        when(user.isActive()).thenReturn(active);
+        return user;
+    }
+
+    private static JWToken jwt(String userId, String allowNetwork, Date expires) {
+        JWToken jwt = mock(JWToken.class);
+        when(jwt.getUserId()).thenReturn(userId);
+        when(jwt.getAllowNetwork()).thenReturn(allowNetwork);
+        when(jwt.getExpiresDate()).thenReturn(expires);
+        return jwt;
+    }
+
+    private static ApiToken apiToken(String userId, boolean revoked) {
+        ApiToken token = mock(ApiToken.class);
+        when(token.getId()).thenReturn("token-1");
+        when(token.getUserId()).thenReturn(userId);
+        when(token.isRevoked()).thenReturn(revoked);
+        return token;
+    }
+
+    private static ApiTokenAPI apiTokens(ApiToken token) {
+        ApiTokenAPI tokens = mock(ApiTokenAPI.class);
+        when(tokens.findApiToken(anyString())).thenReturn(Optional.ofNullable(token));
+        return tokens;
+    }
+
+    private static ApiTokenAPI tokens(JWToken jwt) {
+        ApiTokenAPI tokens = mock(ApiTokenAPI.class);
+        when(tokens.fromJwt(anyString())).thenReturn(Optional.ofNullable(jwt));
+        return tokens;
+    }
+
+    private static UserAPI users(User user) throws Exception {
+        UserAPI users = mock(UserAPI.class);
+        when(users.loadUserById(anyString())).thenReturn(user);
+        return users;
+    }
+}
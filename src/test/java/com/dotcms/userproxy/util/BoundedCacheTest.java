@@ -0,0 +1,95 @@
+package com.dotcms.userproxy.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for BoundedCache.
+ */
+class BoundedCacheTest {
+
+    @Test
+    void testGetReturnsCachedValue() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, 60, TimeUnit.SECONDS);
+        cache.put("a", "1");
+
+        assertEquals("1", cache.get("a"));
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.missCount());
+    }
+
+    @Test
+    void testExpiredValueIsNotReturned() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, 60, TimeUnit.SECONDS);
+        cache.put("a", "1", 0);
+
+        assertNull(cache.get("a"), "Entry with zero ttl should be expired");
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testSizeIsBounded() {
+        BoundedCache<Integer, Integer> cache = new BoundedCache<>(100, 60, TimeUnit.SECONDS);
+        for (int i = 0; i < 1000; i++) {
+            cache.put(i, i);
+        }
+
+        assertTrue(cache.size() <= 100, "Cache should not grow past its max size");
+        assertEquals(900, cache.evictionCount());
+    }
+
+    @Test
+    void testInvalidate() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, 60, TimeUnit.SECONDS);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.put("c", "3");
+
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+
+        cache.invalidateIf(k -> k.equals("b"));
+        assertNull(cache.get("b"));
+        assertEquals("3", cache.get("c"));
+
+        cache.invalidateAll();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testRecentlyReadEntriesSurviveEviction() {
+        BoundedCache<Integer, Integer> cache = new BoundedCache<>(100, 60, TimeUnit.SECONDS);
+        for (int i = 0; i < 100; i++) {
+            cache.put(i, i);
+        }
+        for (int i = 100; i < 10_000; i++) {
+            assertEquals(Integer.valueOf(0), cache.get(0), "A key read between inserts is never evicted");
+            assertEquals(Integer.valueOf(50), cache.get(50));
+            cache.put(i, i);
+        }
+
+        assertTrue(cache.size() <= 100);
+        assertNull(cache.get(1), "Keys that are not read are evicted in insertion order");
+        assertEquals(Integer.valueOf(9_999), cache.get(9_999));
+    }
+
+    @Test
+    void testWeightIsBounded() {
+        BoundedCache<String, String> cache = new BoundedCache<>(10, 60, TimeUnit.SECONDS, String::length);
+        cache.put("a", "1234");
+        cache.put("b", "1234");
+        cache.put("a", "12");
+        assertEquals(6, cache.weight());
+
+        cache.put("c", "12345");
+        assertTrue(cache.weight() <= 10);
+        assertEquals(1, cache.evictionCount());
+
+        cache.invalidateIf(k -> true);
+        assertEquals(0, cache.weight());
+    }
+}
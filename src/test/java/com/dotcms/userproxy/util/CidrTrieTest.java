@@ -0,0 +1,85 @@
+package com.dotcms.userproxy.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for CidrTrie.
+ */
+class CidrTrieTest {
+
+    @Test
+    void testEntriesAllowOnlyTheirNetworks() {
+        CidrTrie trie = CidrTrie.builder(4)
+                .add(0, IpNetworks.parse("10.0.0.0/8, 192.168.1.7"))
+                .add(1, IpNetworks.parse("10.1.0.0/16"))
+                .add(2, IpNetworks.ANY)
+                .build();
+
+        assertTrue(trie.allows(0, "10.200.3.4"));
+        assertTrue(trie.allows(0, "192.168.1.7"));
+        assertFalse(trie.allows(0, "192.168.1.8"));
+        assertTrue(trie.allows(1, "10.1.2.3"));
+        assertFalse(trie.allows(1, "10.2.2.3"));
+        assertTrue(trie.allows(2, "203.0.113.9"));
+        assertTrue(trie.allows(3, "203.0.113.9"), "Entries without networks allow every address");
+        assertFalse(trie.allows(0, "not-an-ip"));
+        assertFalse(trie.allows(0, null));
+    }
+
+    @Test
+    void testIpv6AndMappedAddresses() {
+        CidrTrie trie = CidrTrie.builder(2)
+                .add(0, IpNetworks.parse("2001:db8::/32"))
+                .add(1, IpNetworks.parse("172.16.0.0/12"))
+                .build();
+
+        assertTrue(trie.allows(0, "2001:db8:1::5"));
+        assertFalse(trie.allows(0, "2001:db9::1"));
+        assertFalse(trie.allows(0, "172.16.0.1"));
+        assertTrue(trie.allows(1, "::ffff:172.16.0.1"));
+        assertFalse(trie.allows(1, "::1"));
+    }
+
+    @Test
+    void testNoneAllowsNothing() {
+        CidrTrie trie = CidrTrie.builder(1).add(0, IpNetworks.NONE).build();
+
+        assertFalse(trie.allows(0, "127.0.0.1"));
+        assertFalse(trie.allows(0, "::1"));
+    }
+
+    @Test
+    void testManyEntriesAgreeWithIpNetworks() {
+        int size = 200;
+        CidrTrie.Builder builder = CidrTrie.builder(size);
+        IpNetworks[] networks = new IpNetworks[size];
+        for (int i = 0; i < size; i++) {
+            networks[i] = IpNetworks.of(List.of("10." + i + ".0.0/" + (16 + i % 9), "fd00:" + i + "::/40"));
+            builder.add(i, networks[i]);
+        }
+        CidrTrie trie = builder.build();
+
+        String[] addresses = {"10.7.0.1", "10.7.128.1", "10.150.255.255", "10.199.1.1", "11.0.0.1",
+                "fd00:7::1", "fd00:7:ff::1", "fd00:c7::9"};
+        for (int i = 0; i < size; i++) {
+            for (String address : addresses) {
+                assertEquals(networks[i].contains(address), trie.allows(i, address), i + " " + address);
+            }
+        }
+    }
+
+    @Test
+    void testParseV4() {
+        assertEquals(0x0A000001L, CidrTrie.parseV4("10.0.0.1"));
+        assertEquals(0xFFFFFFFFL, CidrTrie.parseV4("255.255.255.255"));
+        assertEquals(-1, CidrTrie.parseV4("256.0.0.1"));
+        assertEquals(-1, CidrTrie.parseV4("10.0.0"));
+        assertEquals(-1, CidrTrie.parseV4("10..0.1"));
+        assertEquals(-1, CidrTrie.parseV4("10.0.0.1."));
+        assertEquals(-1, CidrTrie.parseV4("::1"));
+    }
+}
@@ -0,0 +1,49 @@
+package com.dotcms.userproxy.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for IpNetworks.
+ */
+class IpNetworksTest {
+
+    @Test
+    void testEmptyAndZeroPrefixAllowEverything() {
+        assertSame(IpNetworks.ANY, IpNetworks.parse(null));
+        assertSame(IpNetworks.ANY, IpNetworks.parse(" "));
+        assertSame(IpNetworks.ANY, IpNetworks.parse("0.0.0.0/0"));
+        assertTrue(IpNetworks.ANY.contains("203.0.113.9"));
+    }
+
+    @Test
+    void testCidrRanges() {
+        IpNetworks networks = IpNetworks.parse("192.168.1.0/24, 10.0.0.0/9,198.51.100.7");
+
+        assertTrue(networks.contains("192.168.1.200"));
+        assertFalse(networks.contains("192.168.2.1"));
+        assertTrue(networks.contains("10.127.255.255"));
+        assertFalse(networks.contains("10.128.0.0"));
+        assertTrue(networks.contains("198.51.100.7"));
+        assertFalse(networks.contains("198.51.100.8"));
+        assertFalse(networks.contains("::1"));
+        assertFalse(networks.contains("not-an-ip"));
+        assertFalse(networks.contains(null));
+    }
+
+    @Test
+    void testIpv6Ranges() {
+        IpNetworks networks = IpNetworks.parse("2001:db8::/32");
+
+        assertTrue(networks.contains("2001:db8:1::5"));
+        assertFalse(networks.contains("2001:db9::1"));
+        assertFalse(networks.contains("192.168.1.1"));
+    }
+
+    @Test
+    void testInvalidNetworksAreRejected() {
+        assertThrows(IllegalArgumentException.class, () -> IpNetworks.parse("example.com/24"));
+        assertThrows(IllegalArgumentException.class, () -> IpNetworks.parse("10.0.0.0/33"));
+    }
+}
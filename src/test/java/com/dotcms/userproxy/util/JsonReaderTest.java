@@ -0,0 +1,91 @@
+package com.dotcms.userproxy.util;
+
+import org.junit.jupiter.api.Test;
+
+import com.dotmarketing.util.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for JsonReader.
+ */
+class JsonReaderTest {
+
+    @Test
+    void testReadsNestedValues() throws Exception {
+        JsonReader reader = new JsonReader("{\"a\": \"x\\\"y\\u0041\", \"b\": [1, true, null], \"c\": {\"d\": []}}",
+                Map.of());
+
+        reader.beginObject();
+        assertEquals("a", reader.nextName());
+        assertEquals("x\"yA", reader.nextString());
+        assertEquals("b", reader.nextName());
+        assertEquals(JsonReader.Kind.ARRAY, reader.peek());
+        reader.beginArray();
+        assertEquals("1", reader.nextString());
+        assertEquals("true", reader.nextString());
+        assertEquals(JsonReader.Kind.NULL, reader.peek());
+        assertNull(reader.nextString());
+        assertFalse(reader.hasNext());
+        reader.endArray();
+        assertEquals("c", reader.nextName());
+        reader.skipValue();
+        assertFalse(reader.hasNext());
+        reader.endObject();
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    void testResolvesPlaceholdersInOnePass() throws Exception {
+        JsonReader reader = new JsonReader("[\"{token1}\", \"Bearer {token2}!\", \"[0-9]{36}\", \"{token3}\", \"{}\"]",
+                Map.of("token1", "abc", "token2", "d{token1}e"));
+
+        List<String> values = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            values.add(reader.nextString());
+        }
+        reader.endArray();
+
+        // values are not resolved again, and unknown names are left alone
+        assertEquals(List.of("abc", "Bearer d{token1}e!", "[0-9]{36}", "{token3}", "{}"), values);
+    }
+
+    @Test
+    void testAcceptsRelaxedSyntax() throws Exception {
+        JsonReader reader = new JsonReader("// comment\n{ a = 'x', /* b */ c: y; d: [1,2,], }", Map.of("y", "no"));
+
+        reader.beginObject();
+        assertEquals("a", reader.nextName());
+        assertEquals("x", reader.nextString());
+        assertEquals("c", reader.nextName());
+        assertEquals("y", reader.nextString());
+        assertEquals("d", reader.nextName());
+        reader.skipValue();
+        assertFalse(reader.hasNext());
+        reader.endObject();
+    }
+
+    @Test
+    void testRejectsMalformedDocuments() {
+        assertThrows(JSONException.class, () -> read("{ invalid json }"));
+        assertThrows(JSONException.class, () -> read("{\"a\": \"b\" \"c\": 1}"));
+        assertThrows(JSONException.class, () -> read("{\"a\": [1, 2}"));
+        assertThrows(JSONException.class, () -> read("{\"a\": \"unterminated}"));
+        assertThrows(JSONException.class, () -> read("[]"));
+    }
+
+    private static void read(String json) throws JSONException {
+        JsonReader reader = new JsonReader(json, Map.of());
+        reader.beginObject();
+        while (reader.hasNext()) {
+            reader.nextName();
+            reader.skipValue();
+        }
+        reader.endObject();
+    }
+}
@@ -0,0 +1,122 @@
+package com.dotcms.userproxy.util;
+
+import org.junit.jupiter.api.Test;
+
+import com.dotcms.userproxy.model.RateLimit;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Unit tests for TokenBucket and the RateLimit built on it.
+ */
+class TokenBucketTest {
+
+    @Test
+    void testBurstThenRefuse() {
+        // one token a minute, so nothing refills during the test
+        TokenBucket bucket = new TokenBucket(1 / 60.0, 5, 1);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, bucket.tryAcquire(), "Request " + i + " is within the burst");
+        }
+        long wait = bucket.tryAcquire();
+        assertTrue(wait > 50_000_000_000L, "Next token is about a minute away: " + wait);
+    }
+
+    @Test
+    void testStripesShareTheBurst() throws Exception {
+        TokenBucket bucket = new TokenBucket(1 / 60.0, 64, 8);
+        assertEquals(8, bucket.getStripes());
+
+        AtomicInteger allowed = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(8);
+        for (int t = 0; t < 8; t++) {
+            new Thread(() -> {
+                for (int i = 0; i < 100; i++) {
+                    if (bucket.tryAcquire() == 0) {
+                        allowed.incrementAndGet();
+                    }
+                }
+                done.countDown();
+            }).start();
+        }
+        done.await();
+
+        assertEquals(64, allowed.get(), "Every stripe is drained before requests are refused");
+    }
+
+    @Test
+    void testBurstThatDoesNotDivideEvenlyIsHonored() {
+        TokenBucket bucket = new TokenBucket(1 / 60.0, 10, 8);
+        assertEquals(8, bucket.getStripes());
+
+        int allowed = 0;
+        for (int i = 0; i < 20; i++) {
+            if (bucket.tryAcquire() == 0) {
+                allowed++;
+            }
+        }
+        assertEquals(10, allowed);
+    }
+
+    @Test
+    void testStripesNeverExceedBurst() {
+        assertEquals(2, new TokenBucket(10, 2, 16).getStripes());
+    }
+
+    @Test
+    void testSingleCellRefills() throws Exception {
+        long interval = TokenBucket.intervalNanos(1000);
+        AtomicLong cell = new AtomicLong(System.nanoTime());
+
+        assertEquals(0, TokenBucket.tryAcquire(cell, interval, interval));
+        assertTrue(TokenBucket.tryAcquire(cell, interval, interval) > 0);
+        Thread.sleep(5);
+        assertEquals(0, TokenBucket.tryAcquire(cell, interval, interval));
+    }
+
+    @Test
+    void testRateLimitPerIp() {
+        RateLimit rateLimit = new RateLimit(0, 0, 1 / 60.0, 2, true);
+
+        assertEquals(0, rateLimit.tryAcquire("host", "10.0.0.1"));
+        assertEquals(0, rateLimit.tryAcquire("host", "10.0.0.1"));
+        assertTrue(rateLimit.tryAcquire("host", "10.0.0.1") > 0);
+        assertEquals(0, rateLimit.tryAcquire("host", "10.0.0.2"), "Other clients have their own bucket");
+        assertEquals(1, rateLimit.getLimitedCount());
+        assertEquals(2, rateLimit.getTrackedIps());
+        assertTrue(rateLimit.isReject());
+    }
+
+    @Test
+    void testHostsSharingARateLimitHaveTheirOwnBuckets() {
+        RateLimit rateLimit = new RateLimit(1 / 60.0, 1, 0, 0, true);
+
+        assertEquals(0, rateLimit.tryAcquire("site-a", "10.0.0.1"));
+        assertTrue(rateLimit.tryAcquire("site-a", "10.0.0.1") > 0);
+        assertEquals(0, rateLimit.tryAcquire("site-b", "10.0.0.1"), "Another host is not limited by the first");
+        assertEquals(1, rateLimit.getLimitedCount());
+    }
+
+    @Test
+    void testHostsSharingARateLimitShareOneIpCache() {
+        RateLimit rateLimit = new RateLimit(0, 0, 1 / 60.0, 1, true);
+
+        assertEquals(0, rateLimit.tryAcquire("site-a", "10.0.0.1"));
+        assertTrue(rateLimit.tryAcquire("site-a", "10.0.0.1") > 0);
+        assertEquals(0, rateLimit.tryAcquire("site-b", "10.0.0.1"), "The address has its own bucket on each host");
+        assertEquals(2, rateLimit.getTrackedIps(), "Both hosts are tracked in the same cache");
+    }
+
+    @Test
+    void testNoRateLimit() {
+        assertFalse(RateLimit.NONE.isLimited());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(0, RateLimit.NONE.tryAcquire("host", "10.0.0.1"));
+        }
+    }
+}